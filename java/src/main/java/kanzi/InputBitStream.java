@@ -31,6 +31,12 @@ public interface InputBitStream
    // Throws if the stream is closed.
    public int readBits(byte[] bits, int start, int length) throws BitStreamException;
 
+   // Read 'len' values of 'width' bits each and put them in the int array at
+   // index 'off'. Width is the number of bits per value in [1..32].
+   // Return the number of values read.
+   // Throws if the stream is closed.
+   public int readBits(int[] values, int off, int len, int width) throws BitStreamException;
+
    public void close() throws BitStreamException;
 
    // Number of bits read
@@ -24,20 +24,21 @@ public class Memory
    {         
    }
    
-   private static final int SHIFT64_7  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  56 : 0;
-   private static final int SHIFT64_6  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  48 : 8;
-   private static final int SHIFT64_5  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  40 : 16;
-   private static final int SHIFT64_4  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  32 : 24;
-   private static final int SHIFT64_3  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  24 : 32;
-   private static final int SHIFT64_2  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  16 : 40;
-   private static final int SHIFT64_1  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  8  : 48;
-   private static final int SHIFT64_0  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  0  : 56;
-   private static final int SHIFT32_3  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  24 : 0;
-   private static final int SHIFT32_2  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  16 : 8;
-   private static final int SHIFT32_1  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  8  : 16;
-   private static final int SHIFT32_0  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  0  : 24;
-   private static final int SHIFT16_1  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  8 : 0;
-   private static final int SHIFT16_0  = (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) ?  0 : 8;
+   // Shifts of the bytes of a value stored in big endian order
+   private static final int SHIFT64_7  = 0;
+   private static final int SHIFT64_6  = 8;
+   private static final int SHIFT64_5  = 16;
+   private static final int SHIFT64_4  = 24;
+   private static final int SHIFT64_3  = 32;
+   private static final int SHIFT64_2  = 40;
+   private static final int SHIFT64_1  = 48;
+   private static final int SHIFT64_0  = 56;
+   private static final int SHIFT32_3  = 0;
+   private static final int SHIFT32_2  = 8;
+   private static final int SHIFT32_1  = 16;
+   private static final int SHIFT32_0  = 24;
+   private static final int SHIFT16_1  = 0;
+   private static final int SHIFT16_0  = 8;
    
    
    // Read, write big endian, regardless of CPU endianness
@@ -100,8 +101,8 @@ public class Memory
 
       public static void writeInt16(byte[] buf, int offset, int val)
       {
-         buf[offset+1] = (byte) (val >> SHIFT16_0);
-         buf[offset]   = (byte) (val >> SHIFT16_1);   
+         buf[offset]   = (byte) (val >> SHIFT16_0);
+         buf[offset+1] = (byte) (val >> SHIFT16_1);
       }   
    }
    
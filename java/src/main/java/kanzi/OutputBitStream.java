@@ -32,6 +32,12 @@ public interface OutputBitStream
    // Throws if the stream is closed.
    public int writeBits(byte[] bits, int start, int nbBits) throws BitStreamException;
 
+   // Write the 'width' least significant bits of each value of the int array
+   // in [off..off+len[. Width is the number of bits per value in [1..32].
+   // Return the number of values written.
+   // Throws if the stream is closed.
+   public int writeBits(int[] values, int off, int len, int width) throws BitStreamException;
+
    public void close() throws BitStreamException;
 
    // Number of bits written
@@ -37,6 +37,7 @@ import java.util.concurrent.Future;
 import kanzi.Event;
 import kanzi.SliceByteArray;
 import kanzi.function.ByteFunctionFactory;
+import kanzi.function.CustomDictionary;
 import kanzi.io.CompressedOutputStream;
 import kanzi.Error;
 import kanzi.Global;
@@ -57,11 +58,17 @@ public class BlockCompressor implements Runnable, Callable<Integer>
    private int verbosity;
    private final boolean overwrite;
    private final boolean checksum;
+   private final String checksumType;
    private final boolean skipBlocks;
+   private final boolean adaptive;
+   private final boolean alignBlocks;
+   private final Integer writeBehind; // depth of the output ring (or null)
    private final String inputName;
    private final String outputName;
    private final String codec;
    private final String transform;
+   private final String dictName;
+   private final Integer bwtChunks;
    private final int blockSize;
    private final int level; // command line compression level
    private final int jobs;
@@ -106,7 +113,26 @@ public class BlockCompressor implements Runnable, Callable<Integer>
       this.transform = (strTransf == null) ? "BWT+RANK+ZRLT" : bff.getName(bff.getType(strTransf));
       Boolean bChecksum = (Boolean) map.remove("checksum");
       this.checksum = (bChecksum == null) ? false : bChecksum;
+      String strChecksum = (String) map.remove("checksumType");
+      this.checksumType = (strChecksum == null) ? "XXHASH32" : strChecksum;
       this.verbosity = (Integer) map.remove("verbose");
+      Boolean bAdaptive = (Boolean) map.remove("adaptive");
+      boolean adapt = (bAdaptive == null) ? false : bAdaptive;
+
+      if ((adapt == true) && (bff.getROLZAlternative(bff.getType(this.transform)) == ByteFunctionFactory.NONE_TYPE))
+      {
+         if (this.verbosity > 0)
+            System.err.println("Warning: ignoring adaptive option (the transform must contain BWT or BWTS)");
+
+         adapt = false;
+      }
+
+      this.adaptive = adapt;
+      Boolean bAlignBlocks = (Boolean) map.remove("alignBlocks");
+      this.alignBlocks = (bAlignBlocks == null) ? false : bAlignBlocks;
+      this.writeBehind = (Integer) map.remove("writeBehind");
+      this.dictName = (String) map.remove("dictionary");
+      this.bwtChunks = (Integer) map.remove("bwtChunks");
       int concurrency = (Integer) map.remove("jobs");
 
       if (concurrency > MAX_CONCURRENCY)
@@ -178,12 +204,16 @@ public class BlockCompressor implements Runnable, Callable<Integer>
       printOut("Block size set to " + this.blockSize + " bytes", printFlag);
       printOut("Verbosity set to " + this.verbosity, printFlag);
       printOut("Overwrite set to " + this.overwrite, printFlag);
-      printOut("Checksum set to " +  this.checksum, printFlag);
+      printOut("Checksum set to " +  ((this.checksum == true) ? this.checksumType : "NONE"), printFlag);
 
       if (printFlag == true)
       {
          String etransform = (NONE.equals(this.transform)) ? "no" : this.transform;
          printOut("Using " + etransform + " transform (stage 1)", printFlag);
+
+         if (this.adaptive == true)
+            printOut("Transform selected per block (BWT or ROLZ)", printFlag);
+
          String ecodec = (NONE.equals(this.codec)) ? "no" : this.codec;
          printOut("Using " + ecodec + " entropy codec (stage 2)", printFlag);
       }
@@ -257,12 +287,31 @@ public class BlockCompressor implements Runnable, Callable<Integer>
          ctx.put("verbosity", this.verbosity);
          ctx.put("overwrite", this.overwrite);
          ctx.put("skipBlocks", this.skipBlocks);
+         ctx.put("adaptive", this.adaptive);
+         ctx.put("alignBlocks", this.alignBlocks);
          ctx.put("blockSize", this.blockSize);
          ctx.put("checksum", this.checksum);
+         ctx.put("checksumType", this.checksumType);
          ctx.put("pool", this.pool);
          ctx.put("codec", this.codec);
          ctx.put("transform", this.transform);
          ctx.put("extra", "TPAQX".equals(this.codec));
+
+         if (this.bwtChunks != null)
+            ctx.put("bwtChunks", this.bwtChunks);
+
+         if (this.writeBehind != null)
+            ctx.put("writeBehind", this.writeBehind);
+
+         if (this.dictName != null)
+         {
+            final Integer dictId = loadDictionary(this.dictName, this.verbosity);
+
+            if (dictId == null)
+               return Error.ERR_OPEN_FILE;
+
+            ctx.put("dictionary", dictId);
+         }
                
          // Run the task(s)
          if (nbFiles == 1)
@@ -390,7 +439,25 @@ public class BlockCompressor implements Runnable, Callable<Integer>
        if ((print == true) && (msg != null))
           System.out.println(msg);
     }
-    
+
+
+    // Read and register a custom dictionary. Return the dictionary id
+    // or null if the dictionary cannot be loaded.
+    static Integer loadDictionary(String dictName, int verbosity)
+    {
+       try
+       {
+          final int dictId = CustomDictionary.register(Files.readAllBytes(Paths.get(dictName)));
+          printOut("Using dictionary '" + dictName + "' (id " + Integer.toHexString(dictId) + ")", verbosity > 2);
+          return dictId;
+       }
+       catch (Exception e)
+       {
+          System.err.println("Cannot load dictionary '"+dictName+"': " + e.getMessage());
+          return null;
+       }
+    }
+
 
     public final boolean addListener(Listener bl)
     {
@@ -681,6 +748,10 @@ public class BlockCompressor implements Runnable, Callable<Integer>
          printOut("Output size:       "+this.cos.getWritten(), printFlag);
          float f = this.cos.getWritten() / (float) read;
          printOut("Compression ratio: "+String.format("%1$.6f", f), printFlag);
+
+         // Only with block checksums
+         if (this.cos.getStreamDigest() != 0)
+            printOut("Stream digest:     "+Long.toHexString(this.cos.getStreamDigest()), printFlag);
          
          if (delta >= 100000) {            
             str = String.format("%1$.1f", (float) delta/1000) + " s";
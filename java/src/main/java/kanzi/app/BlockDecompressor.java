@@ -21,6 +21,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -38,6 +39,7 @@ import kanzi.Event;
 import kanzi.Error;
 import kanzi.Global;
 import kanzi.SliceByteArray;
+import kanzi.bitstream.MappedInputBitStream;
 import kanzi.io.CompressedInputStream;
 import kanzi.io.NullOutputStream;
 import kanzi.Listener;
@@ -57,6 +59,10 @@ public class BlockDecompressor implements Runnable, Callable<Integer>
    private final boolean overwrite;
    private final String inputName;
    private final String outputName;
+   private final String dictName;
+   private final boolean offHeap;
+   private final boolean mmap; // map the input files in memory
+   private final Integer prefetch; // depth of read ahead (or null)
    private final int jobs;
    private final int from; // start block
    private final int to; // end block
@@ -73,6 +79,12 @@ public class BlockDecompressor implements Runnable, Callable<Integer>
       this.verbosity = (Integer) map.remove("verbose");
       this.from = (map.containsKey("from") ? (Integer) map.remove("from") : -1);
       this.to = (map.containsKey("to") ? (Integer) map.remove("to") : -1);
+      this.dictName = (String) map.remove("dictionary");
+      Boolean bOffHeap = (Boolean) map.remove("offHeap");
+      this.offHeap = (bOffHeap == null) ? false : bOffHeap;
+      Boolean bMmap = (Boolean) map.remove("mmap");
+      this.mmap = (bMmap == null) ? false : bMmap;
+      this.prefetch = (Integer) map.remove("prefetch");
       int concurrency = (Integer) map.remove("jobs");
 
       if (concurrency > MAX_CONCURRENCY)
@@ -205,12 +217,28 @@ public class BlockDecompressor implements Runnable, Callable<Integer>
          ctx.put("verbosity", this.verbosity);
          ctx.put("overwrite", this.overwrite);
          ctx.put("pool", this.pool);
+
+         if (this.dictName != null)
+         {
+            // Register the dictionary, the stream header tells whether it is used
+            if (BlockCompressor.loadDictionary(this.dictName, this.verbosity) == null)
+               return Error.ERR_OPEN_FILE;
+         }
          
          if (this.from >= 0)
             ctx.put("from", this.from);
                
          if (this.to >= 0)
             ctx.put("to", this.to);
+
+         if (this.offHeap == true)
+            ctx.put("offHeap", this.offHeap);
+
+         if (this.mmap == true)
+            ctx.put("mmap", this.mmap);
+
+         if (this.prefetch != null)
+            ctx.put("prefetch", this.prefetch);
                
          // Run the task(s)
          if (nbFiles == 1)
@@ -476,16 +504,32 @@ public class BlockDecompressor implements Runnable, Callable<Integer>
             }
          }
 
-         InputStream is;
+         InputStream is = null;
+         MappedInputBitStream mapped = null;
 
          try
          {
-            is = (STDIN.equalsIgnoreCase(inputName)) ? System.in :
-               new FileInputStream(new File(inputName));
+            if (STDIN.equalsIgnoreCase(inputName))
+            {
+               is = System.in;
+            }
+            else if ((Boolean) this.ctx.getOrDefault("mmap", false) == true)
+            {
+               // The mapping stays valid once the file is closed
+               try (RandomAccessFile raf = new RandomAccessFile(inputName, "r"))
+               {
+                  mapped = new MappedInputBitStream(raf.getChannel());
+               }
+            }
+            else
+            {
+               is = new FileInputStream(new File(inputName));
+            }
 
             try
             {
-               this.cis = new CompressedInputStream(is, this.ctx);
+               this.cis = (mapped != null) ? new CompressedInputStream(mapped, this.ctx) :
+                  new CompressedInputStream(is, this.ctx);
 
                for (Listener bl : this.listeners)
                   this.cis.addListener(bl);
@@ -556,7 +600,8 @@ public class BlockDecompressor implements Runnable, Callable<Integer>
 
             try
             {
-               is.close();
+               if (is != null)
+                  is.close();
             }
             catch (IOException e)
             {
@@ -586,6 +631,10 @@ public class BlockDecompressor implements Runnable, Callable<Integer>
          printOut("Input size:        "+this.cis.getRead(), printFlag);
          printOut("Output size:       "+read, printFlag);
 
+         // Only with block checksums
+         if (this.cis.getStreamDigest() != 0)
+            printOut("Stream digest:     "+Long.toHexString(this.cis.getStreamDigest()), printFlag);
+
          if (delta >= 100000) {            
             str = String.format("%1$.1f", (float) delta/1000) + " s";
          } else {
@@ -0,0 +1,420 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+                http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package kanzi.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import kanzi.Error;
+import kanzi.Global;
+import kanzi.Memory;
+import kanzi.function.CustomDictionary;
+
+
+// Build a custom dictionary (see CustomDictionary) from sample files.
+// The word list contains the words that save the most bytes when replaced
+// by an index (frequency * (length-2)), best words first.
+// The prefix is made of the segments of the samples that share the most
+// 8 byte substrings with other documents (greedy selection, each substring
+// is rewarded once), best segments at the end (closest to the block).
+// Files are split into documents of up to DOCUMENT_SIZE bytes.
+public class DictionaryTrainer implements Callable<Integer>
+{
+   private static final int DEFAULT_WORDS = 4096;
+   private static final int DEFAULT_PREFIX_SIZE = 32768;
+   private static final int MAX_SAMPLE_SIZE = 64*1024*1024;
+   private static final int DOCUMENT_SIZE = 16384;
+   private static final int SEGMENT_SIZE = 64;
+   private static final int NGRAM_LOG = 22;
+   private static final long NGRAM_SEED = 0x9E3779B97F4A7C15L;
+   private static final int MAX_WORD_LENGTH = 31;
+
+   private final int verbosity;
+   private final boolean overwrite;
+   private final String inputName;
+   private final String outputName;
+   private final int nbWords;
+   private final int prefixSize;
+
+
+   public DictionaryTrainer(Map<String, Object> map)
+   {
+      Boolean bForce = (Boolean) map.remove("overwrite");
+      this.overwrite = (bForce == null) ? false : bForce;
+      this.inputName = (String) map.remove("inputName");
+      this.outputName = (String) map.remove("outputName");
+      this.verbosity = (Integer) map.remove("verbose");
+      this.nbWords = DEFAULT_WORDS;
+      this.prefixSize = DEFAULT_PREFIX_SIZE;
+      map.remove("jobs");
+
+      if ((this.verbosity > 0) && (map.size() > 0))
+      {
+         for (String k : map.keySet())
+            printOut("Ignoring invalid option [" + k + "]", true);
+      }
+   }
+
+
+   // Return status (success = 0, error > 0)
+   @Override
+   public Integer call()
+   {
+      List<Path> files = new ArrayList<>();
+      long before = System.nanoTime();
+
+      try
+      {
+         Kanzi.createFileList(this.inputName, files);
+      }
+      catch (IOException e)
+      {
+         System.err.println(e.getMessage());
+         return Error.ERR_OPEN_FILE;
+      }
+
+      if (files.isEmpty())
+      {
+         System.err.println("Cannot access input file '"+this.inputName+"'");
+         return Error.ERR_OPEN_FILE;
+      }
+
+      String oName = this.outputName;
+
+      if (oName == null)
+      {
+         oName = this.inputName;
+
+         while ((oName.endsWith(".") == true) || (oName.endsWith(File.separator) == true))
+            oName = oName.substring(0, oName.length()-1);
+
+         oName += ".dict";
+      }
+
+      File output = new File(oName);
+
+      if (output.isDirectory() == true)
+      {
+         System.err.println("The output file is a directory");
+         return Error.ERR_OUTPUT_IS_DIR;
+      }
+
+      if ((output.exists() == true) && (this.overwrite == false))
+      {
+         System.err.println("File '" + oName + "' exists and the 'force' command "
+            + "line option has not been provided");
+         return Error.ERR_OVERWRITE_FILE;
+      }
+
+      // Read the samples
+      Global.sortFilesByPathAndSize(files, false);
+      byte[] data = new byte[0];
+      List<Integer> docs = new ArrayList<>(); // document start positions
+      int length = 0;
+
+      for (Path file : files)
+      {
+         if (length >= MAX_SAMPLE_SIZE)
+         {
+            printOut("Sample size limit reached, ignoring remaining files", this.verbosity > 1);
+            break;
+         }
+
+         try (InputStream is = Files.newInputStream(file))
+         {
+            final long size = Files.size(file);
+            final int toRead = (int) Math.min(size, MAX_SAMPLE_SIZE-length);
+
+            if (data.length < length+toRead)
+               data = Arrays.copyOf(data, Math.min(Math.max(2*data.length, length+toRead), MAX_SAMPLE_SIZE));
+
+            int read = 0;
+
+            while (read < toRead)
+            {
+               final int r = is.read(data, length+read, toRead-read);
+
+               if (r < 0)
+                  break;
+
+               read += r;
+            }
+
+            for (int i=0; i<read; i+=DOCUMENT_SIZE)
+               docs.add(length+i);
+
+            length += read;
+         }
+         catch (IOException e)
+         {
+            System.err.println("Cannot read file '" + file + "': " + e.getMessage());
+            return Error.ERR_READ_FILE;
+         }
+      }
+
+      printOut(files.size() + ((files.size() > 1) ? " files" : " file") + " read, " +
+         length + " bytes in " + docs.size() + " documents", this.verbosity > 0);
+      docs.add(length);
+
+      byte[] words = this.selectWords(data, length);
+      byte[] prefix = this.selectPrefix(data, docs);
+
+      try (OutputStream os = new FileOutputStream(output))
+      {
+         CustomDictionary.write(os, words, prefix);
+      }
+      catch (IOException e)
+      {
+         System.err.println("Cannot write dictionary '" + oName + "': " + e.getMessage());
+         return Error.ERR_WRITE_FILE;
+      }
+
+      long after = System.nanoTime();
+      printOut("Dictionary '" + oName + "': " + words.length + " bytes of words, " +
+         prefix.length + " bytes of prefix", this.verbosity > 0);
+      printOut("Training time: " + ((after-before)/1000000L) + " ms", this.verbosity > 1);
+      return 0;
+   }
+
+
+   // Return the best words separated by a space
+   private byte[] selectWords(byte[] data, int length)
+   {
+      Map<String, int[]> freqs = new HashMap<>();
+      int anchor = 0;
+
+      for (int i=0; i<=length; i++)
+      {
+         if ((i < length) && (isLetter(data[i]) == true))
+            continue;
+
+         final int wordLength = i - anchor;
+
+         if ((wordLength > 2) && (wordLength <= MAX_WORD_LENGTH))
+         {
+            // The case of the first character is ignored by TextCodec
+            char[] chars = new char[wordLength];
+
+            for (int j=0; j<wordLength; j++)
+               chars[j] = (char) data[anchor+j];
+
+            chars[0] = Character.toLowerCase(chars[0]);
+            String word = new String(chars);
+            int[] freq = freqs.get(word);
+
+            if (freq == null)
+               freqs.put(word, new int[] { 1 });
+            else
+               freq[0]++;
+         }
+
+         anchor = i + 1;
+      }
+
+      List<Map.Entry<String, int[]>> entries = new ArrayList<>(freqs.entrySet());
+
+      Collections.sort(entries, new Comparator<Map.Entry<String, int[]>>()
+      {
+         @Override
+         public int compare(Map.Entry<String, int[]> e1, Map.Entry<String, int[]> e2)
+         {
+            final long s1 = (long) e1.getValue()[0] * (e1.getKey().length()-2);
+            final long s2 = (long) e2.getValue()[0] * (e2.getKey().length()-2);
+            return (s1 != s2) ? Long.compare(s2, s1) : e1.getKey().compareTo(e2.getKey());
+         }
+      });
+
+      StringBuilder sb = new StringBuilder(16*this.nbWords);
+      int n = 0;
+
+      for (Map.Entry<String, int[]> e : entries)
+      {
+         // Words seen once do not save anything
+         if ((n >= this.nbWords) || (e.getValue()[0] < 2))
+            break;
+
+         if (n > 0)
+            sb.append(' ');
+
+         sb.append(e.getKey());
+         n++;
+      }
+
+      printOut(n + " words selected out of " + freqs.size(), this.verbosity > 1);
+      return sb.toString().getBytes();
+   }
+
+
+   // Return the concatenation of the best segments (best last)
+   private byte[] selectPrefix(byte[] data, List<Integer> docs)
+   {
+      final int nbDocs = docs.size() - 1;
+
+      // Document frequency of each (hashed) 8 byte substring
+      final int[] docFreqs = new int[1<<NGRAM_LOG];
+      final int[] lastDocs = new int[1<<NGRAM_LOG];
+      Arrays.fill(lastDocs, -1);
+
+      for (int d=0; d<nbDocs; d++)
+      {
+         final int end = docs.get(d+1) - 8;
+
+         for (int i=docs.get(d); i<=end; i++)
+         {
+            final int h = hash(data, i);
+
+            if (lastDocs[h] != d)
+            {
+               lastDocs[h] = d;
+               docFreqs[h]++;
+            }
+         }
+      }
+
+      // A substring seen in a single document brings nothing
+      for (int i=0; i<docFreqs.length; i++)
+      {
+         if (docFreqs[i] < 2)
+            docFreqs[i] = 0;
+      }
+
+      // Score all segments
+      List<int[]> segments = new ArrayList<>(); // start, end
+      PriorityQueue<long[]> queue = new PriorityQueue<>(1024, new Comparator<long[]>()
+      {
+         @Override
+         public int compare(long[] s1, long[] s2)
+         {
+            return (s1[0] != s2[0]) ? Long.compare(s2[0], s1[0]) : Long.compare(s1[1], s2[1]);
+         }
+      });
+
+      Arrays.fill(lastDocs, -1);
+      int stamp = 0;
+
+      for (int d=0; d<nbDocs; d++)
+      {
+         final int docEnd = docs.get(d+1);
+
+         for (int start=docs.get(d); start+8<=docEnd; start+=SEGMENT_SIZE)
+         {
+            final int end = Math.min(start+SEGMENT_SIZE, docEnd);
+            final long score = score(data, start, end, docFreqs, lastDocs, stamp++);
+
+            if (score > 0)
+            {
+               segments.add(new int[] { start, end });
+               queue.add(new long[] { score, segments.size()-1 });
+            }
+         }
+      }
+
+      // Lazy greedy selection: the score of a segment can only decrease
+      // when other segments are selected.
+      List<int[]> selected = new ArrayList<>();
+      int size = 0;
+
+      while ((size < this.prefixSize) && (queue.isEmpty() == false))
+      {
+         long[] top = queue.poll();
+         final int[] seg = segments.get((int) top[1]);
+         final long score = score(data, seg[0], seg[1], docFreqs, lastDocs, stamp++);
+
+         if (score <= 0)
+            continue;
+
+         if ((queue.isEmpty() == false) && (score < queue.peek()[0]))
+         {
+            top[0] = score;
+            queue.add(top);
+            continue;
+         }
+
+         // Each substring is rewarded once
+         for (int i=seg[0]; i+8<=seg[1]; i++)
+            docFreqs[hash(data, i)] = 0;
+
+         final int len = Math.min(seg[1]-seg[0], this.prefixSize-size);
+         selected.add(new int[] { seg[0], seg[0]+len });
+         size += len;
+      }
+
+      byte[] prefix = new byte[size];
+      int idx = 0;
+
+      for (int i=selected.size()-1; i>=0; i--)
+      {
+         final int[] seg = selected.get(i);
+         System.arraycopy(data, seg[0], prefix, idx, seg[1]-seg[0]);
+         idx += (seg[1] - seg[0]);
+      }
+
+      printOut(selected.size() + " segments selected out of " + segments.size(), this.verbosity > 1);
+      return prefix;
+   }
+
+
+   // Sum of the document frequencies of the distinct substrings in the segment
+   private static long score(byte[] data, int start, int end, int[] docFreqs, int[] stamps, int stamp)
+   {
+      long score = 0;
+
+      for (int i=start; i+8<=end; i++)
+      {
+         final int h = hash(data, i);
+
+         if (stamps[h] != stamp)
+         {
+            stamps[h] = stamp;
+            score += docFreqs[h];
+         }
+      }
+
+      return score;
+   }
+
+
+   private static int hash(byte[] block, int idx)
+   {
+      return (int) ((Memory.LittleEndian.readLong64(block, idx)*NGRAM_SEED) >>> (64-NGRAM_LOG));
+   }
+
+
+   private static boolean isLetter(byte val)
+   {
+      return ((val >= 'a') && (val <= 'z')) || ((val >= 'A') && (val <= 'Z'));
+   }
+
+
+   private static void printOut(String msg, boolean print)
+   {
+      if ((print == true) && (msg != null))
+         System.out.println(msg);
+   }
+}
@@ -25,6 +25,10 @@ import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import kanzi.bitstream.PrefetchInputBitStream;
+import kanzi.bitstream.WriteBehindOutputBitStream;
+import kanzi.io.BlockChecksum;
+import kanzi.transform.BWT;
 
 
 
@@ -128,6 +132,23 @@ public class Kanzi
          System.exit(code);
       }
 
+      if (mode == 't')
+      {
+         DictionaryTrainer dt = null;
+
+         try
+         {
+            dt = new DictionaryTrainer(map);
+         }
+         catch (Exception e)
+         {
+            System.err.println("Could not create the dictionary trainer: "+e.getMessage());
+            System.exit(kanzi.Error.ERR_INVALID_PARAM);
+         }
+
+         System.exit(dt.call());
+      }
+
       System.out.println("Missing arguments: try --help or -h");
       System.exit(1);
    }
@@ -139,11 +160,20 @@ public class Kanzi
         int verbose = 1;
         boolean overwrite = false;
         boolean checksum = false;
+        String checksumType = null;
         boolean skip = false;
+        boolean offHeap = false;
+        boolean mmap = false;
+        boolean adaptive = false;
+        boolean alignBlocks = false;
         String inputName = null;
         String outputName = null;
         String codec = null;
         String transform = null;
+        String dictName = null;
+        int bwtChunks = -1;
+        int prefetch = -1;
+        int writeBehind = -1;
         int from = -1;
         int to = -1;
         int tasks = 0;
@@ -176,6 +206,12 @@ public class Kanzi
                   return kanzi.Error.ERR_INVALID_PARAM;
               }
 
+              if (mode == 't')
+              {
+                  System.err.println("Both compression and training options were provided.");
+                  return kanzi.Error.ERR_INVALID_PARAM;
+              }
+
               mode = 'c';
               continue;
            }
@@ -188,10 +224,28 @@ public class Kanzi
                   return kanzi.Error.ERR_INVALID_PARAM;
               }
 
+              if (mode == 't')
+              {
+                  System.err.println("Both decompression and training options were provided.");
+                  return kanzi.Error.ERR_INVALID_PARAM;
+              }
+
               mode = 'd';
               continue;
            }
 
+           if (arg.equals("--train"))
+           {
+              if ((mode == 'c') || (mode == 'd'))
+              {
+                  System.err.println("Both training and (de)compression options were provided.");
+                  return kanzi.Error.ERR_INVALID_PARAM;
+              }
+
+              mode = 't';
+              continue;
+           }
+
            if (arg.startsWith("--verbose=") || (ctx == ARG_IDX_VERBOSE))
            {
                String verboseLevel = arg.startsWith("--verbose=") ? arg.substring(10).trim() : arg;
@@ -266,12 +320,16 @@ public class Kanzi
                   printOut("        <inputName.bak>) or 'none' or 'stdout'. 'stdout' is not valid", true);
                   printOut("        when the number of jobs is greater than 1.\n", true);
                }
+               else if (mode == 't')
+               {
+                  printOut("        optional name of the dictionary file (defaults to <inputName.dict>)\n", true);
+               }
                else
                {
                   printOut("        optional name of the output file or 'none' or 'stdout'.\n", true);
                }
 
-               if (mode != 'd')
+               if ((mode != 'd') && (mode != 't'))
                {
                   printOut("   -b, --block=<size>", true);
                   printOut("        size of blocks, multiple of 16 (default 1 MB, max 1 GB, min 1 KB).\n", true);
@@ -286,20 +344,60 @@ public class Kanzi
                   printOut("        (default is ANS0)\n", true);
                   printOut("   -t, --transform=<codec>", true);
                   printOut("        transform [None|BWT|BWTS|LZ|LZP|ROLZ|ROLZX|RLT|ZRLT]", true);
-                  printOut("                  [MTFT|RANK|SRT|TEXT|X86]", true);
+                  printOut("                  [MTFT|RANK|SRT|TEXT|X86|MTFZ|RANKZ|DEDUP]", true);
+                  printOut("        MTFZ and RANKZ are faster fused MTFT+ZRLT and RANK+ZRLT", true);
+                  printOut("        DEDUP removes long repeats (EG: DEDUP+BWT on repetitive data)", true);
                   printOut("        EG: BWT+RANK or BWTS+MTFT (default is BWT+RANK+ZRLT)\n", true);
                   printOut("   -x, --checksum", true);
-                  printOut("        enable block checksum\n", true);
+                  printOut("        enable block checksum (XXHASH32)\n", true);
+                  printOut("   --checksum=<type>", true);
+                  printOut("        block checksum type: XXHASH32, XXHASH64, CRC32C (hardware", true);
+                  printOut("        accelerated from Java 9) or NONE\n", true);
                   printOut("   -s, --skip", true);
                   printOut("        copy blocks with high entropy instead of compressing them.\n", true);
+                  printOut("   --adaptive", true);
+                  printOut("        select the transform of each block after a quick estimation of", true);
+                  printOut("        its content: the BWT part of the transform or ROLZ (for random", true);
+                  printOut("        data or long repeats). The transform must contain BWT or BWTS.\n", true);
+                  printOut("   --align-blocks", true);
+                  printOut("        pad the compressed blocks to a byte boundary (at most 7 bits per", true);
+                  printOut("        block) to write them to the output without shifting the bits.\n", true);
+                  printOut("   --bwt-chunks=<chunks>", true);
+                  printOut("        maximum number of chunks per BWT block (default 8, max "+BWT.MAX_EXT_CHUNKS+").", true);
+                  printOut("        Beyond 8, chunks of at least 1 MB let the decompression of big", true);
+                  printOut("        blocks use more jobs.\n", true);
+                  printOut("   --write-behind=<depth>", true);
+                  printOut("        write the output on a background thread, with up to <depth>", true);
+                  printOut("        pending buffers of 256 KB (useful with slow storage), max "+WriteBehindOutputBitStream.MAX_DEPTH+".\n", true);
                }
 
+               if ((mode != 'c') && (mode != 't'))
+               {
+                  printOut("   --off-heap", true);
+                  printOut("        keep the LF table of the inverse BWT of big blocks outside of the", true);
+                  printOut("        Java heap (useful with blocks of 256 MB or more). Decompression only:", true);
+                  printOut("        compression keeps the suffix array on the heap. The direct memory limit", true);
+                  printOut("        (-XX:MaxDirectMemorySize) must allow 4 bytes per block byte and job.\n", true);
+                  printOut("   --mmap", true);
+                  printOut("        map the input files in memory and decode the blocks straight from", true);
+                  printOut("        the mapping (local files, ignored when reading from stdin).\n", true);
+                  printOut("   --prefetch=<depth>", true);
+                  printOut("        read up to <depth> buffers of 256 KB of the input ahead, on a", true);
+                  printOut("        background thread (useful with slow or network storage), max "+PrefetchInputBitStream.MAX_DEPTH+".\n", true);
+               }
+
+               printOut("   --dict=<fileName>", true);
+               printOut("        custom dictionary used by the TEXT and LZ transforms. The same", true);
+               printOut("        dictionary must be provided for compression and decompression.\n", true);
+               printOut("   --train", true);
+               printOut("        build a dictionary from the sample files in the input (words for", true);
+               printOut("        the TEXT transform, data prefix for the LZ transform).\n", true);
                printOut("   -j, --jobs=<jobs>", true);
                printOut("        maximum number of jobs the program may start concurrently", true);
                printOut("        (default is 1, maximum is 64).\n", true);
                printOut("", true);
 
-               if (mode != 'd')
+               if ((mode != 'd') && (mode != 't'))
                {
                   printOut("EG. java -cp kanzi.jar -c -i foo.txt -o none -b 4m -l 4 -v 3\n", true);
                   printOut("EG. java -cp kanzi.jar -c -i foo.txt -f ", true);
@@ -309,7 +407,13 @@ public class Kanzi
                   printOut("    --verbose=3 --jobs=4\n", true);
                }
 
-               if (mode != 'c')
+               if (mode == 't')
+               {
+                  printOut("EG. java -cp kanzi.jar --train -i samples -o samples.dict -f\n", true);
+                  printOut("EG. java -cp kanzi.jar -c -i foo.json -l 1 --dict=samples.dict\n", true);
+               }
+
+               if ((mode != 'c') && (mode != 't'))
                {
                   printOut("EG. java -cp kanzi.jar -d -i foo.knz -f -v 2 -j 2\n", true);
                   printOut("EG. java -cp kanzi.jar --decompress --input=foo.knz --force --verbose=2 --jobs=2\n", true);
@@ -318,7 +422,8 @@ public class Kanzi
                return 0;
            }
 
-           if (arg.equals("--compress") || arg.equals("-c") || arg.equals("--decompress") || arg.equals("-d"))
+           if (arg.equals("--compress") || arg.equals("-c") || arg.equals("--decompress") || arg.equals("-d")
+              || arg.equals("--train"))
            {
                if (ctx != -1)
                   printOut("Warning: ignoring option [" + CMD_LINE_ARGS[ctx] + "] with no value.", verbose>0);
@@ -347,6 +452,46 @@ public class Kanzi
                continue;
            }
 
+           if (arg.equals("--adaptive"))
+           {
+               if (ctx != -1)
+                  printOut("Warning: ignoring option [" + CMD_LINE_ARGS[ctx] + "] with no value.", verbose>0);
+
+               adaptive = true;
+               ctx = -1;
+               continue;
+           }
+
+           if (arg.equals("--align-blocks"))
+           {
+               if (ctx != -1)
+                  printOut("Warning: ignoring option [" + CMD_LINE_ARGS[ctx] + "] with no value.", verbose>0);
+
+               alignBlocks = true;
+               ctx = -1;
+               continue;
+           }
+
+           if (arg.equals("--off-heap"))
+           {
+               if (ctx != -1)
+                  printOut("Warning: ignoring option [" + CMD_LINE_ARGS[ctx] + "] with no value.", verbose>0);
+
+               offHeap = true;
+               ctx = -1;
+               continue;
+           }
+
+           if (arg.equals("--mmap"))
+           {
+               if (ctx != -1)
+                  printOut("Warning: ignoring option [" + CMD_LINE_ARGS[ctx] + "] with no value.", verbose>0);
+
+               mmap = true;
+               ctx = -1;
+               continue;
+           }
+
            if (arg.equals("--checksum") || arg.equals("-x"))
            {
                if (ctx != -1)
@@ -598,6 +743,119 @@ public class Kanzi
               }
            }               
 
+           if (arg.startsWith("--bwt-chunks=") && (ctx == -1))
+           {
+               String name = arg.substring(13).trim();
+
+               if (bwtChunks != -1)
+               {
+                  System.err.println("Warning: ignoring duplicate number of BWT chunks: "+name);
+                  continue;
+               }
+
+               try
+               {
+                  bwtChunks = Integer.parseInt(name);
+
+                  if ((bwtChunks < 1) || (bwtChunks > BWT.MAX_EXT_CHUNKS))
+                     throw new NumberFormatException();
+
+                  continue;
+              }
+              catch (NumberFormatException e)
+              {
+                  System.err.println("Invalid number of BWT chunks provided on command line: "+arg);
+                  return kanzi.Error.ERR_INVALID_PARAM;
+              }
+           }
+
+           if (arg.startsWith("--checksum=") && (ctx == -1))
+           {
+               String name = arg.substring(11).trim().toUpperCase();
+
+               if (checksumType != null)
+               {
+                  System.err.println("Warning: ignoring duplicate checksum type: "+name);
+                  continue;
+               }
+
+               try
+               {
+                  BlockChecksum.getType(name);
+                  checksumType = name;
+                  continue;
+               }
+               catch (IllegalArgumentException e)
+               {
+                  System.err.println("Invalid checksum type provided on command line: "+arg);
+                  return kanzi.Error.ERR_INVALID_PARAM;
+               }
+           }
+
+           if (arg.startsWith("--prefetch=") && (ctx == -1))
+           {
+               String name = arg.substring(11).trim();
+
+               if (prefetch != -1)
+               {
+                  System.err.println("Warning: ignoring duplicate prefetch depth: "+name);
+                  continue;
+               }
+
+               try
+               {
+                  prefetch = Integer.parseInt(name);
+
+                  if ((prefetch < 1) || (prefetch > PrefetchInputBitStream.MAX_DEPTH))
+                     throw new NumberFormatException();
+
+                  continue;
+              }
+              catch (NumberFormatException e)
+              {
+                  System.err.println("Invalid prefetch depth provided on command line: "+arg);
+                  return kanzi.Error.ERR_INVALID_PARAM;
+              }
+           }
+
+           if (arg.startsWith("--write-behind=") && (ctx == -1))
+           {
+               String name = arg.substring(15).trim();
+
+               if (writeBehind != -1)
+               {
+                  System.err.println("Warning: ignoring duplicate write behind depth: "+name);
+                  continue;
+               }
+
+               try
+               {
+                  writeBehind = Integer.parseInt(name);
+
+                  if ((writeBehind < 1) || (writeBehind > WriteBehindOutputBitStream.MAX_DEPTH))
+                     throw new NumberFormatException();
+
+                  continue;
+              }
+              catch (NumberFormatException e)
+              {
+                  System.err.println("Invalid write behind depth provided on command line: "+arg);
+                  return kanzi.Error.ERR_INVALID_PARAM;
+              }
+           }
+
+           if (arg.startsWith("--dict=") && (ctx == -1))
+           {
+               String name = arg.substring(7).trim();
+
+               if (dictName != null)
+                  System.err.println("Warning: ignoring duplicate dictionary: "+name);
+               else
+                  dictName = name;
+
+               continue;
+           }
+
            if (!arg.startsWith("--verbose=") && (ctx == -1) && !arg.startsWith("--output="))
            {
                printOut("Warning: ignoring unknown option ["+ arg + "]", verbose>0);
@@ -636,6 +894,54 @@ public class Kanzi
            }
          }  
         
+        if ((bwtChunks != -1) && (mode != 'c'))
+        {
+            printOut("Warning: ignoring number of BWT chunks (only valid for compression)", verbose>0);
+            bwtChunks = -1;
+        }
+
+        if ((adaptive == true) && (mode != 'c'))
+        {
+            printOut("Warning: ignoring adaptive option (only valid for compression)", verbose>0);
+            adaptive = false;
+        }
+
+        if ((alignBlocks == true) && (mode != 'c'))
+        {
+            printOut("Warning: ignoring block alignment option (only valid for compression)", verbose>0);
+            alignBlocks = false;
+        }
+
+        if ((checksumType != null) && (mode != 'c'))
+        {
+            printOut("Warning: ignoring checksum type (only valid for compression)", verbose>0);
+            checksumType = null;
+        }
+
+        if ((writeBehind != -1) && (mode != 'c'))
+        {
+            printOut("Warning: ignoring write behind depth (only valid for compression)", verbose>0);
+            writeBehind = -1;
+        }
+
+        if ((prefetch != -1) && (mode != 'd'))
+        {
+            printOut("Warning: ignoring prefetch depth (only valid for decompression)", verbose>0);
+            prefetch = -1;
+        }
+
+        if ((offHeap == true) && (mode != 'd'))
+        {
+            printOut("Warning: ignoring off heap option (only valid for decompression)", verbose>0);
+            offHeap = false;
+        }
+
+        if ((mmap == true) && (mode != 'd'))
+        {
+            printOut("Warning: ignoring mmap option (only valid for decompression)", verbose>0);
+            mmap = false;
+        }
+
         if (blockSize != -1)
            map.put("block", blockSize);
 
@@ -657,6 +963,14 @@ public class Kanzi
         if (transform != null)
            map.put("transform", transform);
 
+        if (checksumType != null)
+        {
+           checksum = !"NONE".equals(checksumType);
+
+           if (checksum == true)
+              map.put("checksumType", checksumType);
+        }
+
         if (checksum == true)
            map.put("checksum", checksum);
 
@@ -669,6 +983,30 @@ public class Kanzi
         if (to >= 0)
            map.put("to", to);
 
+        if (dictName != null)
+           map.put("dictionary", dictName);
+
+        if (bwtChunks != -1)
+           map.put("bwtChunks", bwtChunks);
+
+        if (offHeap == true)
+           map.put("offHeap", offHeap);
+
+        if (mmap == true)
+           map.put("mmap", mmap);
+
+        if (prefetch != -1)
+           map.put("prefetch", prefetch);
+
+        if (writeBehind != -1)
+           map.put("writeBehind", writeBehind);
+
+        if (adaptive == true)
+           map.put("adaptive", adaptive);
+
+        if (alignBlocks == true)
+           map.put("alignBlocks", alignBlocks);
+
         map.put("jobs", tasks);
         return 0;
     }
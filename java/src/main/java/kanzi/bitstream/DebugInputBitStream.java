@@ -240,6 +240,17 @@ public final class DebugInputBitStream implements InputBitStream
    }
 
 
+   @Override
+   public synchronized int readBits(int[] values, int off, int len, int width) throws BitStreamException
+   {
+      // Value by value to print the bits
+      for (int i=off; i<off+len; i++)
+         values[i] = (int) this.readBits(width);
+
+      return len;
+   }
+
+
    @Override
    public void close() throws BitStreamException
    {
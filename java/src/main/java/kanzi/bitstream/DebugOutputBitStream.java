@@ -240,6 +240,17 @@ public final class DebugOutputBitStream implements OutputBitStream
    }
 
 
+   @Override
+   public synchronized int writeBits(int[] values, int off, int len, int width) throws BitStreamException
+   {
+      // Value by value to print the bits
+      for (int i=off; i<off+len; i++)
+         this.writeBits((long) values[i], width);
+
+      return len;
+   }
+
+
    @Override
    public void close() throws BitStreamException
    {
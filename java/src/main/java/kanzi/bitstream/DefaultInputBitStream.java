@@ -200,7 +200,51 @@ public final class DefaultInputBitStream implements InputBitStream
       return count;
    }
 
-   
+
+   @Override
+   public int readBits(int[] values, int off, int len, int width) throws BitStreamException
+   {
+      if (this.isClosed() == true)
+         throw new BitStreamException("Stream closed", BitStreamException.STREAM_CLOSED);
+
+      if (((width-1) & -32) != 0)
+         throw new IllegalArgumentException("Invalid bit count: "+width+" (must be in [1..32])");
+
+      if ((off < 0) || (len < 0) || (len > values.length-off))
+         throw new IllegalArgumentException("Invalid length: "+len+" (must be in [0.." +
+            (values.length-off) + "])");
+
+      final long mask = (1L << width) - 1;
+      final int end = off + len;
+      long cur = this.current;
+      int avail = this.availBits;
+
+      // Work on local copies of 'current' and 'availBits' (written back
+      // before each refill)
+      for (int i=off; i<end; i++)
+      {
+         if (width <= avail)
+         {
+            avail -= width;
+            values[i] = (int) ((cur >>> avail) & mask);
+            continue;
+         }
+
+         final int r = width - avail;
+         final long hi = cur & ((1L << avail) - 1);
+         this.availBits = 0;
+         this.pullCurrent();
+         cur = this.current;
+         avail = this.availBits - r;
+         values[i] = (int) ((hi << r) | (cur >>> avail));
+      }
+
+      this.current = cur;
+      this.availBits = avail;
+      return len;
+   }
+
+
    // Pull 64 bits of current value from buffer.
    private void pullCurrent()
    {
@@ -119,6 +119,27 @@ public final class DefaultOutputBitStream implements OutputBitStream
             remaining -= 8;
          }
 
+         // Large chunk: write the internal buffer then the bits array as is
+         // (no copy to the internal buffer)
+         if ((remaining>>3) >= this.buffer.length-this.position)
+         {
+            final int len = remaining >> 3;
+            this.flush();
+
+            try
+            {
+               this.os.write(bits, start, len);
+            }
+            catch (IOException e)
+            {
+               throw new BitStreamException(e.getMessage(), BitStreamException.INPUT_OUTPUT);
+            }
+
+            this.written += ((long) len << 3);
+            start += len;
+            remaining -= (len<<3);
+         }
+
          // Copy bits array to internal buffer
          while ((remaining>>3) >= this.buffer.length-this.position)
          {
@@ -175,6 +196,50 @@ public final class DefaultOutputBitStream implements OutputBitStream
    }
 
 
+   @Override
+   public int writeBits(int[] values, int off, int len, int width)
+   {
+      if (this.isClosed() == true)
+         throw new BitStreamException("Stream closed", BitStreamException.STREAM_CLOSED);
+
+      if (((width-1) & -32) != 0)
+         throw new IllegalArgumentException("Invalid bit count: "+width+" (must be in [1..32])");
+
+      if ((off < 0) || (len < 0) || (len > values.length-off))
+         throw new IllegalArgumentException("Invalid length: "+len+" (must be in [0.." +
+            (values.length-off) + "])");
+
+      final long mask = (1L << width) - 1;
+      final int end = off + len;
+      long cur = this.current;
+      int avail = this.availBits;
+
+      // Work on local copies of 'current' and 'availBits' (written back
+      // before each push)
+      for (int i=off; i<end; i++)
+      {
+         final long value = values[i] & mask;
+
+         if (width < avail)
+         {
+            avail -= width;
+            cur |= (value << avail);
+            continue;
+         }
+
+         final int r = width - avail;
+         this.current = cur | (value >>> r);
+         this.pushCurrent();
+         avail = 64 - r;
+         cur = (r == 0) ? 0 : value << avail;
+      }
+
+      this.current = cur;
+      this.availBits = avail;
+      return len;
+   }
+
+
    // Push 64 bits of current value into buffer.
    private void pushCurrent()
    {
@@ -0,0 +1,422 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package kanzi.bitstream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import kanzi.BitStreamException;
+import kanzi.InputBitStream;
+import kanzi.Memory;
+
+
+// Read only input bitstream over a memory mapped file. The file is mapped in
+// chunks (1 GB by default) to support files bigger than 2 GB. There is no
+// intermediate buffer: the bits are loaded from the mapping and byte aligned
+// reads of byte arrays copy straight from it.
+// slice() returns an independent bitstream over a range of bits (EG. a block)
+// sharing the mapping, so that it can be decoded by another thread without
+// copy. The last byte of a slice is zero padded (same bits as a copy of the
+// range to a byte array, starting at the first bit of the slice).
+public final class MappedInputBitStream implements InputBitStream
+{
+   public static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+   private final ByteBuffer[] chunks; // views of the mapped chunks owned by this stream
+   private final int logChunkSize;
+   private final long chunkMask;
+   private final long startBit;  // first bit of the stream in the file
+   private final long endBit;    // end of the stream in the file (bit excluded)
+   private final long padEnd;    // end of the last byte of the stream (zero padded)
+   private long position;        // index in the file of the next byte to load
+   private int availBits;        // bits not consumed in current
+   private long current;
+   private long read;
+   private boolean closed;
+
+
+   public MappedInputBitStream(FileChannel channel) throws IOException
+   {
+      this(channel, DEFAULT_CHUNK_SIZE);
+   }
+
+
+   // The channel can be closed once the stream is created (the mapping stays valid)
+   public MappedInputBitStream(FileChannel channel, int chunkSize) throws IOException
+   {
+      if (channel == null)
+         throw new NullPointerException("Invalid null channel parameter");
+
+      if (chunkSize < 1024)
+         throw new IllegalArgumentException("Invalid chunk size (must be at least 1024)");
+
+      if ((chunkSize & (chunkSize-1)) != 0)
+         throw new IllegalArgumentException("Invalid chunk size (must be a power of 2)");
+
+      final long size = channel.size();
+      final long nbChunks = (size + chunkSize - 1) / chunkSize;
+
+      if (nbChunks > Integer.MAX_VALUE)
+         throw new IllegalArgumentException("Invalid chunk size (too small for the file size)");
+
+      this.chunks = new ByteBuffer[(int) nbChunks];
+
+      for (int i=0; i<this.chunks.length; i++)
+      {
+         final long offset = (long) i * chunkSize;
+         this.chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+            Math.min(chunkSize, size-offset));
+      }
+
+      this.logChunkSize = Integer.numberOfTrailingZeros(chunkSize);
+      this.chunkMask = chunkSize - 1;
+      this.startBit = 0;
+      this.endBit = size << 3;
+      this.padEnd = this.endBit;
+   }
+
+
+   private MappedInputBitStream(MappedInputBitStream parent, long startBit, long endBit)
+   {
+      this.chunks = new ByteBuffer[parent.chunks.length];
+
+      for (int i=0; i<this.chunks.length; i++)
+         this.chunks[i] = parent.chunks[i].duplicate();
+
+      this.logChunkSize = parent.logChunkSize;
+      this.chunkMask = parent.chunkMask;
+      this.startBit = startBit;
+      this.endBit = endBit;
+      this.padEnd = startBit + ((endBit-startBit+7) & -8L);
+      this.position = startBit >>> 3;
+
+      if (((startBit & 7) != 0) && (startBit < endBit))
+      {
+         this.pullCurrent();
+         this.availBits -= (int) (startBit & 7);
+      }
+
+      this.read = this.availBits - (this.position<<3);
+   }
+
+
+   // Return an independent bitstream over 'bitLength' bits starting at
+   // 'bitOffset' (relative to the start of this stream). The position of this
+   // stream is not changed.
+   public MappedInputBitStream slice(long bitOffset, long bitLength)
+   {
+      if (this.isClosed() == true)
+         throw new BitStreamException("Stream closed", BitStreamException.STREAM_CLOSED);
+
+      if ((bitOffset < 0) || (bitLength < 0) || (bitLength > this.endBit-this.startBit-bitOffset))
+         throw new IllegalArgumentException("Invalid slice: offset "+bitOffset+", length "+bitLength+
+            " (stream length is "+(this.endBit-this.startBit)+")");
+
+      return new MappedInputBitStream(this, this.startBit+bitOffset, this.startBit+bitOffset+bitLength);
+   }
+
+
+   // Skip 'count' bits. Trigger exception if stream is closed or if the end
+   // of stream is passed
+   public void skip(long count) throws BitStreamException
+   {
+      if (this.isClosed() == true)
+         throw new BitStreamException("Stream closed", BitStreamException.STREAM_CLOSED);
+
+      final long consumed = this.read();
+      final long bit = this.startBit + consumed + count;
+
+      if (count < 0)
+         throw new IllegalArgumentException("Invalid bit count: "+count+" (must be positive)");
+
+      if (bit > this.endBit)
+         throw new BitStreamException("No more data to read in the bitstream",
+                 BitStreamException.END_OF_STREAM);
+
+      this.position = bit >>> 3;
+      this.availBits = 0;
+
+      if ((bit & 7) != 0)
+      {
+         this.pullCurrent();
+         this.availBits -= (int) (bit & 7);
+      }
+
+      // Keep read() consistent with the new position
+      this.read += (consumed + count - this.read());
+   }
+
+
+   // Return 1 or 0. Trigger exception if stream is closed
+   @Override
+   public int readBit() throws BitStreamException
+   {
+      if (this.availBits == 0)
+         this.pullCurrent(); // Triggers an exception if stream is closed
+
+      this.availBits--;
+      return (int) (this.current >> this.availBits) & 1;
+   }
+
+
+   // Return value of 'count' next bits as a long. Trigger exception if stream is closed
+   @Override
+   public long readBits(int count) throws BitStreamException
+   {
+      if (((count-1) & -64) != 0)
+         throw new IllegalArgumentException("Invalid bit count: "+count+" (must be in [1..64])");
+
+      if (count <= this.availBits)
+      {
+         // Enough spots available in 'current'
+         this.availBits -= count;
+         return (this.current >>> this.availBits) & (-1L >>> -count);
+      }
+
+      // Not enough spots available in 'current'
+      count -= this.availBits;
+      final long res = this.current & ((1L << this.availBits) - 1);
+      this.pullCurrent();
+      this.availBits -= count;
+      return (res << count) | (this.current >>> this.availBits);
+   }
+
+
+   @Override
+   public int readBits(byte[] bits, int start, int count) throws BitStreamException
+   {
+      if (this.isClosed() == true)
+         throw new BitStreamException("Stream closed", BitStreamException.STREAM_CLOSED);
+
+      if ((count < 0) || ((count>>3) > bits.length-start))
+         throw new IllegalArgumentException("Invalid bit count: "+count+" (must be in [1.." +
+           (((long)(bits.length-start))<<3) + "])");
+
+      if (count == 0)
+         return 0;
+
+      int remaining = count;
+
+      // Byte aligned cursor ?
+      if ((this.availBits & 7) == 0)
+      {
+         // Empty this.current
+         while ((this.availBits > 0) && (remaining >= 8))
+         {
+            bits[start] = (byte) this.readBits(8);
+            start++;
+            remaining -= 8;
+         }
+
+         if (this.availBits == 0)
+         {
+            // Copy the full bytes of the stream from the mapping
+            final int len = (int) Math.min(remaining>>3, Math.max((this.endBit>>>3)-this.position, 0));
+            this.copy(this.position, bits, start, len);
+            this.position += len;
+            start += len;
+            remaining -= (len<<3);
+         }
+      }
+      else
+      {
+         // Not byte aligned
+         final int r = 64 - this.availBits;
+
+         while ((remaining >= 64) && (this.endBit-(this.position<<3) >= 64))
+         {
+            final long v = this.current & ((1L<<this.availBits)-1);
+            this.pullCurrent();
+            this.availBits -= r;
+            Memory.BigEndian.writeLong64(bits, start, (v<<r) | (this.current>>>this.availBits));
+            start += 8;
+            remaining -= 64;
+         }
+      }
+
+      // Last bytes
+      while (remaining >= 8)
+      {
+         bits[start] = (byte) this.readBits(8);
+         start++;
+         remaining -= 8;
+      }
+
+      if (remaining > 0)
+         bits[start] = (byte) (this.readBits(remaining)<<(8-remaining));
+
+      return count;
+   }
+
+
+   @Override
+   public int readBits(int[] values, int off, int len, int width) throws BitStreamException
+   {
+      if (this.isClosed() == true)
+         throw new BitStreamException("Stream closed", BitStreamException.STREAM_CLOSED);
+
+      if (((width-1) & -32) != 0)
+         throw new IllegalArgumentException("Invalid bit count: "+width+" (must be in [1..32])");
+
+      if ((off < 0) || (len < 0) || (len > values.length-off))
+         throw new IllegalArgumentException("Invalid length: "+len+" (must be in [0.." +
+            (values.length-off) + "])");
+
+      final long mask = (1L << width) - 1;
+      final int end = off + len;
+      long cur = this.current;
+      int avail = this.availBits;
+
+      // Work on local copies of 'current' and 'availBits' (written back
+      // before each refill)
+      for (int i=off; i<end; i++)
+      {
+         if (width <= avail)
+         {
+            avail -= width;
+            values[i] = (int) ((cur >>> avail) & mask);
+            continue;
+         }
+
+         final int r = width - avail;
+         final long hi = cur & ((1L << avail) - 1);
+         this.availBits = 0;
+         this.pullCurrent();
+         cur = this.current;
+         avail = this.availBits - r;
+         values[i] = (int) ((hi << r) | (cur >>> avail));
+      }
+
+      this.current = cur;
+      this.availBits = avail;
+      return len;
+   }
+
+
+   // Pull 64 bits of current value from the mapping.
+   private void pullCurrent()
+   {
+      if (this.isClosed() == true)
+         throw new BitStreamException("Stream closed", BitStreamException.STREAM_CLOSED);
+
+      final long remaining = this.padEnd - (this.position<<3);
+
+      if (remaining <= 0)
+         throw new BitStreamException("No more data to read in the bitstream",
+                 BitStreamException.END_OF_STREAM);
+
+      if (this.endBit-(this.position<<3) >= 64)
+      {
+         // Regular processing
+         final ByteBuffer chunk = this.chunks[(int) (this.position>>>this.logChunkSize)];
+         final int idx = (int) (this.position & this.chunkMask);
+
+         if (idx <= chunk.limit()-8)
+            this.current = chunk.getLong(idx); // big endian
+         else
+            this.current = this.readLong(this.position, 8); // across chunks
+
+         this.availBits = 64;
+         this.position += 8;
+         return;
+      }
+
+      // End of stream: load the last bits of the stream followed by the zeros
+      // padding the last byte (relative to the start of the stream)
+      final int nbBits = (int) Math.min(remaining, 64);
+      final int valid = (int) Math.min(nbBits, Math.max(this.endBit-(this.position<<3), 0));
+      final int nbBytes = (valid+7) >>> 3;
+      final long val = this.readLong(this.position, nbBytes) >>> ((nbBytes<<3)-valid);
+      this.current = (valid == 0) ? 0 : val << (nbBits-valid);
+      this.availBits = nbBits;
+
+      // The position moves to the next byte: adjust the count of bits read
+      this.position += ((nbBits+7) >>> 3);
+      this.read -= (((nbBits+7) & -8) - nbBits);
+   }
+
+
+   // Read 'length' bytes (big endian) at index 'pos' of the file
+   private long readLong(long pos, int length)
+   {
+      long val = 0;
+
+      for (int i=0; i<length; i++, pos++)
+      {
+         final ByteBuffer chunk = this.chunks[(int) (pos>>>this.logChunkSize)];
+         val = (val<<8) | (chunk.get((int) (pos & this.chunkMask)) & 0xFF);
+      }
+
+      return val;
+   }
+
+
+   // Copy 'length' bytes at index 'pos' of the file to the array
+   private void copy(long pos, byte[] dst, int start, int length)
+   {
+      while (length > 0)
+      {
+         final ByteBuffer chunk = this.chunks[(int) (pos>>>this.logChunkSize)];
+         final int idx = (int) (pos & this.chunkMask);
+         final int len = Math.min(length, chunk.limit()-idx);
+         chunk.position(idx);
+         chunk.get(dst, start, len);
+         pos += len;
+         start += len;
+         length -= len;
+      }
+   }
+
+
+   @Override
+   public void close()
+   {
+      if (this.isClosed() == true)
+         return;
+
+      this.closed = true;
+
+      // Reset fields to trigger an exception on readBit() or readBits()
+      // (the mapping is released by the garbage collector)
+      this.read -= this.availBits;
+      this.availBits = 0;
+   }
+
+
+   // Return number of bits read so far
+   @Override
+   public long read()
+   {
+      return this.read + (this.position<<3) - this.availBits;
+   }
+
+
+   @Override
+   public boolean hasMoreToRead()
+   {
+      if (this.isClosed() == true)
+         return false;
+
+      // (an empty slice may start in the middle of a byte)
+      return (this.availBits > 0) || (Math.max(this.position<<3, this.startBit) < this.padEnd);
+   }
+
+
+   public boolean isClosed()
+   {
+      return this.closed;
+   }
+}
@@ -0,0 +1,292 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package kanzi.bitstream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import kanzi.BitStreamException;
+import kanzi.InputBitStream;
+
+
+// Input bitstream that reads the next buffers of the underlying input stream
+// on a background thread while the current one is consumed. It hides the read
+// latency of slow (EG. network mounted) storage behind the decoding.
+// Up to 'depth' buffers are read ahead. The bits are extracted by a
+// DefaultInputBitStream fed with the prefetched buffers.
+public final class PrefetchInputBitStream implements InputBitStream
+{
+   public static final int MAX_DEPTH = 16;
+
+   private final DefaultInputBitStream delegate;
+   private final Prefetcher prefetcher;
+
+
+   public PrefetchInputBitStream(InputStream is, int bufferSize, int depth)
+   {
+      if (is == null)
+         throw new NullPointerException("Invalid null input stream parameter");
+
+      if ((depth < 1) || (depth > MAX_DEPTH))
+         throw new IllegalArgumentException("Invalid prefetch depth (must be in [1.."+MAX_DEPTH+"])");
+
+      // Validates the buffer size
+      this.prefetcher = new Prefetcher(is, bufferSize, depth);
+      this.delegate = new DefaultInputBitStream(this.prefetcher, bufferSize);
+      this.prefetcher.start();
+   }
+
+
+   @Override
+   public int readBit() throws BitStreamException
+   {
+      return this.delegate.readBit();
+   }
+
+
+   @Override
+   public long readBits(int count) throws BitStreamException
+   {
+      return this.delegate.readBits(count);
+   }
+
+
+   @Override
+   public int readBits(byte[] bits, int start, int count) throws BitStreamException
+   {
+      return this.delegate.readBits(bits, start, count);
+   }
+
+
+   @Override
+   public int readBits(int[] values, int off, int len, int width) throws BitStreamException
+   {
+      return this.delegate.readBits(values, off, len, width);
+   }
+
+
+   @Override
+   public void close()
+   {
+      this.delegate.close();
+      this.prefetcher.close();
+   }
+
+
+   @Override
+   public long read()
+   {
+      return this.delegate.read();
+   }
+
+
+   @Override
+   public boolean hasMoreToRead()
+   {
+      return this.delegate.hasMoreToRead();
+   }
+
+
+
+   // Input stream returning the buffers filled by a background thread
+   static class Prefetcher extends InputStream implements Runnable
+   {
+      private static final Chunk END_OF_STREAM = new Chunk(null, -1, null);
+
+      private final InputStream is;
+      private final BlockingQueue<Chunk> filled;
+      private final BlockingQueue<byte[]> empty;
+      private final Thread thread;
+      private volatile boolean closed;
+      private Chunk current;
+      private int index;
+
+
+      Prefetcher(InputStream is, int bufferSize, int depth)
+      {
+         if (bufferSize < 1024)
+            throw new IllegalArgumentException("Invalid buffer size (must be at least 1024)");
+
+         if (bufferSize > 1<<28)
+            throw new IllegalArgumentException("Invalid buffer size (must be at most 268435456)");
+
+         this.is = is;
+         this.filled = new ArrayBlockingQueue<>(depth+1);
+         this.empty = new ArrayBlockingQueue<>(depth+1);
+
+         // One buffer is being consumed while 'depth' buffers are read ahead
+         for (int i=0; i<=depth; i++)
+            this.empty.add(new byte[bufferSize]);
+
+         this.thread = new Thread(this, "kanzi-prefetch");
+         this.thread.setDaemon(true);
+      }
+
+
+      void start()
+      {
+         this.thread.start();
+      }
+
+
+      @Override
+      public void run()
+      {
+         try
+         {
+            while (this.closed == false)
+            {
+               final byte[] buf = this.empty.take();
+               int size = 0;
+
+               // Fill the buffer (fewer calls to read in the decoder thread)
+               while (size < buf.length)
+               {
+                  final int r = this.is.read(buf, size, buf.length-size);
+
+                  if (r < 0)
+                     break;
+
+                  size += r;
+               }
+
+               if (size > 0)
+                  this.filled.put(new Chunk(buf, size, null));
+
+               if (size < buf.length)
+               {
+                  this.filled.put(END_OF_STREAM);
+                  return;
+               }
+            }
+         }
+         catch (InterruptedException e)
+         {
+            // Closed
+         }
+         catch (IOException e)
+         {
+            this.reportError(e);
+         }
+         catch (RuntimeException e)
+         {
+            // The reader waits for a chunk: do not let the thread die silently
+            this.reportError(new IOException("Read from the input stream failed", e));
+         }
+      }
+
+
+      // The error is reported to the reader
+      private void reportError(IOException e)
+      {
+         try
+         {
+            this.filled.put(new Chunk(null, -1, e));
+         }
+         catch (InterruptedException ie)
+         {
+            // Closed
+         }
+      }
+
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException
+      {
+         if (len == 0)
+            return 0;
+
+         if ((this.current == null) || (this.index >= this.current.size))
+         {
+            if (this.current != null)
+            {
+               // Return the consumed buffer to the reading thread
+               if (this.current.data != null)
+                  this.empty.offer(this.current.data);
+
+               if (this.current.size < 0)
+               {
+                  if (this.current.error != null)
+                     throw this.current.error;
+
+                  return -1;
+               }
+            }
+
+            if (this.closed == true)
+               throw new IOException("Stream closed");
+
+            try
+            {
+               this.current = this.filled.take();
+               this.index = 0;
+            }
+            catch (InterruptedException e)
+            {
+               throw new IOException("Interrupted while reading the input stream");
+            }
+
+            if (this.current.size < 0)
+            {
+               if (this.current.error != null)
+                  throw this.current.error;
+
+               return -1;
+            }
+         }
+
+         final int n = Math.min(len, this.current.size-this.index);
+         System.arraycopy(this.current.data, this.index, b, off, n);
+         this.index += n;
+         return n;
+      }
+
+
+      @Override
+      public int read() throws IOException
+      {
+         final byte[] b = new byte[1];
+         return (this.read(b, 0, 1) < 0) ? -1 : b[0] & 0xFF;
+      }
+
+
+      @Override
+      public void close()
+      {
+         // The underlying input stream is left open (as with DefaultInputBitStream)
+         this.closed = true;
+         this.thread.interrupt();
+         this.filled.clear();
+      }
+   }
+
+
+   static class Chunk
+   {
+      final byte[] data;
+      final int size; // -1 means end of stream or error
+      final IOException error;
+
+
+      Chunk(byte[] data, int size, IOException error)
+      {
+         this.data = data;
+         this.size = size;
+         this.error = error;
+      }
+   }
+}
@@ -0,0 +1,310 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package kanzi.bitstream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import kanzi.BitStreamException;
+import kanzi.OutputBitStream;
+
+
+// Output bitstream that hands the full buffers to a background thread which
+// writes them to the underlying output stream. The writers of the bitstream
+// only copy memory (unless all 'depth' buffers of the ring are pending).
+// The bits are packed by a DefaultOutputBitStream that flushes its buffer
+// to the ring.
+public final class WriteBehindOutputBitStream implements OutputBitStream
+{
+   public static final int MAX_DEPTH = 16;
+
+   private final DefaultOutputBitStream delegate;
+   private final Writer writer;
+
+
+   public WriteBehindOutputBitStream(OutputStream os, int bufferSize, int depth)
+   {
+      if (os == null)
+         throw new NullPointerException("Invalid null output stream parameter");
+
+      if ((depth < 1) || (depth > MAX_DEPTH))
+         throw new IllegalArgumentException("Invalid write behind depth (must be in [1.."+MAX_DEPTH+"])");
+
+      // Validates the buffer size
+      this.writer = new Writer(os, bufferSize, depth);
+      this.delegate = new DefaultOutputBitStream(this.writer, bufferSize);
+      this.writer.start();
+   }
+
+
+   @Override
+   public void writeBit(int bit) throws BitStreamException
+   {
+      this.delegate.writeBit(bit);
+   }
+
+
+   @Override
+   public int writeBits(long bits, int count) throws BitStreamException
+   {
+      return this.delegate.writeBits(bits, count);
+   }
+
+
+   @Override
+   public int writeBits(byte[] bits, int start, int count) throws BitStreamException
+   {
+      return this.delegate.writeBits(bits, start, count);
+   }
+
+
+   @Override
+   public int writeBits(int[] values, int off, int len, int width) throws BitStreamException
+   {
+      return this.delegate.writeBits(values, off, len, width);
+   }
+
+
+   // Write the last bits, wait for the pending buffers to be written and
+   // flush the underlying output stream
+   @Override
+   public void close() throws BitStreamException
+   {
+      try
+      {
+         this.delegate.close();
+      }
+      finally
+      {
+         this.writer.stop();
+      }
+   }
+
+
+   @Override
+   public long written()
+   {
+      return this.delegate.written();
+   }
+
+
+
+   // Output stream copying the data to a ring of buffers written by a background thread
+   static class Writer extends OutputStream implements Runnable
+   {
+      private static final Chunk FLUSH = new Chunk(null, 0);
+      private static final Chunk STOP = new Chunk(null, 0);
+
+      private final OutputStream os;
+      private final BlockingQueue<Chunk> pending;
+      private final BlockingQueue<byte[]> empty;
+      private final BlockingQueue<Chunk> acks;
+      private final Thread thread;
+      private volatile IOException error;
+      private volatile boolean stopped;
+
+
+      Writer(OutputStream os, int bufferSize, int depth)
+      {
+         if (bufferSize < 1024)
+            throw new IllegalArgumentException("Invalid buffer size (must be at least 1024)");
+
+         if (bufferSize > 1<<28)
+            throw new IllegalArgumentException("Invalid buffer size (must be at most 268435456)");
+
+         this.os = os;
+         this.pending = new ArrayBlockingQueue<>(depth+2);
+         this.empty = new ArrayBlockingQueue<>(depth);
+         this.acks = new ArrayBlockingQueue<>(1);
+
+         for (int i=0; i<depth; i++)
+            this.empty.add(new byte[bufferSize]);
+
+         this.thread = new Thread(this, "kanzi-write-behind");
+         this.thread.setDaemon(true);
+      }
+
+
+      void start()
+      {
+         this.thread.start();
+      }
+
+
+      @Override
+      public void run()
+      {
+         while (true)
+         {
+            Chunk chunk;
+
+            try
+            {
+               chunk = this.pending.take();
+            }
+            catch (InterruptedException e)
+            {
+               return;
+            }
+
+            if (chunk.data != null)
+            {
+               try
+               {
+                  // After an error, the remaining buffers are dropped
+                  if (this.error == null)
+                     this.os.write(chunk.data, 0, chunk.size);
+               }
+               catch (IOException e)
+               {
+                  this.error = e;
+               }
+               catch (RuntimeException e)
+               {
+                  // Keep the thread alive: the writers wait for the buffers and acks
+                  this.error = new IOException("Write to the output stream failed", e);
+               }
+
+               this.empty.add(chunk.data);
+               continue;
+            }
+
+            try
+            {
+               if ((chunk == FLUSH) && (this.error == null))
+                  this.os.flush();
+            }
+            catch (IOException e)
+            {
+               this.error = e;
+            }
+            catch (RuntimeException e)
+            {
+               this.error = new IOException("Flush of the output stream failed", e);
+            }
+
+            this.acks.add(chunk);
+
+            if (chunk == STOP)
+               return;
+         }
+      }
+
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+         if (this.stopped == true)
+            throw new IOException("Stream closed");
+
+         this.checkError();
+
+         try
+         {
+            while (len > 0)
+            {
+               final byte[] buf = this.empty.take();
+               final int n = Math.min(len, buf.length);
+               System.arraycopy(b, off, buf, 0, n);
+               this.pending.put(new Chunk(buf, n));
+               off += n;
+               len -= n;
+            }
+         }
+         catch (InterruptedException e)
+         {
+            throw new IOException("Interrupted while writing to the output stream");
+         }
+      }
+
+
+      @Override
+      public void write(int b) throws IOException
+      {
+         this.write(new byte[] { (byte) b }, 0, 1);
+      }
+
+
+      // Wait for the pending buffers to be written, then flush the output stream
+      @Override
+      public void flush() throws IOException
+      {
+         this.sync(FLUSH);
+      }
+
+
+      void stop()
+      {
+         if (this.stopped == true)
+            return;
+
+         try
+         {
+            this.sync(STOP);
+         }
+         catch (IOException e)
+         {
+            // Already reported by close() through flush()
+         }
+
+         this.stopped = true;
+      }
+
+
+      private void sync(Chunk marker) throws IOException
+      {
+         if (this.stopped == true)
+            throw new IOException("Stream closed");
+
+         try
+         {
+            this.pending.put(marker);
+
+            while (this.acks.take() != marker)
+            {
+            }
+         }
+         catch (InterruptedException e)
+         {
+            throw new IOException("Interrupted while writing to the output stream");
+         }
+
+         this.checkError();
+      }
+
+
+      private void checkError() throws IOException
+      {
+         if (this.error != null)
+            throw this.error;
+      }
+   }
+
+
+   static class Chunk
+   {
+      final byte[] data;
+      final int size;
+
+
+      Chunk(byte[] data, int size)
+      {
+         this.data = data;
+         this.size = size;
+      }
+   }
+}
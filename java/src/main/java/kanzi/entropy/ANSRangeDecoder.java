@@ -230,6 +230,7 @@ public class ANSRangeDecoder implements EntropyDecoder
             this.f2s[k] = new byte[scale];
 
          final int chkSize = (alphabetSize >= 64) ? 8 : 6;
+         final int[] chunk = new int[chkSize];
          int sum = 0;
          int llr = 3;
 
@@ -251,9 +252,19 @@ public class ANSRangeDecoder implements EntropyDecoder
             final int endj = (i+chkSize < alphabetSize) ? i + chkSize : alphabetSize;
 
             // Read frequencies
+            if (logMax == 0)
+            {
+               for (int j=0; j<endj-i; j++)
+                  chunk[j] = 0;
+            }
+            else
+            {
+               this.bitstream.readBits(chunk, 0, endj-i, logMax);
+            }
+
             for (int j=i; j<endj; j++)
             {
-               final int freq = (logMax == 0) ? 1 : (int) (1+this.bitstream.readBits(logMax));
+               final int freq = 1 + chunk[j-i];
 
                if ((freq <= 0) || (freq >= scale))
                {
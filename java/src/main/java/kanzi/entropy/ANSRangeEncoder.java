@@ -144,6 +144,7 @@ public class ANSRangeEncoder implements EntropyEncoder
          return true;
 
       final int chkSize = (alphabetSize >= 64) ? 8 : 6;
+      final int[] chunk = new int[chkSize];
       int llr = 3;
 
       while (1<<llr <= lr)
@@ -152,15 +153,17 @@ public class ANSRangeEncoder implements EntropyEncoder
       // Encode all frequencies (but the first one) by chunks
       for (int i=1; i<alphabetSize; i+=chkSize)
       {
-         int max = frequencies[alphabet[i]] - 1;
+         int max = 0;
          int logMax = 0;
          final int endj = (i+chkSize < alphabetSize) ? i+chkSize : alphabetSize;
 
          // Search for max frequency log size in next chunk
-         for (int j=i+1; j<endj; j++)
+         for (int j=i; j<endj; j++)
          {
-            if (frequencies[alphabet[j]]-1 > max)
-               max = frequencies[alphabet[j]]-1;
+            chunk[j-i] = frequencies[alphabet[j]] - 1;
+
+            if (chunk[j-i] > max)
+               max = chunk[j-i];
          }
 
          while (1<<logMax <= max)
@@ -172,8 +175,7 @@ public class ANSRangeEncoder implements EntropyEncoder
             continue;
                 
          // Write frequencies
-         for (int j=i; j<endj; j++)
-            this.bitstream.writeBits(frequencies[alphabet[j]]-1, logMax);
+         this.bitstream.writeBits(chunk, 0, endj-i, logMax);
       }
 
       return true;
@@ -75,7 +75,7 @@ public class EntropyUtils
       {
          // Partial alphabet
          obs.writeBit(PARTIAL_ALPHABET);
-         byte[] masks = new byte[32];
+         int[] masks = new int[32];
 
          for (int i=0; i<count; i++)
             masks[alphabet[i]>>3] |= (1 << (alphabet[i]&7));
@@ -91,9 +91,7 @@ public class EntropyUtils
          }
 
          obs.writeBits(lastMask, 5);
-
-         for (int i=0; i<=lastMask; i++)
-            obs.writeBits(masks[i], 8);
+         obs.writeBits(masks, 0, lastMask+1, 8);
       }
 
       return count;
@@ -130,12 +128,14 @@ public class EntropyUtils
 
       // Partial alphabet
       final int lastMask = (int) ibs.readBits(5);
+      final int[] masks = new int[lastMask+1];
+      ibs.readBits(masks, 0, masks.length, 8);
       int count = 0;
 
       // Decode presence flags
       for (int i=0; i<=lastMask; i++)
       {
-         final int mask = (int) ibs.readBits(8);
+         final int mask = masks[i];
 
          for (int j=0; j<8; j++)
          {
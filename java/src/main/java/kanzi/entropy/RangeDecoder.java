@@ -93,6 +93,7 @@ public final class RangeDecoder implements EntropyDecoder
       this.shift = logRange;
       int sum = 0;
       final int chkSize = (alphabetSize >= 64) ? 8 : 6;
+      final int[] chunk = new int[chkSize];
       int llr = 3;
 
       while (1<<llr <= logRange)
@@ -112,9 +113,19 @@ public final class RangeDecoder implements EntropyDecoder
          final int endj = (i+chkSize < alphabetSize) ? i + chkSize : alphabetSize;
 
          // Read frequencies
+         if (logMax == 0)
+         {
+            for (int j=0; j<endj-i; j++)
+               chunk[j] = 0;
+         }
+         else
+         {
+            this.bitstream.readBits(chunk, 0, endj-i, logMax);
+         }
+
          for (int j=i; j<endj; j++)
          {
-            int freq = (logMax == 0) ? 1 : (int) (1+this.bitstream.readBits(logMax));
+            final int freq = 1 + chunk[j-i];
 
             if ((freq <= 0) || (freq >= scale))
             {
@@ -33,10 +33,16 @@ import kanzi.transform.BWT;
 //             11: primary index size  > 22 bits (3 extra bytes)
 //         bits 5-0 contain 6 most significant bits of primary index
 //   primary index: remaining bits (up to 3 bytes)
+// When the number of chunks differs from the default for the block size (see
+// BWT.getBWTChunks), the header starts with 0x00 followed by the number of
+// chunks minus 1 (8 bits). This only happens for blocks of 2 MB or more.
+// A regular header starts with 0x00 only for a 1 byte block (primary index
+// 0), so the encoded block is 2 bytes long. The escape is only read from
+// longer encoded blocks.
 
 public class BWTBlockCodec implements ByteFunction
 {
-   private static final int BWT_MAX_HEADER_SIZE = 8 * 4;
+   private static final int BWT_MAX_HEADER_SIZE = 2 + BWT.MAX_EXT_CHUNKS*4;
 
    private final BWT bwt;
 
@@ -70,14 +76,15 @@ public class BWTBlockCodec implements ByteFunction
          return false;
       
       final int savedOIdx = output.index;
-      final int chunks = BWT.getBWTChunks(blockSize);
+      final int chunks = this.bwt.getChunks(blockSize);
+      final int extraBytes = (chunks != BWT.getBWTChunks(blockSize)) ? 2 : 0;
       int log = 1;
 
       while (1<<log <= blockSize)
          log++; 
       
       // Estimate header size based on block size
-      final int headerSizeBytes1 = chunks * ((2+log+7) >>> 3);
+      final int headerSizeBytes1 = extraBytes + chunks*((2+log+7) >>> 3);
       output.index += headerSizeBytes1;
       output.length -= headerSizeBytes1;
      
@@ -85,7 +92,7 @@ public class BWTBlockCodec implements ByteFunction
       if (this.bwt.forward(input, output) == false)
          return false;
 
-      int headerSizeBytes2 = 0;
+      int headerSizeBytes2 = extraBytes;
       
       for (int i=0; i<chunks; i++)
       {
@@ -109,7 +116,13 @@ public class BWTBlockCodec implements ByteFunction
       }     
       
       int idx = savedOIdx;
-      
+
+      if (extraBytes != 0)
+      {
+         output.array[idx++] = 0;
+         output.array[idx++] = (byte) (chunks-1);
+      }
+
       for (int i=0; i<chunks; i++)
       {
          final int primaryIndex = this.bwt.getPrimaryIndex(i);
@@ -148,7 +161,18 @@ public class BWTBlockCodec implements ByteFunction
          return false;
       
       int blockSize = input.length;
-      final int chunks = BWT.getBWTChunks(blockSize);
+      int chunks = BWT.getBWTChunks(blockSize);
+
+      if ((input.length > 2) && (input.array[input.index] == 0))
+      {
+         // Number of chunks provided in the header
+         chunks = (input.array[input.index+1] & 0xFF) + 1;
+         input.index += 2;
+         input.length -= 2;
+      }
+
+      if (this.bwt.setChunks(chunks) == false)
+         return false;
 
       for (int i=0; i<chunks; i++)
       {
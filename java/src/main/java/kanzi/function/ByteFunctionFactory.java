@@ -43,6 +43,9 @@ public class ByteFunctionFactory
    public static final short ROLZX_TYPE   = 12; // ROLZ Extra codec
    public static final short SRT_TYPE     = 13; // Sorted Rank
    public static final short LZP_TYPE     = 14; // Lempel Ziv Predict
+   public static final short MTFZ_TYPE    = 15; // Move To Front + Zero Run Length
+   public static final short RANKZ_TYPE   = 16; // Rank + Zero Run Length
+   public static final short DEDUP_TYPE   = 17; // Long repeat elimination
  
 
    // The returned type contains 8 transform values
@@ -118,12 +121,21 @@ public class ByteFunctionFactory
          case "ZRLT":
             return ZRLT_TYPE;
 
+         case "MTFZ":
+            return MTFZ_TYPE;
+
+         case "RANKZ":
+            return RANKZ_TYPE;
+
          case "RLT":
             return RLT_TYPE;
 
          case "X86":
             return X86_TYPE;
 
+         case "DEDUP":
+            return DEDUP_TYPE;
+
          case "NONE":
             return NONE_TYPE;
 
@@ -205,6 +217,14 @@ public class ByteFunctionFactory
 
          case ZRLT_TYPE:
             return new ZRLT(ctx);
+
+         case MTFZ_TYPE:
+            ctx.put("sbrt", SBRT.MODE_MTF);
+            return new SBRZRLT(ctx);
+
+         case RANKZ_TYPE:
+            ctx.put("sbrt", SBRT.MODE_RANK);
+            return new SBRZRLT(ctx);
             
          case RLT_TYPE:
             return new RLT(ctx);
@@ -219,6 +239,9 @@ public class ByteFunctionFactory
             
          case X86_TYPE:
             return new X86Codec(ctx);
+
+         case DEDUP_TYPE:
+            return new DedupCodec(ctx);
             
          case NONE_TYPE:
             return new NullFunction(ctx);
@@ -253,8 +276,29 @@ public class ByteFunctionFactory
 
       return sb.toString();
    }
-   
-   
+
+
+   // Return the type where the BWT (or BWTS) transform and the following ones are
+   // replaced with ROLZ (EG. TEXT+BWT+RANK+ZRLT => TEXT+ROLZ) or NONE_TYPE if
+   // there is no BWT in the sequence.
+   public long getROLZAlternative(long functionType)
+   {
+      for (int i=0; i<8; i++)
+      {
+         final int shift = MAX_SHIFT - ONE_SHIFT*i;
+         final int t = (int) (functionType >>> shift) & MASK;
+
+         if ((t == BWT_TYPE) || (t == BWTS_TYPE))
+         {
+            final long prefix = (i == 0) ? 0 : (functionType >>> (shift+ONE_SHIFT)) << (shift+ONE_SHIFT);
+            return prefix | ((long) ROLZ_TYPE << shift);
+         }
+      }
+
+      return NONE_TYPE;
+   }
+
+
    private static String getNameToken(int functionType)
    {
       switch (functionType)
@@ -285,12 +329,21 @@ public class ByteFunctionFactory
 
          case ZRLT_TYPE:
             return "ZRLT";
+
+         case MTFZ_TYPE:
+            return "MTFZ";
+
+         case RANKZ_TYPE:
+            return "RANKZ";
             
          case RLT_TYPE:
             return "RLT";
             
          case X86_TYPE:
             return "X86";
+
+         case DEDUP_TYPE:
+            return "DEDUP";
             
          case LZ_TYPE:
             return "LZ";
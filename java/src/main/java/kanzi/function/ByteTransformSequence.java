@@ -20,13 +20,18 @@ import kanzi.ByteTransform;
 import kanzi.SliceByteArray;
 
 
-// Encapsulates a sequence of transforms or functions in a function 
+// Encapsulates a sequence of transforms or functions in a function.
+// Intermediate results ping-pong between two grow-only buffers owned by the
+// sequence: the first stage reads the input, the last stage writes the output.
+// A sequence can be reused for many blocks but is not thread safe.
 public class ByteTransformSequence implements ByteFunction
 {
    private static final int SKIP_MASK = 0xFF;
+   private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
    
    private final ByteTransform[] transforms; // transforms or functions
    private byte skipFlags; // skip transforms
+   private final SliceByteArray[] buffers; // intermediate results
   
    
    public ByteTransformSequence(ByteTransform[] transforms) 
@@ -38,6 +43,11 @@ public class ByteTransformSequence implements ByteFunction
          throw new NullPointerException("Only 1 to 8 transforms allowed");
       
       this.transforms = transforms;
+      this.buffers = new SliceByteArray[] 
+      { 
+         new SliceByteArray(EMPTY_BYTE_ARRAY, 0), 
+         new SliceByteArray(EMPTY_BYTE_ARRAY, 0) 
+      };
    }
 
 
@@ -54,38 +64,32 @@ public class ByteTransformSequence implements ByteFunction
       if ((count < 0) || (count+src.index > src.array.length))
          return false;
 
-      final int blockSize = count;
-      SliceByteArray[] sa = new SliceByteArray[] 
-      { 
-         new SliceByteArray(src.array, src.length, src.index),
-         new SliceByteArray(dst.array, dst.length, dst.index)
-      };
-      
-      int saIdx = 0;
-      
       final int requiredSize = this.getMaxEncodedLength(count);
+
+      // The output buffer is not reallocated
+      if (dst.array.length-dst.index < requiredSize)
+         return false;
+
+      final int blockSize = count;
+      final int last = this.transforms.length - 1;
+      final int savedOIdx0 = dst.index;
+      this.growBuffers((last == 0) ? 0 : Math.min(last, 2), requiredSize);
       this.skipFlags = 0;
+      SliceByteArray sa1 = src;
+      final int savedIIdx0 = src.index;
       
       // Process transforms sequentially
-      for (int i=0; i<this.transforms.length; i++)
+      for (int i=0; i<=last; i++)
       {        
-         SliceByteArray sa1 = sa[saIdx];
-         SliceByteArray sa2 = sa[saIdx^1];
-            
-         // Check that the output buffer has enough room. If not, allocate a new one.
-         if (sa2.length < requiredSize)
-         {
-            sa2.length = requiredSize;
-            
-            if (sa2.array.length < sa2.length)
-               sa2.array = new byte[sa2.length];
-         }
-         
+         SliceByteArray sa2 = (i == last) ? dst : this.buffers[i&1];
          final int savedIIdx = sa1.index;
          final int savedOIdx = sa2.index;
          ByteTransform transform = this.transforms[i];                 
          sa1.length = count;
          
+         if (sa2 != dst)
+            sa2.length = requiredSize;
+         
          // Apply forward transform            
          if (transform.forward(sa1, sa2) == false)
          {
@@ -101,17 +105,15 @@ public class ByteTransformSequence implements ByteFunction
          count = sa2.index - savedOIdx;
          sa1.index = savedIIdx;
          sa2.index = savedOIdx;
-         saIdx ^= 1;
+         sa1 = sa2;
       } 
       
       for (int i=this.transforms.length; i<8; i++)
           this.skipFlags |= (1<<(7-i));
             
-      if (saIdx != 1)
-         System.arraycopy(sa[0].array, sa[0].index, sa[1].array, sa[1].index, count);
-            
-      src.index += blockSize;
-      dst.index += count;            
+      src.length = blockSize;
+      src.index = savedIIdx0 + blockSize;
+      dst.index = savedOIdx0 + count;            
       return this.skipFlags != SKIP_MASK;
    }
 
@@ -138,24 +140,33 @@ public class ByteTransformSequence implements ByteFunction
       }     
       
       final int blockSize = count;
+      int nbStages = 0;
+      int first = -1;
+
+      for (int i=this.transforms.length-1; i>=0; i--)
+      {
+         if ((this.skipFlags & (1<<(7-i))) == 0)
+         {
+            nbStages++;
+            first = (first == -1) ? i : first;
+         }
+      }
+
+      final int savedIIdx0 = src.index;
+      final int savedOIdx0 = dst.index;
+      this.growBuffers(Math.min(nbStages-1, 2), dst.length);
       boolean res = true;
-      SliceByteArray[] sa = new SliceByteArray[] 
-      { 
-         new SliceByteArray(src.array, src.length, src.index),
-         new SliceByteArray(dst.array, dst.length, dst.index)
-      };
-      
-      int saIdx = 0;
+      SliceByteArray sa1 = src;
+      int n = 0;
      
       // Process transforms sequentially in reverse order
-      for (int i=this.transforms.length-1; i>=0; i--)
+      for (int i=first; i>=0; i--)
       {         
          if ((this.skipFlags & (1<<(7-i))) != 0)
             continue;        
 
-         SliceByteArray sa1 = sa[saIdx];
-         saIdx ^= 1;
-         SliceByteArray sa2 = sa[saIdx];
+         n++;
+         SliceByteArray sa2 = (n == nbStages) ? dst : this.buffers[(n-1)&1];
          final int savedIIdx = sa1.index;
          final int savedOIdx = sa2.index;
          ByteTransform transform = this.transforms[i];                 
@@ -163,32 +174,50 @@ public class ByteTransformSequence implements ByteFunction
          // Apply inverse transform
          sa1.length = count; 
          sa2.length = dst.length;
-                 
-         if (sa2.array.length < sa2.length)
-            sa2.array = new byte[sa2.length];
-         
          res = transform.inverse(sa1, sa2);                  
          count = sa2.index - savedOIdx;
          sa1.index = savedIIdx;
          sa2.index = savedOIdx;
+         sa1 = sa2;
          
          // All inverse transforms must succeed
          if (res == false)
             break;  
       } 
       
-      if (saIdx != 1)
-         System.arraycopy(sa[0].array, sa[0].index, sa[1].array, sa[1].index, count);
+      // Copy the last valid intermediate result on error
+      if (sa1 != dst)
+      {
+         if (count > dst.array.length-savedOIdx0)
+            return false;
+
+         System.arraycopy(sa1.array, sa1.index, dst.array, savedOIdx0, count);
+      }
       
       if (count > dst.length)
          return false;
      
-      src.index += blockSize;
-      dst.index += count;
+      src.length = blockSize;
+      src.index = savedIIdx0 + blockSize;
+      dst.index = savedOIdx0 + count;
       return res;
    }
 
 
+   // Make sure that the first nbBuffers intermediate buffers can hold size bytes
+   private void growBuffers(int nbBuffers, int size)
+   {
+      for (int i=0; i<nbBuffers; i++)
+      {
+         if (this.buffers[i].array.length < size)
+            this.buffers[i].array = new byte[size];
+
+         this.buffers[i].index = 0;
+         this.buffers[i].length = size;
+      }
+   }
+
+
    @Override
    public int getMaxEncodedLength(int srcLength)
    {
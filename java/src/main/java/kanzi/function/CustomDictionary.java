@@ -0,0 +1,238 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+                http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package kanzi.function;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import kanzi.Memory;
+import kanzi.util.hash.XXHash32;
+
+
+// A custom dictionary is made of a word list (used by TextCodec) and of a
+// prefix (used by LZCodec as data preceding each block). Dictionaries are
+// registered once per JVM and shared (read only) by all transforms. They are
+// identified by an id (hash of the content) recorded in the bitstream header.
+// File format (big endian):
+// "KNZD" (32 bits) | version (8 bits) | words length (32 bits) | words |
+// prefix length (32 bits) | prefix
+// The words are separated by one space. A file that does not start with the
+// magic number is read as a plain list of words.
+public final class CustomDictionary
+{
+   public static final int MAGIC = 0x4B4E5A44; // "KNZD"
+   public static final int VERSION = 1;
+   public static final int MAX_WORDS = 1 << 15;
+   public static final int MAX_WORD_LENGTH = 31;
+   public static final int MAX_PREFIX_SIZE = 1 << 16;
+   private static final int HEADER_SIZE = 9;
+   private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+
+   private static final Map<Integer, CustomDictionary> DICTIONARIES = new ConcurrentHashMap<>();
+
+   private final int id;
+   private final byte[] words; // each word followed by a space
+   private final int nbWords;
+   private final byte[] prefix;
+
+
+   private CustomDictionary(int id, byte[] words, int nbWords, byte[] prefix)
+   {
+      this.id = id;
+      this.words = words;
+      this.nbWords = nbWords;
+      this.prefix = prefix;
+   }
+
+
+   // Parse the content of a dictionary file and register the dictionary.
+   // Return the dictionary id.
+   public static int register(byte[] data)
+   {
+      if (data == null)
+         throw new NullPointerException("Invalid null dictionary data parameter");
+
+      if ((data.length < HEADER_SIZE) || (Memory.BigEndian.readInt32(data, 0) != MAGIC))
+         return register(data, EMPTY_BYTE_ARRAY);
+
+      final int version = data[4] & 0xFF;
+
+      if (version != VERSION)
+         throw new IllegalArgumentException("Cannot read this version of the dictionary: " + version);
+
+      final int wordsLength = Memory.BigEndian.readInt32(data, 5);
+
+      if ((wordsLength < 0) || (wordsLength > data.length-HEADER_SIZE-4))
+         throw new IllegalArgumentException("Invalid dictionary word list length: " + wordsLength);
+
+      final int prefixLength = Memory.BigEndian.readInt32(data, HEADER_SIZE+wordsLength);
+
+      if ((prefixLength < 0) || (prefixLength != data.length-HEADER_SIZE-4-wordsLength))
+         throw new IllegalArgumentException("Invalid dictionary prefix length: " + prefixLength);
+
+      byte[] words = new byte[wordsLength];
+      byte[] prefix = new byte[prefixLength];
+      System.arraycopy(data, HEADER_SIZE, words, 0, wordsLength);
+      System.arraycopy(data, HEADER_SIZE+4+wordsLength, prefix, 0, prefixLength);
+      return register(words, prefix);
+   }
+
+
+   // Register a dictionary made of a list of words separated by non letter
+   // characters and of a prefix. Only the first MAX_WORDS distinct words with
+   // a length in [2..MAX_WORD_LENGTH] are kept. The case of the first character
+   // is ignored. Only the last MAX_PREFIX_SIZE bytes of the prefix are kept.
+   // Return the dictionary id. Registering the same dictionary again is cheap.
+   // Throw an exception if a different dictionary has the same id.
+   public static int register(byte[] words, byte[] prefix)
+   {
+      if (words == null)
+         throw new NullPointerException("Invalid null word list parameter");
+
+      if (prefix == null)
+         throw new NullPointerException("Invalid null prefix parameter");
+
+      // Normalize word list: one space after each word
+      byte[] buf = new byte[words.length+1];
+      Set<String> uniques = new HashSet<>();
+      int nbWords = 0;
+      int length = 0;
+      int anchor = 0;
+
+      for (int i=0; i<=words.length; i++)
+      {
+         if ((i < words.length) && (isLetter(words[i]) == true))
+            continue;
+
+         final int wordLength = i - anchor;
+
+         if ((wordLength >= 2) && (wordLength <= MAX_WORD_LENGTH) && (nbWords < MAX_WORDS))
+         {
+            System.arraycopy(words, anchor, buf, length, wordLength);
+
+            if ((buf[length] >= 'A') && (buf[length] <= 'Z'))
+               buf[length] ^= 0x20;
+
+            if (uniques.add(new String(buf, length, wordLength)) == true)
+            {
+               length += wordLength;
+               buf[length++] = ' ';
+               nbWords++;
+            }
+         }
+
+         anchor = i + 1;
+      }
+
+      if (length < buf.length)
+      {
+         byte[] newBuf = new byte[length];
+         System.arraycopy(buf, 0, newBuf, 0, length);
+         buf = newBuf;
+      }
+
+      if (prefix.length > MAX_PREFIX_SIZE)
+      {
+         byte[] newPrefix = new byte[MAX_PREFIX_SIZE];
+         System.arraycopy(prefix, prefix.length-MAX_PREFIX_SIZE, newPrefix, 0, MAX_PREFIX_SIZE);
+         prefix = newPrefix;
+      }
+      else
+      {
+         prefix = prefix.clone();
+      }
+
+      if ((nbWords == 0) && (prefix.length == 0))
+         throw new IllegalArgumentException("The dictionary is empty");
+
+      XXHash32 hasher = new XXHash32(MAGIC);
+      final int id = hasher.hash(buf) ^ (31 * hasher.hash(prefix));
+      final CustomDictionary prev = DICTIONARIES.putIfAbsent(id, new CustomDictionary(id, buf, nbWords, prefix));
+
+      // Two different dictionaries cannot share an id: a stream would be
+      // decoded with the wrong one
+      if ((prev != null) && ((Arrays.equals(prev.words, buf) == false) || (Arrays.equals(prev.prefix, prefix) == false)))
+         throw new IllegalArgumentException("Cannot register the dictionary: its id ("+
+            Integer.toHexString(id)+") is already used by a different dictionary");
+
+      return id;
+   }
+
+
+   public static boolean isRegistered(int id)
+   {
+      return DICTIONARIES.containsKey(id);
+   }
+
+
+   // Return the dictionary registered with this id or null
+   public static CustomDictionary get(int id)
+   {
+      return DICTIONARIES.get(id);
+   }
+
+
+   // Write a dictionary file (see format above)
+   public static void write(OutputStream os, byte[] words, byte[] prefix) throws IOException
+   {
+      byte[] header = new byte[HEADER_SIZE];
+      byte[] buf = new byte[4];
+      Memory.BigEndian.writeInt32(header, 0, MAGIC);
+      header[4] = (byte) VERSION;
+      Memory.BigEndian.writeInt32(header, 5, words.length);
+      os.write(header);
+      os.write(words);
+      Memory.BigEndian.writeInt32(buf, 0, prefix.length);
+      os.write(buf);
+      os.write(prefix);
+   }
+
+
+   private static boolean isLetter(byte val)
+   {
+      return ((val >= 'a') && (val <= 'z')) || ((val >= 'A') && (val <= 'Z'));
+   }
+
+
+   public int getId()
+   {
+      return this.id;
+   }
+
+
+   // Return the normalized word list. Do not modify.
+   public byte[] getWords()
+   {
+      return this.words;
+   }
+
+
+   public int getNbWords()
+   {
+      return this.nbWords;
+   }
+
+
+   // Return the prefix. Do not modify.
+   public byte[] getPrefix()
+   {
+      return this.prefix;
+   }
+}
@@ -0,0 +1,392 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+                http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package kanzi.function;
+
+import java.util.Arrays;
+import java.util.Map;
+import kanzi.ByteFunction;
+import kanzi.Global;
+import kanzi.Memory;
+import kanzi.SliceByteArray;
+
+
+// Long repeat elimination, meant to run before a BWT on highly repetitive
+// data (so that the suffix sorting only sees the unique parts of the block).
+// A rolling hash of WINDOW bytes is computed at each position. Positions are
+// sampled by content (a few bits of the hash) and stored in a hash table with
+// BUCKET_SIZE candidates per entry. At each sampled position, the candidates
+// are verified and the longest match is extended backward and forward. Only
+// matches of at least MIN_REPEAT bytes are kept.
+// Output: match table length (32 bits) | match table | literals
+// Each match is encoded as 3 varints: literal length before the match,
+// match length - MIN_REPEAT and distance. The literals are left untouched.
+public final class DedupCodec implements ByteFunction
+{
+   private static final int WINDOW      = 32;
+   private static final int MIN_REPEAT  = 256;
+   private static final int MIN_LENGTH  = 1024;
+   private static final int BUCKET_LOG  = 2;
+   private static final int BUCKET_SIZE = 1 << BUCKET_LOG;
+   private static final int SAMPLE_LOG  = 2;
+   private static final int MIN_HASH_LOG = 12;
+   private static final int MAX_HASH_LOG = 21;
+   private static final int PRIME       = 0x01000193;
+   private static final int HASH_SEED   = 0x9E3779B1;
+
+   private int[] hashes;
+   private int hashLog;
+   private int base; // generation of the hash table entries
+   private int[] matches;
+
+
+   public DedupCodec()
+   {
+      this.hashes = new int[0];
+      this.matches = new int[0];
+   }
+
+
+   public DedupCodec(Map<String, Object> ctx)
+   {
+      this();
+   }
+
+
+   @Override
+   public boolean forward(SliceByteArray input, SliceByteArray output)
+   {
+      if (input.length == 0)
+         return true;
+
+      if (input.array == output.array)
+         return false;
+
+      final int count = input.length;
+
+      if (output.length - output.index < this.getMaxEncodedLength(count))
+         return false;
+
+      // If too small, skip
+      if (count < MIN_LENGTH)
+         return false;
+
+      // About one hash table slot per sampled position
+      final int log = Math.max(MIN_HASH_LOG, Math.min(MAX_HASH_LOG,
+         Global.log2(count) - SAMPLE_LOG - BUCKET_LOG));
+
+      if (this.hashLog != log)
+      {
+         this.hashes = new int[1<<(log+BUCKET_LOG)];
+         this.hashLog = log;
+         this.base = 0;
+      }
+      else if (this.base > Integer.MAX_VALUE - count)
+      {
+         // Out of generations, reset the table
+         Arrays.fill(this.hashes, 0);
+         this.base = 0;
+      }
+
+      final byte[] src = input.array;
+      final int srcIdx0 = input.index;
+      final int srcEnd = srcIdx0 + count;
+      final int[] table = this.hashes;
+      final int hashShift = 32 - log;
+      final int sampleMask = (1 << SAMPLE_LOG) - 1;
+
+      // Positions are stored relative to the current generation. Entries left
+      // by previous blocks are not above base and are treated as empty slots.
+      final int base = this.base;
+      final int delta = base + 1 - srcIdx0;
+      int nbMatches = 0;
+      int anchor = srcIdx0;
+      int outSize = 0;
+
+      // Weight of the byte leaving the window
+      int outWeight = 1;
+
+      for (int i=1; i<WINDOW; i++)
+         outWeight *= PRIME;
+
+      int h = 0;
+
+      for (int i=srcIdx0; i<srcIdx0+WINDOW-1; i++)
+         h = h*PRIME + src[i];
+
+      int srcIdx = srcIdx0 + WINDOW - 1;
+
+      while (srcIdx < srcEnd)
+      {
+         // The window covers [srcIdx-WINDOW+1, srcIdx]
+         h = h*PRIME + src[srcIdx];
+         srcIdx++;
+         final int pos = srcIdx - WINDOW;
+         final int hm = h * HASH_SEED;
+
+         if (((hm >>> (hashShift-SAMPLE_LOG)) & sampleMask) != 0)
+         {
+            h -= outWeight * src[pos];
+            continue;
+         }
+
+         final int b = (hm >>> hashShift) << BUCKET_LOG;
+         int bestLen = 0;
+         int bestRef = 0;
+         int bestBack = 0;
+
+         for (int k=0; k<BUCKET_SIZE; k++)
+         {
+            final int ref = (table[b+k] > base) ? table[b+k] - delta : -1;
+
+            if ((ref < srcIdx0) || (ref >= pos))
+               continue;
+
+            // Extend forward, then backward (up to the pending literals)
+            final int maxFwd = srcEnd - pos;
+            int fwd = 0;
+
+            while ((fwd+4 <= maxFwd) && (Memory.LittleEndian.readInt32(src, ref+fwd) ==
+               Memory.LittleEndian.readInt32(src, pos+fwd)))
+               fwd += 4;
+
+            while ((fwd < maxFwd) && (src[ref+fwd] == src[pos+fwd]))
+               fwd++;
+
+            if (fwd < WINDOW)
+               continue;
+
+            final int maxBack = Math.min(pos-anchor, ref-srcIdx0);
+            int back = 0;
+
+            while ((back < maxBack) && (src[ref-back-1] == src[pos-back-1]))
+               back++;
+
+            if (fwd+back > bestLen)
+            {
+               bestLen = fwd + back;
+               bestRef = ref - back;
+               bestBack = back;
+            }
+         }
+
+         // Insert the position (the oldest candidate is dropped)
+         for (int k=BUCKET_SIZE-1; k>0; k--)
+            table[b+k] = table[b+k-1];
+
+         table[b] = pos + delta;
+
+         if (bestLen < MIN_REPEAT)
+         {
+            h -= outWeight * src[pos];
+            continue;
+         }
+
+         final int mStart = pos - bestBack;
+
+         if (3*(nbMatches+1) > this.matches.length)
+            this.matches = Arrays.copyOf(this.matches, Math.max(3*(nbMatches+1), 2*this.matches.length));
+
+         this.matches[3*nbMatches]   = mStart - anchor;
+         this.matches[3*nbMatches+1] = bestLen - MIN_REPEAT;
+         this.matches[3*nbMatches+2] = mStart - bestRef;
+         outSize += (mStart - anchor);
+         outSize += (varintSize(mStart-anchor) + varintSize(bestLen-MIN_REPEAT) + varintSize(mStart-bestRef));
+         nbMatches++;
+         anchor = mStart + bestLen;
+
+         // Restart the rolling hash after the match
+         srcIdx = anchor;
+
+         if (srcEnd - srcIdx < WINDOW)
+            break;
+
+         h = 0;
+
+         for (int i=srcIdx; i<srcIdx+WINDOW-1; i++)
+            h = h*PRIME + src[i];
+
+         srcIdx += (WINDOW-1);
+      }
+
+      outSize += (srcEnd - anchor);
+
+      // Next block starts a new generation, even if this one is rejected:
+      // the entries written above must not be seen by the next block
+      this.base += count;
+
+      // Not enough gain ?
+      if ((nbMatches == 0) || (4+outSize >= count-(count>>6)))
+         return false;
+
+      final byte[] dst = output.array;
+      final int dstIdx0 = output.index;
+      int dstIdx = dstIdx0 + 4;
+
+      // Emit the match table
+      for (int n=0; n<3*nbMatches; n++)
+         dstIdx = writeVarint(dst, dstIdx, this.matches[n]);
+
+      Memory.BigEndian.writeInt32(dst, dstIdx0, dstIdx-dstIdx0-4);
+
+      // Emit the literals
+      int srcIdx2 = srcIdx0;
+
+      for (int n=0; n<nbMatches; n++)
+      {
+         final int litLen = this.matches[3*n];
+         System.arraycopy(src, srcIdx2, dst, dstIdx, litLen);
+         dstIdx += litLen;
+         srcIdx2 += (litLen + this.matches[3*n+1] + MIN_REPEAT);
+      }
+
+      System.arraycopy(src, srcIdx2, dst, dstIdx, srcEnd-srcIdx2);
+      dstIdx += (srcEnd - srcIdx2);
+
+      input.index = srcEnd;
+      output.index = dstIdx;
+      return true;
+   }
+
+
+   @Override
+   public boolean inverse(SliceByteArray input, SliceByteArray output)
+   {
+      if (input.length == 0)
+         return true;
+
+      if (input.array == output.array)
+         return false;
+
+      final int count = input.length;
+
+      if (count < 4)
+         return false;
+
+      final byte[] src = input.array;
+      final byte[] dst = output.array;
+      final int srcEnd = input.index + count;
+      final int dstIdx0 = output.index;
+      final int dstEnd = dst.length;
+      final int tableSize = Memory.BigEndian.readInt32(src, input.index);
+
+      if ((tableSize < 0) || (tableSize > count-4))
+         return false;
+
+      final int tableEnd = input.index + 4 + tableSize;
+      int tableIdx = input.index + 4;
+      int srcIdx = tableEnd;
+      int dstIdx = dstIdx0;
+      final int[] vals = new int[3];
+
+      while (tableIdx < tableEnd)
+      {
+         // Read literal length, match length and distance
+         for (int n=0; n<3; n++)
+         {
+            int val = 0;
+            int shift = 0;
+            int b;
+
+            do
+            {
+               if ((tableIdx >= tableEnd) || (shift > 28))
+                  return false;
+
+               b = src[tableIdx++];
+               val |= ((b & 0x7F) << shift);
+               shift += 7;
+            }
+            while (b < 0);
+
+            vals[n] = val;
+         }
+
+         final int litLen = vals[0];
+         final int mLen = vals[1] + MIN_REPEAT;
+         final int dist = vals[2];
+
+         if ((litLen < 0) || (litLen > srcEnd-srcIdx) || (litLen > dstEnd-dstIdx))
+            return false;
+
+         System.arraycopy(src, srcIdx, dst, dstIdx, litLen);
+         srcIdx += litLen;
+         dstIdx += litLen;
+
+         if ((vals[1] < 0) || (mLen > dstEnd-dstIdx) || (dist <= 0) || (dist > dstIdx-dstIdx0))
+            return false;
+
+         final int ref = dstIdx - dist;
+
+         if (dist >= mLen)
+         {
+            System.arraycopy(dst, ref, dst, dstIdx, mLen);
+         }
+         else
+         {
+            // Overlapping match
+            for (int i=0; i<mLen; i++)
+               dst[dstIdx+i] = dst[ref+i];
+         }
+
+         dstIdx += mLen;
+      }
+
+      final int litLen = srcEnd - srcIdx;
+
+      if (litLen > dstEnd-dstIdx)
+         return false;
+
+      System.arraycopy(src, srcIdx, dst, dstIdx, litLen);
+      input.index = srcEnd;
+      output.index = dstIdx + litLen;
+      return true;
+   }
+
+
+   private static int writeVarint(byte[] buf, int idx, int val)
+   {
+      while (val >= 0x80)
+      {
+         buf[idx++] = (byte) (0x80|(val&0x7F));
+         val >>>= 7;
+      }
+
+      buf[idx++] = (byte) val;
+      return idx;
+   }
+
+
+   private static int varintSize(int val)
+   {
+      int res = 1;
+
+      while (val >= 0x80)
+      {
+         val >>>= 7;
+         res++;
+      }
+
+      return res;
+   }
+
+
+   @Override
+   public int getMaxEncodedLength(int srcLen)
+   {
+      // The transform fails if it does not save space
+      return srcLen;
+   }
+}
@@ -15,7 +15,9 @@ limitations under the License.
 
 package kanzi.function;
 
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import kanzi.ByteFunction;
 import kanzi.Memory;
 import kanzi.SliceByteArray;
@@ -78,10 +80,7 @@ public final class LZCodec implements ByteFunction
 
    private static boolean differentInts(byte[] array, int srcIdx, int dstIdx)
    {
-      return ((array[srcIdx] != array[dstIdx])     ||
-              (array[srcIdx+1] != array[dstIdx+1]) ||
-              (array[srcIdx+2] != array[dstIdx+2]) ||
-              (array[srcIdx+3] != array[dstIdx+3]));
+      return Memory.LittleEndian.readInt32(array, srcIdx) != Memory.LittleEndian.readInt32(array, dstIdx);
    }   
    
 
@@ -98,18 +97,68 @@ public final class LZCodec implements ByteFunction
       private static final int MIN_LENGTH         = 24;
       private static final int MIN_MATCH_MIN_DIST = 1 << 16;
 
+      private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+      private static final int[] EMPTY_INT_ARRAY = new int[0];
+
+      // Hash tables of the dictionary prefixes in use (read only) indexed by
+      // dictionary id. Entries are positions in the prefix plus 1 (0 if empty).
+      private static final Map<Integer, int[]> PREFIX_HASHES = new ConcurrentHashMap<>();
+
       private int[] hashes;
+      private int base; // generation of the hash table entries
+      private final byte[] prefix; // data virtually preceding each block
+      private final int[] prefixHashes;
+      private byte[] buffer; // prefix followed by the block
 
 
       public LZXCodec()
       {
          this.hashes = new int[0];
+         this.prefix = EMPTY_BYTE_ARRAY;
+         this.prefixHashes = EMPTY_INT_ARRAY;
+         this.buffer = EMPTY_BYTE_ARRAY;
       }
 
 
+      // A custom dictionary ('dictionary' key in the context) with a prefix
+      // enables matches into the prefix (see CustomDictionary).
       public LZXCodec(Map<String, Object> ctx)
       {
          this.hashes = new int[0];
+         this.buffer = EMPTY_BYTE_ARRAY;
+         CustomDictionary dict = null;
+
+         if (ctx.containsKey("dictionary") == true)
+         {
+            final int id = (Integer) ctx.get("dictionary");
+            dict = CustomDictionary.get(id);
+
+            if (dict == null)
+               throw new IllegalArgumentException("Unknown dictionary: " + Integer.toHexString(id));
+         }
+
+         this.prefix = (dict == null) ? EMPTY_BYTE_ARRAY : dict.getPrefix();
+         this.prefixHashes = (this.prefix.length == 0) ? EMPTY_INT_ARRAY : getPrefixHashes(dict);
+      }
+
+
+      // The prefix is hashed once per dictionary. The last 7 positions are
+      // hashed with each block since their keys overlap the block.
+      private static int[] getPrefixHashes(CustomDictionary dict)
+      {
+         int[] res = PREFIX_HASHES.get(dict.getId());
+
+         if (res != null)
+            return res;
+
+         final byte[] prefix = dict.getPrefix();
+         res = new int[1<<HASH_LOG];
+
+         for (int i=0; i<=prefix.length-8; i++)
+            res[hash(prefix, i)] = i + 1;
+
+         final int[] prev = PREFIX_HASHES.putIfAbsent(dict.getId(), res);
+         return (prev != null) ? prev : res;
       }
 
 
@@ -161,19 +210,46 @@ public final class LZCodec implements ByteFunction
          if (count < MIN_LENGTH)
              return false;
 
+         final int prefixLen = this.prefix.length;
+
          if (this.hashes.length == 0) 
          {
             this.hashes = new int[1<<HASH_LOG];
+            this.base = 0;
          } 
-         else 
+         else if (this.base > Integer.MAX_VALUE - count - prefixLen)
          {
-            for (int i=0; i<(1<<HASH_LOG); i++)
-               this.hashes[i] = 0;
+            // Out of generations, reset the table
+            Arrays.fill(this.hashes, 0);
+            this.base = 0;
+         }
+
+         final int srcIdx0;
+         final int winStart; // start of the match window
+         final byte[] src;
+
+         if (prefixLen == 0)
+         {
+            src = input.array;
+            srcIdx0 = input.index;
+            winStart = srcIdx0;
+         }
+         else
+         {
+            // Prepend the prefix to the block (the prefix is never overwritten)
+            if (this.buffer.length < prefixLen+count)
+            {
+               this.buffer = new byte[prefixLen+count];
+               System.arraycopy(this.prefix, 0, this.buffer, 0, prefixLen);
+            }
+
+            src = this.buffer;
+            System.arraycopy(input.array, input.index, src, prefixLen, count);
+            srcIdx0 = prefixLen;
+            winStart = 0;
          }
 
-         final int srcIdx0 = input.index;
          final int dstIdx0 = output.index;
-         final byte[] src = input.array;
          final byte[] dst = output.array;
          final int srcEnd = srcIdx0 + count - 16;
          int srcIdx = srcIdx0;
@@ -182,11 +258,23 @@ public final class LZCodec implements ByteFunction
          final int maxDist = (srcEnd < 4*MAX_DISTANCE1) ? MAX_DISTANCE1 : MAX_DISTANCE2;
          dst[dstIdx++] = (maxDist == MAX_DISTANCE1) ? (byte) 0 : (byte) 1;
 
+         // Positions are stored relative to the current generation. Entries left
+         // by previous blocks map below winStart and are rejected by the minRef test.
+         // With a prefix, they map below tailStart and the prefix table is used.
+         final int delta = this.base - winStart;
+         final int tailStart = Math.max(srcIdx0-7, winStart);
+
+         for (int i=tailStart; i<srcIdx0; i++)
+            this.hashes[hash(src, i)] = i + delta;
+
          while (srcIdx < srcEnd) 
          {
-            final int minRef = Math.max(srcIdx-maxDist, srcIdx0);
+            final int minRef = Math.max(srcIdx-maxDist, winStart);
             final int h = hash(src, srcIdx);
-            final int ref = this.hashes[h];
+            int ref = this.hashes[h] - delta;
+
+            if ((ref < tailStart) && (prefixLen != 0))
+               ref = this.prefixHashes[h] - 1;
             int bestLen = 0;
 
             // Find a match
@@ -205,7 +293,7 @@ public final class LZCodec implements ByteFunction
             // No good match ?
             if ((bestLen < MIN_MATCH) || ((bestLen == MIN_MATCH) && (srcIdx-ref >= MIN_MATCH_MIN_DIST)))
             {
-               this.hashes[h] = srcIdx;
+               this.hashes[h] = srcIdx + delta;
                srcIdx++;
                continue;
             }
@@ -256,19 +344,22 @@ public final class LZCodec implements ByteFunction
 
             // Fill _hashes and update positions
             anchor = srcIdx + bestLen;
-            this.hashes[h] = srcIdx;
+            this.hashes[h] = srcIdx + delta;
             srcIdx++;
 
             while (srcIdx < anchor) 
             {
-               this.hashes[hash(src, srcIdx)] = srcIdx;
+               this.hashes[hash(src, srcIdx)] = srcIdx + delta;
                srcIdx++;
             }
          }
 
+         // Next block starts a new generation
+         this.base += (srcIdx0 - winStart + count);
+
          // Emit last literals
          dstIdx = emitLastLiterals(src, anchor, dst, dstIdx, srcEnd+16-anchor);
-         input.index = srcEnd + 16;
+         input.index += count;
          output.index = dstIdx;
          return true;
       }
@@ -285,11 +376,35 @@ public final class LZCodec implements ByteFunction
 
          final int count = input.length;     
          final int srcIdx0 = input.index;
-         final int dstIdx0 = output.index;
+         final int prefixLen = this.prefix.length;
+         final int dstIdx0;
          final byte[] src = input.array;
-         final byte[] dst = output.array;
+         final byte[] dst;
+         final int dstEnd;
+
+         if (prefixLen == 0)
+         {
+            dst = output.array;
+            dstIdx0 = output.index;
+            dstEnd = dst.length - 16;
+         }
+         else
+         {
+            // Decode after the prefix then copy to the output
+            final int length = prefixLen + output.array.length - output.index;
+
+            if (this.buffer.length < length)
+            {
+               this.buffer = new byte[length];
+               System.arraycopy(this.prefix, 0, this.buffer, 0, prefixLen);
+            }
+
+            dst = this.buffer;
+            dstIdx0 = prefixLen;
+            dstEnd = length - 16;
+         }
+
          final int srcEnd = srcIdx0 + count - 16;
-         final int dstEnd = dst.length - 16;
          final int maxDist = (src[srcIdx0] == 1) ? MAX_DISTANCE2 : MAX_DISTANCE1;
          int dstIdx = dstIdx0;
          int srcIdx = srcIdx0 + 1;
@@ -351,7 +466,7 @@ public final class LZCodec implements ByteFunction
             if (mEnd > dstEnd + 16) 
             {
                input.index = srcIdx;
-               output.index = dstIdx;
+               output.index += (dstIdx - dstIdx0);
                return false;
             }
 
@@ -368,7 +483,7 @@ public final class LZCodec implements ByteFunction
             if ((dstIdx < dist) || (dist > maxDist)) 
             {
                input.index = srcIdx;
-               output.index = dstIdx;
+               output.index += (dstIdx - dstIdx0);
                return false;
             }
 
@@ -397,7 +512,10 @@ public final class LZCodec implements ByteFunction
             dstIdx = mEnd;
          }
 
-         output.index = dstIdx;
+         if (prefixLen != 0)
+            System.arraycopy(dst, dstIdx0, output.array, output.index, dstIdx-dstIdx0);
+
+         output.index += (dstIdx - dstIdx0);
          input.index = srcIdx;
          return srcIdx == srcEnd + 16;
       }
@@ -448,6 +566,7 @@ public final class LZCodec implements ByteFunction
       private static final int MATCH_FLAG = 0xFC;
 
       private int[] hashes;
+      private int base; // generation of the hash table entries
 
 
       public LZPCodec()
@@ -483,11 +602,13 @@ public final class LZCodec implements ByteFunction
          if (this.hashes.length == 0) 
          {
             this.hashes = new int[1<<HASH_LOG];
+            this.base = 0;
          } 
-         else 
+         else if (this.base > Integer.MAX_VALUE - count)
          {
-            for (int i=0; i<(1<<HASH_LOG); i++)
-               this.hashes[i] = 0;
+            // Out of generations, reset the table
+            Arrays.fill(this.hashes, 0);
+            this.base = 0;
          }
 
          final int srcIdx0 = input.index;
@@ -508,10 +629,15 @@ public final class LZCodec implements ByteFunction
          dstIdx += 4;
          int minRef = 4;
 
+         // Positions are stored relative to the current generation. Entries left
+         // by previous blocks are not above base and are treated as empty slots.
+         final int base = this.base;
+         final int delta = base - srcIdx0;
+
          while ((srcIdx < srcEnd) && (dstIdx < dstEnd)) {
             final int h = (HASH_SEED*ctx) >>> HASH_SHIFT;
-            final int ref = this.hashes[h];
-            this.hashes[h] = srcIdx;
+            final int ref = (this.hashes[h] > base) ? this.hashes[h] - delta : 0;
+            this.hashes[h] = srcIdx + delta;
             int bestLen = 0;
 
             // Find a match
@@ -567,8 +693,8 @@ public final class LZCodec implements ByteFunction
          while ((srcIdx < srcEnd+8) && (dstIdx < dstEnd)) 
          {
             final int h = (HASH_SEED*ctx) >>> HASH_SHIFT;
-            final int ref = this.hashes[h];
-            this.hashes[h] = srcIdx;
+            final int ref = (this.hashes[h] > base) ? this.hashes[h] - delta : 0;
+            this.hashes[h] = srcIdx + delta;
             final int val = src[srcIdx] & 0xFF;
             ctx = (ctx<<8) | val;
             dst[dstIdx++] = src[srcIdx++];
@@ -577,6 +703,8 @@ public final class LZCodec implements ByteFunction
                dst[dstIdx++] = (byte) 0xFF;
          }
 
+         // Next block starts a new generation
+         this.base += count;
          input.index = srcIdx;
          output.index = dstIdx;
          return (srcIdx == count) && (dstIdx < (count-(count>>6))); 
@@ -602,11 +730,13 @@ public final class LZCodec implements ByteFunction
          if (this.hashes.length == 0) 
          {
             this.hashes = new int[1<<HASH_LOG];
+            this.base = 0;
          } 
-         else 
+         else if (this.base > Integer.MAX_VALUE - (dst.length - dstIdx))
          {
-            for (int i=0; i<(1<<HASH_LOG); i++)
-               this.hashes[i] = 0;
+            // Out of generations, reset the table
+            Arrays.fill(this.hashes, 0);
+            this.base = 0;
          }
 
          dst[dstIdx]   = src[srcIdx];
@@ -614,14 +744,16 @@ public final class LZCodec implements ByteFunction
          dst[dstIdx+2] = src[srcIdx+2];
          dst[dstIdx+3] = src[srcIdx+3];
          int ctx = Memory.LittleEndian.readInt32(dst, dstIdx);
+         final int base = this.base;
+         final int delta = base - dstIdx;
          srcIdx += 4;
          dstIdx += 4;
 
          while (srcIdx < srcEnd) 
          {
             final int h = (HASH_SEED*ctx) >>> HASH_SHIFT;
-            final int ref = this.hashes[h];
-            this.hashes[h] = dstIdx;
+            final int ref = (this.hashes[h] > base) ? this.hashes[h] - delta : 0;
+            this.hashes[h] = dstIdx + delta;
 
             if ((ref == 0) || (src[srcIdx] != (byte) MATCH_FLAG)) 
             {
@@ -663,6 +795,8 @@ public final class LZCodec implements ByteFunction
             ctx = Memory.LittleEndian.readInt32(dst, dstIdx-4);
         }
 
+        // Next block starts a new generation
+        this.base += (dstIdx - output.index);
         input.index = srcIdx;
         output.index = dstIdx;
         return srcIdx == srcEnd;
@@ -0,0 +1,332 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+                http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package kanzi.function;
+
+import java.util.Map;
+import kanzi.ByteFunction;
+import kanzi.Global;
+import kanzi.SliceByteArray;
+import kanzi.transform.SBRT;
+
+
+// Fused Sort By Rank Transform (MTF or Rank mode) and Zero Run Length
+// Transform. The ranks are zero run length coded as soon as they are
+// produced (and decoded ranks are immediately mapped back to symbols),
+// saving one full pass over the block in each direction.
+// When it succeeds, the output is the same as SBRT followed by ZRLT.
+// This transform is well adapted to process post BWT data.
+public final class SBRZRLT implements ByteFunction
+{
+   private final int[] prev;
+   private final int[] curr;
+   private final int[] symbols;
+   private final int[] ranks;
+   private final int mode;
+
+
+   public SBRZRLT()
+   {
+      this(SBRT.MODE_RANK);
+   }
+
+
+   public SBRZRLT(int mode)
+   {
+      if ((mode != SBRT.MODE_MTF) && (mode != SBRT.MODE_RANK) && (mode != SBRT.MODE_TIMESTAMP))
+         throw new IllegalArgumentException("Invalid mode parameter");
+
+      this.prev = new int[256];
+      this.curr = new int[256];
+      this.symbols = new int[256];
+      this.ranks = new int[256];
+      this.mode = mode;
+   }
+
+
+   public SBRZRLT(Map<String, Object> ctx)
+   {
+      this((Integer) ctx.getOrDefault("sbrt", SBRT.MODE_MTF));
+   }
+
+
+   @Override
+   public boolean forward(SliceByteArray input, SliceByteArray output)
+   {
+      if (input.length == 0)
+         return true;
+
+      if (input.array == output.array)
+         return false;
+
+      final int count = input.length;
+
+      if (output.length - output.index < getMaxEncodedLength(count))
+         return false;
+
+      // Aliasing
+      final byte[] src = input.array;
+      final byte[] dst = output.array;
+      final int srcIdx0 = input.index;
+      final int dstEnd = output.length;
+      int dstIdx = output.index;
+      final int[] p = this.prev;
+      final int[] q = this.curr;
+      final int[] s2r = this.symbols;
+      final int[] r2s = this.ranks;
+
+      final int m1 = (this.mode == SBRT.MODE_TIMESTAMP) ? 0 : -1;
+      final int m2 = (this.mode == SBRT.MODE_MTF) ? 0 : -1;
+      final int s = (this.mode == SBRT.MODE_RANK) ? 1 : 0;
+
+      for (int i=0; i<256; i++)
+      {
+         p[i] = 0;
+         q[i] = 0;
+         s2r[i] = i;
+         r2s[i] = i;
+      }
+
+      int runLength = 0;
+      int i = 0;
+
+      for ( ; i<count; i++)
+      {
+         final int c = src[srcIdx0+i] & 0xFF;
+         int r = s2r[c];
+         final int qc = ((i & m1) + (p[c] & m2)) >> s;
+         p[c] = i;
+         q[c] = qc;
+
+         if (r == 0)
+         {
+            // The symbol stays at rank 0, accumulate the run of zeros
+            runLength++;
+            continue;
+         }
+
+         if (runLength != 0)
+         {
+            dstIdx = emitRunLength(dst, dstIdx, dstEnd, runLength);
+
+            if (dstIdx < 0)
+               break;
+
+            runLength = 0;
+         }
+
+         // Emit rank (shifted by 1, 0 and 1 are reserved for run lengths)
+         if (r >= 0xFE)
+         {
+            if (dstIdx >= dstEnd-1)
+               break;
+
+            dst[dstIdx] = (byte) 0xFF;
+            dst[dstIdx+1] = (byte) (r-0xFE);
+            dstIdx += 2;
+         }
+         else
+         {
+            if (dstIdx >= dstEnd)
+               break;
+
+            dst[dstIdx++] = (byte) (r+1);
+         }
+
+         // Move up symbol to correct rank
+         while ((r > 0) && (q[r2s[r-1]] <= qc))
+         {
+            r2s[r] = r2s[r-1];
+            s2r[r2s[r]] = r;
+            r--;
+         }
+
+         r2s[r] = c;
+         s2r[c] = r;
+      }
+
+      if ((i == count) && (runLength != 0))
+      {
+         dstIdx = emitRunLength(dst, dstIdx, dstEnd, runLength);
+
+         if (dstIdx >= 0)
+            runLength = 0;
+      }
+
+      if (dstIdx < 0)
+         return false;
+
+      input.index += i;
+      output.index = dstIdx;
+      return (i == count) && (runLength == 0);
+   }
+
+
+   // Write every bit of the (run length + 1) as a byte except the most
+   // significant one. Return the new index or -1 if the output is too small.
+   private static int emitRunLength(byte[] dst, int dstIdx, int dstEnd, int runLength)
+   {
+      runLength++;
+      int log2 = (runLength<=256) ? Global.LOG2[runLength-1] : 31-Integer.numberOfLeadingZeros(runLength);
+
+      if (dstIdx >= dstEnd-log2)
+         return -1;
+
+      while (log2 > 0)
+      {
+         log2--;
+         dst[dstIdx++] = (byte) ((runLength >> log2) & 1);
+      }
+
+      return dstIdx;
+   }
+
+
+   @Override
+   public boolean inverse(SliceByteArray input, SliceByteArray output)
+   {
+      if (input.length == 0)
+         return true;
+
+      if (input.array == output.array)
+         return false;
+
+      final int count = input.length;
+      final byte[] src = input.array;
+      final byte[] dst = output.array;
+      final int dstIdx0 = output.index;
+      final int srcEnd = input.index + count;
+      final int dstEnd = output.length;
+      int srcIdx = input.index;
+      int dstIdx = dstIdx0;
+      final int[] p = this.prev;
+      final int[] q = this.curr;
+      final int[] r2s = this.ranks;
+
+      final int m1 = (this.mode == SBRT.MODE_TIMESTAMP) ? 0 : -1;
+      final int m2 = (this.mode == SBRT.MODE_MTF) ? 0 : -1;
+      final int s = (this.mode == SBRT.MODE_RANK) ? 1 : 0;
+
+      for (int i=0; i<256; i++)
+      {
+         p[i] = 0;
+         q[i] = 0;
+         r2s[i] = i;
+      }
+
+      boolean res = true;
+
+      while (srcIdx < srcEnd)
+      {
+         int val = src[srcIdx] & 0xFF;
+
+         if (val <= 1)
+         {
+            // Generate the run length bit by bit (but force MSB)
+            int runLength = 1;
+
+            do
+            {
+               runLength = (runLength << 1) | val;
+               srcIdx++;
+            }
+            while ((srcIdx < srcEnd) && ((val = src[srcIdx] & 0xFF) <= 1));
+
+            runLength--;
+
+            if (dstIdx + runLength > dstEnd)
+            {
+               res = false;
+               break;
+            }
+
+            // Rank 0 symbol repeated: no rank update, only the last access matters
+            final int c = r2s[0];
+            final int last = dstIdx + runLength - 1 - dstIdx0;
+            final int pc = (runLength == 1) ? p[c] : last - 1;
+            q[c] = ((last & m1) + (pc & m2)) >> s;
+            p[c] = last;
+
+            for (int n=0; n<runLength; n++)
+               dst[dstIdx+n] = (byte) c;
+
+            dstIdx += runLength;
+            continue;
+         }
+
+         // Regular rank
+         int r;
+
+         if (val == 0xFF)
+         {
+            srcIdx++;
+
+            if (srcIdx >= srcEnd)
+            {
+               res = false;
+               break;
+            }
+
+            r = 0xFE + (src[srcIdx] & 0xFF);
+
+            if (r > 0xFF)
+            {
+               res = false;
+               break;
+            }
+         }
+         else
+         {
+            r = val - 1;
+         }
+
+         srcIdx++;
+
+         if (dstIdx >= dstEnd)
+         {
+            res = false;
+            break;
+         }
+
+         final int i = dstIdx - dstIdx0;
+         final int c = r2s[r];
+         dst[dstIdx++] = (byte) c;
+         final int qc = ((i & m1) + (p[c] & m2)) >> s;
+         p[c] = i;
+         q[c] = qc;
+
+         // Move up symbol to correct rank
+         while ((r > 0) && (q[r2s[r-1]] <= qc))
+         {
+            r2s[r] = r2s[r-1];
+            r--;
+         }
+
+         r2s[r] = c;
+      }
+
+      input.index = srcIdx;
+      output.index = dstIdx;
+      return (res == true) && (srcIdx == srcEnd);
+   }
+
+
+   // Required encoding output buffer size unknown => guess
+   @Override
+   public int getMaxEncodedLength(int srcLen)
+   {
+      return srcLen;
+   }
+}
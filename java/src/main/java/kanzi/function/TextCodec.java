@@ -16,6 +16,7 @@ limitations under the License.
 package kanzi.function;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import kanzi.ByteFunction;
 import kanzi.Global;
 import kanzi.SliceByteArray;
@@ -23,6 +24,9 @@ import kanzi.SliceByteArray;
 
 // Simple one-pass text codec. Uses a default (small) static dictionary
 // or potentially larger custom one. Generates a dynamic dictionary.
+// Custom dictionaries are registered once per JVM, shared by all codec
+// instances and selected with the 'dictionary' key (see CustomDictionary) in the
+// context.
 public final class TextCodec implements ByteFunction
 {
    private static final int THRESHOLD1 = 128;
@@ -176,6 +180,9 @@ public final class TextCodec implements ByteFunction
    private static final DictEntry[] STATIC_DICTIONARY = new DictEntry[1024];
    private static final int STATIC_DICT_WORDS = createDictionary(DICT_EN_1024, STATIC_DICTIONARY, 1024, 0);
 
+   // Entries of the custom dictionaries in use (read only) indexed by dictionary id
+   private static final Map<Integer, DictEntry[]> CUSTOM_DICTIONARIES = new ConcurrentHashMap<>();
+
    private final ByteFunction delegate;
    
    
@@ -231,6 +238,57 @@ public final class TextCodec implements ByteFunction
    }
    
 
+   // Build the entries of a custom dictionary from a normalized word list
+   // (see CustomDictionary). The entries are never modified by the codecs.
+   private static DictEntry[] createCustomDictionary(byte[] words, int nbWords)
+   {
+      DictEntry[] dict = new DictEntry[nbWords];
+      int anchor = 0;
+
+      for (int n=0, i=0; n<nbWords; i++)
+      {
+         if (words[i] != ' ')
+            continue;
+
+         int h = HASH1;
+
+         for (int j=anchor; j<i; j++)
+            h = h*HASH1 ^ words[j]*HASH2;
+
+         dict[n] = new DictEntry(words, anchor, h, n, i-anchor);
+         n++;
+         anchor = i + 1;
+      }
+
+      return dict;
+   }
+
+
+   // Return the static dictionary selected in the context (built-in by default
+   // or when the custom dictionary has no word list)
+   private static DictEntry[] getStaticDictionary(Map<String, Object> ctx)
+   {
+      if (ctx.containsKey("dictionary") == false)
+         return STATIC_DICTIONARY;
+
+      final int id = (Integer) ctx.get("dictionary");
+      DictEntry[] dict = CUSTOM_DICTIONARIES.get(id);
+
+      if (dict != null)
+         return dict;
+
+      final CustomDictionary cd = CustomDictionary.get(id);
+
+      if (cd == null)
+         throw new IllegalArgumentException("Unknown dictionary: " + Integer.toHexString(id));
+
+      dict = (cd.getNbWords() == 0) ? STATIC_DICTIONARY :
+         createCustomDictionary(cd.getWords(), cd.getNbWords());
+      final DictEntry[] prev = CUSTOM_DICTIONARIES.putIfAbsent(id, dict);
+      return (prev != null) ? prev : dict;
+   }
+
+
    private static boolean isText(byte val)
    {
       return isLowerCase(val) || isUpperCase(val);
@@ -440,6 +498,7 @@ public final class TextCodec implements ByteFunction
    {
       private DictEntry[] dictMap;
       private DictEntry[] dictList;
+      private final DictEntry[] staticDict;
       private final int staticDictSize;
       private final int logHashSize;
       private final int hashMask;
@@ -454,6 +513,7 @@ public final class TextCodec implements ByteFunction
          this.dictMap = new DictEntry[0];
          this.dictList = new DictEntry[0];
          this.hashMask = (1<<this.logHashSize) - 1;        
+         this.staticDict = STATIC_DICTIONARY;
          this.staticDictSize = STATIC_DICT_WORDS + 2;
       }
 
@@ -478,7 +538,8 @@ public final class TextCodec implements ByteFunction
          this.dictMap = new DictEntry[0];
          this.dictList = new DictEntry[0];
          this.hashMask = (1<<this.logHashSize) - 1;
-         this.staticDictSize = STATIC_DICT_WORDS + 2;
+         this.staticDict = getStaticDictionary(ctx);
+         this.staticDictSize = this.staticDict.length + 2;
       }
 
 
@@ -486,7 +547,7 @@ public final class TextCodec implements ByteFunction
       {
          // Select an appropriate initial dictionary size
          final int log = (count < 8) ? 13 : Math.max(Math.min(Global.log2(count / 8), 22), 17);
-         this.dictSize = 1 << (log - 4);
+         this.dictSize = Math.max(1 << (log - 4), Integer.highestOneBit(this.staticDictSize) << 1);
 
          // Allocate lazily (only if text input detected)
          if (this.dictMap.length == 0)
@@ -495,18 +556,29 @@ public final class TextCodec implements ByteFunction
          }
          else
          {
-            for (int i=0; i<this.dictMap.length; i++)
-               this.dictMap[i] = null;            
+            // Only the slots of the entries in the dictionary list can be set
+            for (DictEntry e : this.dictList)
+            {
+               if (e != null)
+                  this.dictMap[e.hash&this.hashMask] = null;            
+            }
          }
 
          if (this.dictList.length == 0)
          {
+            final int nbWords = this.staticDict.length;
             this.dictList = new DictEntry[this.dictSize];
-            System.arraycopy(STATIC_DICTIONARY, 0, this.dictList, 0, Math.min(STATIC_DICTIONARY.length, this.dictSize));
+            System.arraycopy(this.staticDict, 0, this.dictList, 0, nbWords);
 
             // Add special entries at end of static dictionary
-            this.dictList[STATIC_DICT_WORDS]   = new DictEntry(new byte[] { ESCAPE_TOKEN2 }, 0, 0, STATIC_DICT_WORDS, 1);
-            this.dictList[STATIC_DICT_WORDS+1] = new DictEntry(new byte[] { ESCAPE_TOKEN1 }, 0, 0, STATIC_DICT_WORDS+1, 1);
+            this.dictList[nbWords]   = new DictEntry(new byte[] { ESCAPE_TOKEN2 }, 0, 0, nbWords, 1);
+            this.dictList[nbWords+1] = new DictEntry(new byte[] { ESCAPE_TOKEN1 }, 0, 0, nbWords+1, 1);
+         }
+         else if (this.dictList.length < this.dictSize)
+         {
+            DictEntry[] newDict = new DictEntry[this.dictSize];
+            System.arraycopy(this.dictList, 0, newDict, 0, this.staticDictSize);
+            this.dictList = newDict;
          }
                   
          for (int i=0; i<this.staticDictSize; i++)
@@ -958,6 +1030,7 @@ public final class TextCodec implements ByteFunction
    {
       private DictEntry[] dictMap;
       private DictEntry[] dictList;
+      private final DictEntry[] staticDict;
       private final int staticDictSize;
       private final int logHashSize;
       private final int hashMask;
@@ -972,6 +1045,7 @@ public final class TextCodec implements ByteFunction
          this.dictMap = new DictEntry[0];
          this.dictList = new DictEntry[0];
          this.hashMask = (1<<this.logHashSize) - 1;
+         this.staticDict = STATIC_DICTIONARY;
          this.staticDictSize = STATIC_DICT_WORDS;
       }
 
@@ -996,7 +1070,8 @@ public final class TextCodec implements ByteFunction
          this.dictMap = new DictEntry[0];
          this.dictList = new DictEntry[0];
          this.hashMask = (1<<this.logHashSize) - 1;
-         this.staticDictSize = STATIC_DICT_WORDS;
+         this.staticDict = getStaticDictionary(ctx);
+         this.staticDictSize = this.staticDict.length;
       }
 
 
@@ -1004,7 +1079,7 @@ public final class TextCodec implements ByteFunction
       {
          // Select an appropriate initial dictionary size
          final int log = (count < 8) ? 13 : Math.max(Math.min(Global.log2(count / 8), 22), 17);
-         this.dictSize = 1 << (log - 4);
+         this.dictSize = Math.max(1 << (log - 4), Integer.highestOneBit(this.staticDictSize) << 1);
 
          // Allocate lazily (only if text input detected)
          if (this.dictMap.length == 0)
@@ -1013,14 +1088,24 @@ public final class TextCodec implements ByteFunction
          }
          else
          {
-            for (int i=0; i<this.dictMap.length; i++)
-               this.dictMap[i] = null;
+            // Only the slots of the entries in the dictionary list can be set
+            for (DictEntry e : this.dictList)
+            {
+               if (e != null)
+                  this.dictMap[e.hash&this.hashMask] = null;            
+            }
          }
          
          if (this.dictList.length == 0)
          {
             this.dictList = new DictEntry[this.dictSize];         
-            System.arraycopy(STATIC_DICTIONARY, 0, this.dictList, 0, Math.min(STATIC_DICTIONARY.length, this.dictSize));
+            System.arraycopy(this.staticDict, 0, this.dictList, 0, this.staticDict.length);
+         }
+         else if (this.dictList.length < this.dictSize)
+         {
+            DictEntry[] newDict = new DictEntry[this.dictSize];
+            System.arraycopy(this.dictList, 0, newDict, 0, this.staticDictSize);
+            this.dictList = newDict;
          }
          
          // Update map
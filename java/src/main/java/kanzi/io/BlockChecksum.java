@@ -0,0 +1,126 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+                http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package kanzi.io;
+
+import kanzi.util.hash.CRC32C;
+import kanzi.util.hash.XXHash32;
+import kanzi.util.hash.XXHash64;
+
+
+// Checksum of the blocks of a compressed stream. The type is recorded in the
+// stream header. The XXHash checksums are seeded with the stream type, the
+// CRC32C is the standard one (same value as other tools for the same block).
+// hash() is thread safe.
+public final class BlockChecksum
+{
+   public static final int NONE_TYPE     = 0;
+   public static final int XXHASH32_TYPE = 1;
+   public static final int XXHASH64_TYPE = 2;
+   public static final int CRC32C_TYPE   = 3;
+
+   private final int type;
+   private final XXHash32 xxh32;
+   private final XXHash64 xxh64;
+   private final CRC32C crc32c;
+
+
+   public BlockChecksum(int type, int seed)
+   {
+      if ((type < XXHASH32_TYPE) || (type > CRC32C_TYPE))
+         throw new IllegalArgumentException("Invalid checksum type: " + type);
+
+      this.type = type;
+      this.xxh32 = (type == XXHASH32_TYPE) ? new XXHash32(seed) : null;
+      this.xxh64 = (type == XXHASH64_TYPE) ? new XXHash64(seed) : null;
+      this.crc32c = (type == CRC32C_TYPE) ? new CRC32C() : null;
+   }
+
+
+   public int getType()
+   {
+      return this.type;
+   }
+
+
+   // Number of bits of the checksum in the block header
+   public int size()
+   {
+      return (this.type == XXHASH64_TYPE) ? 64 : 32;
+   }
+
+
+   // 32 bit checksums are returned as positive values
+   public long hash(byte[] data, int offset, int length)
+   {
+      switch (this.type)
+      {
+         case XXHASH32_TYPE:
+            return this.xxh32.hash(data, offset, length) & 0xFFFFFFFFL;
+
+         case XXHASH64_TYPE:
+            return this.xxh64.hash(data, offset, length);
+
+         default:
+            return this.crc32c.hash(data, offset, length) & 0xFFFFFFFFL;
+      }
+   }
+
+
+   public static String getName(int type)
+   {
+      switch (type)
+      {
+         case XXHASH32_TYPE:
+            return "XXHASH32";
+
+         case XXHASH64_TYPE:
+            return "XXHASH64";
+
+         case CRC32C_TYPE:
+            return "CRC32C";
+
+         case NONE_TYPE:
+            return "NONE";
+
+         default:
+            throw new IllegalArgumentException("Unknown checksum type: " + type);
+      }
+   }
+
+
+   public static int getType(String name)
+   {
+      name = String.valueOf(name).toUpperCase();
+
+      switch (name)
+      {
+         case "XXHASH32":
+            return XXHASH32_TYPE;
+
+         case "XXHASH64":
+            return XXHASH64_TYPE;
+
+         case "CRC32C":
+            return CRC32C_TYPE;
+
+         case "NONE":
+            return NONE_TYPE;
+
+         default:
+            throw new IllegalArgumentException("Unsupported checksum type: '" + name + "'");
+      }
+   }
+}
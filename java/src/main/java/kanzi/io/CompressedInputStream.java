@@ -36,9 +36,12 @@ import kanzi.Global;
 import kanzi.SliceByteArray;
 import kanzi.InputBitStream;
 import kanzi.bitstream.DefaultInputBitStream;
+import kanzi.bitstream.MappedInputBitStream;
+import kanzi.bitstream.PrefetchInputBitStream;
 import kanzi.entropy.EntropyCodecFactory;
 import kanzi.function.ByteTransformSequence;
-import kanzi.util.hash.XXHash32;
+import kanzi.function.CustomDictionary;
+import kanzi.util.hash.XXHash64;
 import kanzi.Listener;
 
 
@@ -47,7 +50,7 @@ import kanzi.Listener;
 public class CompressedInputStream extends InputStream
 {
    private static final int BITSTREAM_TYPE           = 0x4B414E5A; // "KANZ"
-   private static final int BITSTREAM_FORMAT_VERSION = 10;
+   private static final int BITSTREAM_FORMAT_VERSION = 11;
    private static final int DEFAULT_BUFFER_SIZE      = 256*1024;
    private static final int EXTRA_BUFFER_SIZE        = 256;
    private static final int COPY_BLOCK_MASK          = 0x80;
@@ -61,9 +64,14 @@ public class CompressedInputStream extends InputStream
    
    private int blockSize;
    private int nbInputBlocks;
-   private XXHash32 hasher;
+   private BlockChecksum hasher;
+   private XXHash64 streamHasher; // combines the block checksums (or null)
    private final SliceByteArray sa; // for all blocks
    private final SliceByteArray[] buffers; // input & output per block
+   private final ByteTransformSequence[] transforms; // reused per job
+   private final ByteTransformSequence[] altTransforms; // other chain per job (adaptive streams)
+   private final long[] altTransformTypes; // type of each chain in altTransforms
+   private final int[] transformJobs; // number of jobs of each transform sequence
    private int entropyType;
    private long transformType;
    private final InputBitStream ibs;
@@ -79,9 +87,17 @@ public class CompressedInputStream extends InputStream
    
    public CompressedInputStream(InputStream is, Map<String, Object> ctx)
    {
-      if (is == null)
-         throw new NullPointerException("Invalid null input stream parameter");
-            
+      this(createBitStream(is, ctx), ctx);
+   }
+
+
+   // With a MappedInputBitStream, the blocks are decoded from slices of the
+   // mapping (no copy of the compressed blocks)
+   public CompressedInputStream(InputBitStream ibs, Map<String, Object> ctx)
+   {
+      if (ibs == null)
+         throw new NullPointerException("Invalid null input bitstream parameter");
+
       if (ctx == null)
          throw new NullPointerException("Invalid null context parameter");
             
@@ -95,11 +111,15 @@ public class CompressedInputStream extends InputStream
       if ((tasks > 1) && (threadPool == null))
          throw new IllegalArgumentException("The thread pool cannot be null when the number of jobs is "+tasks);
 
-      this.ibs = new DefaultInputBitStream(is, DEFAULT_BUFFER_SIZE);
+      this.ibs = ibs;
       this.sa = new SliceByteArray();
       this.jobs = tasks;
       this.pool = threadPool;
       this.buffers = new SliceByteArray[2*this.jobs];
+      this.transforms = new ByteTransformSequence[this.jobs];
+      this.altTransforms = new ByteTransformSequence[this.jobs];
+      this.altTransformTypes = new long[this.jobs];
+      this.transformJobs = new int[this.jobs];
       this.closed = new AtomicBoolean(false);
       this.initialized = new AtomicBoolean(false);
 
@@ -115,6 +135,21 @@ public class CompressedInputStream extends InputStream
    }
 
 
+   private static InputBitStream createBitStream(InputStream is, Map<String, Object> ctx)
+   {
+      if (is == null)
+         throw new NullPointerException("Invalid null input stream parameter");
+
+      if (ctx == null)
+         throw new NullPointerException("Invalid null context parameter");
+
+      // Optional read ahead of the input on a background thread
+      final int prefetch = (Integer) ctx.getOrDefault("prefetch", 0);
+      return (prefetch > 0) ? new PrefetchInputBitStream(is, DEFAULT_BUFFER_SIZE, prefetch) :
+         new DefaultInputBitStream(is, DEFAULT_BUFFER_SIZE);
+   }
+
+
    protected void readHeader() throws IOException
    {
       // Read stream type
@@ -127,14 +162,13 @@ public class CompressedInputStream extends InputStream
       // Read stream version
       final int version = (int) this.ibs.readBits(5);
 
-      // Sanity check
-      if (version != BITSTREAM_FORMAT_VERSION)
+      // Sanity check (version 10 is version 11 with XXHash32 as only checksum)
+      if ((version != BITSTREAM_FORMAT_VERSION) && (version != 10))
          throw new kanzi.io.IOException("Invalid bitstream, cannot read this version of the stream: " + version,
                  Error.ERR_STREAM_VERSION);
 
-      // Read block checksum
-      if (this.ibs.readBit() == 1)
-         this.hasher = new XXHash32(BITSTREAM_TYPE);
+      // Read block checksum flag
+      final boolean hasChecksum = this.ibs.readBit() == 1;
 
       // Read entropy codec
       this.entropyType = (int) this.ibs.readBits(5);
@@ -159,15 +193,60 @@ public class CompressedInputStream extends InputStream
       // Read number of blocks in input. 0 means 'unknown' and 63 means 63 or more.
       this.nbInputBlocks = (int) this.ibs.readBits(6);
       
-      // Read reserved bits
-      this.ibs.readBits(3);   
+      // Read custom dictionary flag
+      final boolean hasDictionary = this.ibs.readBit() == 1;
+
+      // Read adaptive transform flag (transform chain recorded per block)
+      this.ctx.put("adaptive", this.ibs.readBit() == 1);
+
+      // Read block alignment flag (block sizes in bits are multiples of 8)
+      this.ctx.put("alignBlocks", this.ibs.readBit() == 1);
+
+      if (hasChecksum == true)
+      {
+         int checksumType = BlockChecksum.XXHASH32_TYPE;
+
+         if (version == BITSTREAM_FORMAT_VERSION)
+         {
+            // Read checksum type (4 bits) and reserved bits (4 bits)
+            checksumType = (int) this.ibs.readBits(4);
+            this.ibs.readBits(4);
+         }
+
+         if ((checksumType < BlockChecksum.XXHASH32_TYPE) || (checksumType > BlockChecksum.CRC32C_TYPE))
+            throw new kanzi.io.IOException("Invalid bitstream, unknown checksum type: " + checksumType,
+                    Error.ERR_INVALID_FILE);
+
+         this.hasher = new BlockChecksum(checksumType, BITSTREAM_TYPE);
+         this.streamHasher = new XXHash64(BITSTREAM_TYPE);
+      }
+
+      if (hasDictionary == true)
+      {
+         // The custom dictionary must have been registered by the caller
+         final int dictId = (int) this.ibs.readBits(32);
+
+         if (CustomDictionary.isRegistered(dictId) == false)
+            throw new kanzi.io.IOException("Invalid bitstream, unknown dictionary: " + 
+                    Integer.toHexString(dictId), Error.ERR_INVALID_FILE);
+
+         this.ctx.put("dictionary", dictId);
+      }
+      else
+      {
+         this.ctx.remove("dictionary");
+      }
 
       if (this.listeners.size() > 0)
       {
          StringBuilder sb = new StringBuilder(200);
-         sb.append("Checksum set to ").append(this.hasher != null).append("\n");
+         sb.append("Checksum set to ").append((this.hasher == null) ? "NONE" :
+            BlockChecksum.getName(this.hasher.getType())).append("\n");
          sb.append("Block size set to ").append(this.blockSize).append(" bytes").append("\n");
 
+         if (hasDictionary == true)
+            sb.append("Using dictionary ").append(Integer.toHexString((Integer) this.ctx.get("dictionary"))).append("\n");
+
          try
          {
             String w1 = EntropyCodecFactory.getName(this.entropyType);
@@ -400,9 +479,19 @@ public class CompressedInputStream extends InputStream
 
                Map<String, Object> map = new HashMap<>(this.ctx);
                map.put("jobs", jobsPerTask[jobId]);
+
+               // The transform sequence (and its buffers) of each job is reused for all blocks
+               if ((this.transforms[jobId] == null) || (this.transformJobs[jobId] != jobsPerTask[jobId]))
+               {
+                  this.transforms[jobId] = new ByteFunctionFactory().newFunction(new HashMap<>(map), this.transformType);
+                  this.altTransforms[jobId] = null; // created by the task if needed
+                  this.transformJobs[jobId] = jobsPerTask[jobId];
+               }
+
                Callable<Status> task = new DecodingTask(this.buffers[2*jobId],
                        this.buffers[2*jobId+1], blkSize, this.transformType,
-                       this.entropyType, firstBlockId+jobId+1,
+                       this.transforms[jobId], this.altTransforms, this.altTransformTypes,
+                       jobId, this.entropyType, firstBlockId+jobId+1,
                        this.ibs, this.hasher, this.blockId,
                        blockListeners, map);
                tasks.add(task);            
@@ -458,11 +547,18 @@ public class CompressedInputStream extends InputStream
                System.arraycopy(res.data, 0, this.sa.array, this.sa.index, res.decoded);
                this.sa.index += res.decoded;
 
+               // Combine the block checksum into the stream digest (in block order)
+               if ((this.streamHasher != null) && (res.decoded > 0))
+               {
+                  this.streamHasher.update(res.decoded);
+                  this.streamHasher.update(res.checksum);
+               }
+
                if (blockListeners.length > 0)
                {
                   // Notify after transform ... in block order !
                   Event evt = new Event(Event.Type.AFTER_TRANSFORM, res.blockId,
-                          res.decoded, res.checksum, this.hasher != null, res.completionTime);
+                          res.decoded, (int) res.checksum, this.hasher != null, res.completionTime);
 
                   notifyListeners(blockListeners, evt);
                }
@@ -519,6 +615,12 @@ public class CompressedInputStream extends InputStream
 
       for (int i=0; i<this.buffers.length; i++)
          this.buffers[i] = new SliceByteArray(EMPTY_BYTE_ARRAY, 0);
+
+      for (int i=0; i<this.transforms.length; i++)
+      {
+         this.transforms[i] = null;
+         this.altTransforms[i] = null;
+      }
    }
 
 
@@ -529,6 +631,15 @@ public class CompressedInputStream extends InputStream
    }
 
 
+   // Return the digest of the whole stream (XXHash64 of the sizes and checksums
+   // of the blocks decoded so far, in order), as computed by the encoder.
+   // Return 0 if the block checksums are disabled.
+   public long getStreamDigest()
+   {
+      return (this.streamHasher == null) ? 0 : this.streamHasher.digest();
+   }
+
+
    static void notifyListeners(Listener[] listeners, Event evt)
    {
       for (Listener bl : listeners)
@@ -554,18 +665,24 @@ public class CompressedInputStream extends InputStream
       private final SliceByteArray buffer;
       private final int blockSize;
       private final long transformType;
+      private final ByteTransformSequence transform;
+      private final ByteTransformSequence[] altTransforms; // shared, one slot per job
+      private final long[] altTransformTypes;
+      private final int jobId;
       private final int entropyType;
       private final int blockId;
       private final InputBitStream ibs;
-      private final XXHash32 hasher;
+      private final BlockChecksum hasher;
       private final AtomicInteger processedBlockId;
       private final Listener[] listeners;
       private final Map<String, Object> ctx;
 
 
       DecodingTask(SliceByteArray iBuffer, SliceByteArray oBuffer, int blockSize,
-              long transformType, int entropyType, int blockId,
-              InputBitStream ibs, XXHash32 hasher,
+              long transformType, ByteTransformSequence transform,
+              ByteTransformSequence[] altTransforms, long[] altTransformTypes,
+              int jobId, int entropyType, int blockId,
+              InputBitStream ibs, BlockChecksum hasher,
               AtomicInteger processedBlockId, Listener[] listeners,
               Map<String, Object> ctx)
       {
@@ -573,6 +690,10 @@ public class CompressedInputStream extends InputStream
          this.buffer = oBuffer;
          this.blockSize = blockSize;
          this.transformType = transformType;
+         this.transform = transform;
+         this.altTransforms = altTransforms;
+         this.altTransformTypes = altTransformTypes;
+         this.jobId = jobId;
          this.entropyType = entropyType;
          this.blockId = blockId;
          this.ibs = ibs;
@@ -600,6 +721,8 @@ public class CompressedInputStream extends InputStream
       //  case more than 4 transforms
       //      | 0b00000000
       //      then 0byyyyyyyy => transform sequence skip flags (1 means skip)
+      //  adaptive stream and not a copy block
+      //      then 48 bits => transform type, 5 bits => entropy type
       private Status decodeBlock(SliceByteArray data, SliceByteArray buffer,
          long blockTransformType, int blockEntropyType, int currentBlockId)
       {
@@ -631,7 +754,7 @@ public class CompressedInputStream extends InputStream
             return new Status(data, currentBlockId, 0, 0, 0, "Success");
          }
          
-         if (read > 1L<<34) 
+         if ((read > 1L<<34) || (((read & 7) != 0) && ((Boolean) this.ctx.getOrDefault("alignBlocks", false) == true)))
          {
             this.processedBlockId.set(CANCEL_TASKS_ID);
             return new Status(data, currentBlockId, 0, 0, Error.ERR_BLOCK_SIZE, "Invalid block size");
@@ -642,12 +765,25 @@ public class CompressedInputStream extends InputStream
          if (data.array.length < Math.max(this.blockSize, r))
             data.array = new byte[Math.max(this.blockSize, r)];
 
-         for (int n=0; read>0; )
-         {            
-            final int chkSize = (read < (long) (1<<30)) ? (int) read : 1<<30;
-            this.ibs.readBits(data.array, n, chkSize);
-            n += ((chkSize+7) >> 3);
-            read -= chkSize;
+         InputBitStream is = null;
+
+         if (this.ibs instanceof MappedInputBitStream)
+         {
+            // Decode the block from the mapping
+            MappedInputBitStream mibs = (MappedInputBitStream) this.ibs;
+            final long offset = mibs.read();
+            mibs.skip(read);
+            is = mibs.slice(offset, read);
+         }
+         else
+         {
+            for (int n=0; read>0; )
+            {
+               final int chkSize = (read < (long) (1<<30)) ? (int) read : 1<<30;
+               this.ibs.readBits(data.array, n, chkSize);
+               n += ((chkSize+7) >> 3);
+               read -= chkSize;
+            }
          }
 
          // After completion of the bitstream reading, increment the block id.
@@ -661,9 +797,10 @@ public class CompressedInputStream extends InputStream
          if ((this.blockId < from) || (this.blockId >= to))
             return new Status(data, currentBlockId, 0, 0, 0, "Success", true);
          
-         ByteArrayInputStream bais = new ByteArrayInputStream(data.array, 0, r);
-         DefaultInputBitStream is = new DefaultInputBitStream(bais, 16384);
-         int checksum1 = 0;
+         if (is == null)
+            is = new DefaultInputBitStream(new ByteArrayInputStream(data.array, 0, r), 16384);
+
+         long checksum1 = 0;
          EntropyDecoder ed = null;
 
          try
@@ -683,6 +820,13 @@ public class CompressedInputStream extends InputStream
                   skipFlags = (byte) is.readBits(8);
                else
                   skipFlags = (byte) ((mode<<4) | 0x0F);
+
+               if ((Boolean) this.ctx.getOrDefault("adaptive", false) == true)
+               {
+                  // Transform chain and entropy codec of the block
+                  blockTransformType = is.readBits(48);
+                  blockEntropyType = (int) is.readBits(5);
+               }
             }
             
             final int dataSize = 1 + ((mode>>5)&0x03);
@@ -707,13 +851,13 @@ public class CompressedInputStream extends InputStream
 
             // Extract checksum from bit stream (if any)
             if (this.hasher != null)
-               checksum1 = (int) is.readBits(32);
+               checksum1 = is.readBits(this.hasher.size());
 
             if (this.listeners.length > 0)
             {
                // Notify before entropy (block size in bitstream is unknown)
                Event evt = new Event(Event.Type.BEFORE_ENTROPY, currentBlockId,
-                       -1, checksum1, this.hasher != null);
+                       -1, (int) checksum1, this.hasher != null);
 
                notifyListeners(this.listeners, evt);
             }
@@ -749,7 +893,7 @@ public class CompressedInputStream extends InputStream
             {
                // Notify after entropy (block size set to size in bitstream)
                Event evt = new Event(Event.Type.AFTER_ENTROPY, currentBlockId,
-                       (int) (is.read()>>3), checksum1, this.hasher != null);
+                       (int) (is.read()>>3), (int) checksum1, this.hasher != null);
 
                notifyListeners(this.listeners, evt);
             }
@@ -758,13 +902,35 @@ public class CompressedInputStream extends InputStream
             {
                // Notify before transform (block size after entropy decoding)
                Event evt = new Event(Event.Type.BEFORE_TRANSFORM, currentBlockId,
-                       preTransformLength, checksum1, this.hasher != null);
+                       preTransformLength, (int) checksum1, this.hasher != null);
 
                notifyListeners(this.listeners, evt);
             }
 
-            ByteTransformSequence transform = new ByteFunctionFactory().newFunction(this.ctx,
-                     blockTransformType);
+            ByteTransformSequence transform;
+
+            if (blockTransformType == this.transformType)
+            {
+               transform = this.transform;
+            }
+            else if (blockTransformType == ByteFunctionFactory.NONE_TYPE)
+            {
+               // Copy block
+               transform = new ByteFunctionFactory().newFunction(this.ctx, blockTransformType);
+            }
+            else
+            {
+               // Adaptive stream: the other chain (EG. ROLZ) of the job is also
+               // reused as long as the blocks use the same one
+               if ((this.altTransforms[this.jobId] == null) || (this.altTransformTypes[this.jobId] != blockTransformType))
+               {
+                  this.altTransforms[this.jobId] = new ByteFunctionFactory().newFunction(new HashMap<>(this.ctx), blockTransformType);
+                  this.altTransformTypes[this.jobId] = blockTransformType;
+               }
+
+               transform = this.altTransforms[this.jobId];
+            }
+
             transform.setSkipFlags(skipFlags);
             buffer.index = 0;
 
@@ -780,12 +946,12 @@ public class CompressedInputStream extends InputStream
             // Verify checksum
             if (this.hasher != null)
             {
-               final int checksum2 = this.hasher.hash(data.array, savedIdx, decoded);
+               final long checksum2 = this.hasher.hash(data.array, savedIdx, decoded);
 
                if (checksum2 != checksum1)
                   return new Status(data, currentBlockId, decoded, checksum1, Error.ERR_CRC_CHECK,
-                          "Corrupted bitstream: expected checksum " + Integer.toHexString(checksum1) +
-                          ", found " + Integer.toHexString(checksum2));
+                          "Corrupted bitstream: expected checksum " + Long.toHexString(checksum1) +
+                          ", found " + Long.toHexString(checksum2));
             }
 
             return new Status(data, currentBlockId, decoded, checksum1, 0, null);
@@ -817,15 +983,15 @@ public class CompressedInputStream extends InputStream
       final boolean skipped;
       final int error; // 0 = OK
       final String msg;
-      final int checksum;
+      final long checksum;
       final long completionTime;
 
-      Status(SliceByteArray data, int blockId, int decoded, int checksum, int error, String msg)
+      Status(SliceByteArray data, int blockId, int decoded, long checksum, int error, String msg)
       {
          this(data, blockId, decoded, checksum, error, msg, false);
       }
       
-      Status(SliceByteArray data, int blockId, int decoded, int checksum, int error, String msg, boolean skipped)
+      Status(SliceByteArray data, int blockId, int decoded, long checksum, int error, String msg, boolean skipped)
       {
          this.data = data.array;
          this.blockId = blockId;
@@ -22,6 +22,7 @@ import kanzi.Event;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,12 +34,15 @@ import java.util.concurrent.atomic.AtomicInteger;
 import kanzi.BitStreamException;
 import kanzi.EntropyEncoder;
 import kanzi.Global;
+import kanzi.Memory;
 import kanzi.SliceByteArray;
 import kanzi.OutputBitStream;
 import kanzi.bitstream.DefaultOutputBitStream;
+import kanzi.bitstream.WriteBehindOutputBitStream;
 import kanzi.entropy.EntropyCodecFactory;
 import kanzi.function.ByteTransformSequence;
-import kanzi.util.hash.XXHash32;
+import kanzi.function.CustomDictionary;
+import kanzi.util.hash.XXHash64;
 import kanzi.Listener;
 import kanzi.entropy.EntropyUtils;
 
@@ -51,7 +55,7 @@ import kanzi.entropy.EntropyUtils;
 public class CompressedOutputStream extends OutputStream
 {
    private static final int BITSTREAM_TYPE           = 0x4B414E5A; // "KANZ"
-   private static final int BITSTREAM_FORMAT_VERSION = 10;
+   private static final int BITSTREAM_FORMAT_VERSION = 11;
    private static final int COPY_BLOCK_MASK          = 0x80;
    private static final int TRANSFORMS_MASK          = 0x10;
    private static final int MIN_BITSTREAM_BLOCK_SIZE = 1024;
@@ -61,14 +65,29 @@ public class CompressedOutputStream extends OutputStream
    private static final byte[] EMPTY_BYTE_ARRAY      = new byte[0];
    private static final int MAX_CONCURRENCY          = 64;
    private static final int CANCEL_TASKS_ID          = -1;
+   private static final int SAMPLE_CHUNKS            = 16;
+   private static final int SAMPLE_CHUNK_SIZE        = 4096;
+   private static final int MIN_REPEAT_LENGTH        = 32;
+   private static final int MAX_REPEAT_LENGTH        = 256;
+   private static final int RANDOM_THRESHOLD         = 973; // 7.6 bits per byte
+   private static final int REPEAT_THRESHOLD         = 768; // 75% of the sample
+   private static final int CONTEXT_THRESHOLD        = 448; // 3.5 bits per byte
 
    private final int blockSize;
    private final int nbInputBlocks;
-   private final XXHash32 hasher;
+   private final Integer dictionary; // id of the custom dictionary (or null)
+   private final BlockChecksum hasher;
+   private final XXHash64 streamHasher; // combines the block checksums (or null)
    private final SliceByteArray sa; // for all blocks
    private final SliceByteArray[] buffers; // input & output per block
+   private final ByteTransformSequence[] transforms; // reused per job
+   private final ByteTransformSequence[] altTransforms; // ROLZ chain per job (adaptive streams)
+   private final int[][] estimates; // preferROLZ tables, 2 per job (adaptive streams)
+   private final int[] transformJobs; // number of jobs of each transform sequence
    private final int entropyType;
    private final long transformType;
+   private final long altTransformType; // ROLZ chain of adaptive streams (or NONE)
+   private final boolean alignBlocks; // block frames padded to byte alignment
    private final OutputBitStream obs;
    private final AtomicBoolean initialized;
    private final AtomicBoolean closed;
@@ -121,10 +140,29 @@ public class CompressedOutputStream extends OutputStream
       if ((tasks > 1) && (threadPool == null))
          throw new IllegalArgumentException("The thread pool cannot be null when the number of jobs is "+tasks);
 
-      this.obs = new DefaultOutputBitStream(os, DEFAULT_BUFFER_SIZE);
+      // Optional writes to the output stream on a background thread
+      final int writeBehind = (Integer) ctx.getOrDefault("writeBehind", 0);
+      this.obs = (writeBehind > 0) ? new WriteBehindOutputBitStream(os, DEFAULT_BUFFER_SIZE, writeBehind) :
+         new DefaultOutputBitStream(os, DEFAULT_BUFFER_SIZE);
       this.entropyType = EntropyCodecFactory.getType(entropyCodec);
       this.transformType = new ByteFunctionFactory().getType(transform);
       this.blockSize = bSize;
+
+      // The transform chain can be selected per block (BWT or ROLZ)
+      if ((Boolean) ctx.getOrDefault("adaptive", false) == true)
+      {
+         this.altTransformType = new ByteFunctionFactory().getROLZAlternative(this.transformType);
+
+         if (this.altTransformType == ByteFunctionFactory.NONE_TYPE)
+            throw new IllegalArgumentException("Adaptive transform selection requires a BWT or BWTS transform");
+      }
+      else
+      {
+         this.altTransformType = ByteFunctionFactory.NONE_TYPE;
+      }
+
+      // Byte aligned block frames let the encoded blocks be written as is
+      this.alignBlocks = (Boolean) ctx.getOrDefault("alignBlocks", false);
       
       // If input size has been provided, calculate the number of blocks
       // in the input data else use 0. A value of 63 means '63 or more blocks'.
@@ -135,12 +173,26 @@ public class CompressedOutputStream extends OutputStream
       int nbBlocks = (int) (fileSize+(bSize-1)) / bSize;
       this.nbInputBlocks = (nbBlocks > 63) ? 63 : nbBlocks;
       
+      // Optional custom dictionary, recorded in the header by its id
+      this.dictionary = (Integer) ctx.get("dictionary");
+
+      if ((this.dictionary != null) && (CustomDictionary.isRegistered(this.dictionary) == false))
+         throw new IllegalArgumentException("Unknown dictionary: "+Integer.toHexString(this.dictionary));
+
+      // Block checksum: XXHASH32 (default), XXHASH64 or CRC32C
       boolean checksum = (Boolean) ctx.get("checksum");
-      this.hasher = (checksum == true) ? new XXHash32(BITSTREAM_TYPE) : null;
+      final int checksumType = (checksum == false) ? BlockChecksum.NONE_TYPE :
+         BlockChecksum.getType((String) ctx.getOrDefault("checksumType", "XXHASH32"));
+      this.hasher = (checksumType != BlockChecksum.NONE_TYPE) ? new BlockChecksum(checksumType, BITSTREAM_TYPE) : null;
+      this.streamHasher = (this.hasher != null) ? new XXHash64(BITSTREAM_TYPE) : null;
       this.jobs = tasks;
       this.pool = threadPool;
       this.sa = new SliceByteArray(new byte[0], 0); 
       this.buffers = new SliceByteArray[2*this.jobs];
+      this.transforms = new ByteTransformSequence[this.jobs];
+      this.altTransforms = new ByteTransformSequence[this.jobs];
+      this.estimates = new int[2*this.jobs][];
+      this.transformJobs = new int[this.jobs];
       this.closed = new AtomicBoolean(false);
       this.initialized = new AtomicBoolean(false);
 
@@ -176,8 +228,30 @@ public class CompressedOutputStream extends OutputStream
       if (this.obs.writeBits(this.nbInputBlocks, 6) != 6)
          throw new kanzi.io.IOException("Cannot write number of blocks to header", Error.ERR_WRITE_FILE);
 
-      if (this.obs.writeBits(0L, 3) != 3)
-         throw new kanzi.io.IOException("Cannot write reserved bits to header", Error.ERR_WRITE_FILE);
+      if (this.obs.writeBits((this.dictionary != null) ? 1 : 0, 1) != 1)
+         throw new kanzi.io.IOException("Cannot write dictionary flag to header", Error.ERR_WRITE_FILE);
+
+      if (this.obs.writeBits((this.altTransformType != ByteFunctionFactory.NONE_TYPE) ? 1 : 0, 1) != 1)
+         throw new kanzi.io.IOException("Cannot write adaptive transform flag to header", Error.ERR_WRITE_FILE);
+
+      if (this.obs.writeBits((this.alignBlocks == true) ? 1 : 0, 1) != 1)
+         throw new kanzi.io.IOException("Cannot write block alignment flag to header", Error.ERR_WRITE_FILE);
+
+      if (this.hasher != null)
+      {
+         // Checksum type (4 bits) and reserved bits (4 bits)
+         if (this.obs.writeBits(this.hasher.getType(), 4) != 4)
+            throw new kanzi.io.IOException("Cannot write checksum type to header", Error.ERR_WRITE_FILE);
+
+         if (this.obs.writeBits(0L, 4) != 4)
+            throw new kanzi.io.IOException("Cannot write reserved bits to header", Error.ERR_WRITE_FILE);
+      }
+
+      if (this.dictionary != null)
+      {
+         if (this.obs.writeBits(this.dictionary, 32) != 32)
+            throw new kanzi.io.IOException("Cannot write dictionary id to header", Error.ERR_WRITE_FILE);
+      }
    }
 
 
@@ -367,6 +441,14 @@ public class CompressedOutputStream extends OutputStream
 
       for (int i=0; i<this.buffers.length; i++)
          this.buffers[i] = new SliceByteArray(EMPTY_BYTE_ARRAY, 0);
+
+      for (int i=0; i<this.transforms.length; i++)
+      {
+         this.transforms[i] = null;
+         this.altTransforms[i] = null;
+         this.estimates[2*i] = null;
+         this.estimates[2*i+1] = null;
+      }
    }
 
    
@@ -401,9 +483,15 @@ public class CompressedOutputStream extends OutputStream
          this.sa.index = 0;
          List<Callable<Status>> tasks = new ArrayList<>(this.jobs);
          int firstBlockId = this.blockId.get();
+         final int nbJobs = Math.min(this.jobs, (dataLength+this.blockSize-1)/this.blockSize);
+
+         // Assign optimal number of jobs per task (used by concurrent transforms)
+         final int[] jobsPerTask = (nbJobs > 1) ?
+            Global.computeJobsPerTask(new int[nbJobs], this.jobs, nbJobs) :
+            new int[] { this.jobs };
 
          // Create as many tasks as required
-         for (int jobId=0; jobId<this.jobs; jobId++)
+         for (int jobId=0; jobId<nbJobs; jobId++)
          {
             final int sz = (this.sa.index + this.blockSize > dataLength) ?
                     dataLength - this.sa.index : this.blockSize;
@@ -425,12 +513,24 @@ public class CompressedOutputStream extends OutputStream
             }
             
             System.arraycopy(this.sa.array, this.sa.index, this.buffers[2*jobId].array, 0, sz);
-            
+
+            Map<String, Object> map = new HashMap<>(this.ctx);
+            map.put("jobs", jobsPerTask[jobId]);
+
+            // The transform sequence (and its buffers) of each job is reused for all blocks
+            if ((this.transforms[jobId] == null) || (this.transformJobs[jobId] != jobsPerTask[jobId]))
+            {
+               this.transforms[jobId] = new ByteFunctionFactory().newFunction(new HashMap<>(map), this.transformType);
+               this.altTransforms[jobId] = null; // created by the task if needed
+               this.transformJobs[jobId] = jobsPerTask[jobId];
+            }
+
             Callable<Status> task = new EncodingTask(this.buffers[2*jobId],
                     this.buffers[2*jobId+1], sz, this.transformType,
-                    this.entropyType, firstBlockId+jobId+1,
-                    this.obs, this.hasher, this.blockId,
-                    blockListeners, new HashMap<>(this.ctx));
+                    this.transforms[jobId], this.altTransformType,
+                    this.altTransforms, this.estimates, jobId, this.entropyType, firstBlockId+jobId+1,
+                    this.obs, this.hasher, this.streamHasher, this.blockId,
+                    blockListeners, map);
             tasks.add(task);
             this.sa.index += sz;
          }
@@ -477,7 +577,138 @@ public class CompressedOutputStream extends OutputStream
       return (this.obs.written() + 7) >> 3;
    }
 
+
+   // Return the digest of the whole stream (XXHash64 of the sizes and checksums
+   // of the blocks written so far, in order). No extra pass over the data.
+   // Return 0 if the block checksums are disabled.
+   public long getStreamDigest()
+   {
+      return (this.streamHasher == null) ? 0 : this.streamHasher.digest();
+   }
+
    
+   // Cheap estimation of the best transform chain for a block. The order 0 and
+   // order 1 entropies and the density of long repeats are measured on a sample
+   // of the block (up to 16 chunks of 4 KB). The repeats of a chunk are looked
+   // up anywhere in the block: one pass hashes 16 bytes every 8 positions of
+   // the whole block. ROLZ is preferred for almost random data (BWT does not
+   // help and is slower) and for data made of long repeats that order 1
+   // contexts do not predict well. BWT is preferred otherwise.
+   // 'anchors' and 'freqs1' (65536 ints each) are reused by the caller, they
+   // are cleared here.
+   static boolean preferROLZ(byte[] block, int start, int count, int[] anchors, int[] freqs1)
+   {
+      final int chunks = (count <= SAMPLE_CHUNKS*SAMPLE_CHUNK_SIZE) ? 1 : SAMPLE_CHUNKS;
+      final int chunkSize = (chunks == 1) ? count : SAMPLE_CHUNK_SIZE;
+      final int end = start + count;
+      final int[] freqs0 = new int[256];
+      Arrays.fill(anchors, 0);
+      Arrays.fill(freqs1, 0);
+
+      // Anchors: hash of 16 bytes every 8 positions
+
+      for (int i=start; i+16<=end; i+=8)
+         anchors[hash16(block, i)] = i + 1; // 0 means empty
+
+      int sampled = 0;
+      int repeated = 0;
+
+      for (int c=0; c<chunks; c++)
+      {
+         final int chunkStart = start + (int) ((long) c * (count-chunkSize) / chunks);
+         final int chunkEnd = chunkStart + chunkSize;
+         int prv = 0;
+
+         for (int i=chunkStart; i<chunkEnd; i++)
+         {
+            final int cur = block[i] & 0xFF;
+            freqs0[cur]++;
+            freqs1[(prv<<8)|cur]++;
+            prv = cur;
+         }
+
+         sampled += chunkSize;
+
+         // Bytes of the chunk covered by long repeats (anywhere in the block)
+         for (int i=chunkStart; i+16<=chunkEnd; )
+         {
+            final int ref = anchors[hash16(block, i)] - 1;
+            int len = 0;
+
+            if ((ref >= 0) && (Math.abs(ref-i) >= 2*MIN_REPEAT_LENGTH))
+            {
+               final int maxLen = Math.min(MAX_REPEAT_LENGTH, end-Math.max(ref, i));
+
+               while ((len < maxLen) && (block[ref+len] == block[i+len]))
+                  len++;
+            }
+
+            if (len >= MIN_REPEAT_LENGTH)
+            {
+               repeated += Math.min(len, chunkEnd-i);
+               i += len;
+            }
+            else
+               i++;
+         }
+      }
+
+      if (sampled == 0)
+         return false;
+
+      // Entropies in 1/1024 of byte per byte
+      final int logSampled = Global.log2_1024(sampled);
+      long sum0 = 0;
+      long sum1 = 0;
+
+      for (int i=0; i<256; i++)
+      {
+         if (freqs0[i] == 0)
+            continue;
+
+         sum0 += (((long) freqs0[i] * (logSampled - Global.log2_1024(freqs0[i]))) >> 3);
+      }
+
+      for (int i=0; i<256; i++)
+      {
+         int total = 0;
+
+         for (int j=0; j<256; j++)
+            total += freqs1[(i<<8)|j];
+
+         if (total == 0)
+            continue;
+
+         final int logTotal = Global.log2_1024(total);
+
+         for (int j=0; j<256; j++)
+         {
+            final int f = freqs1[(i<<8)|j];
+
+            if (f != 0)
+               sum1 += (((long) f * (logTotal - Global.log2_1024(f))) >> 3);
+         }
+      }
+
+      final int entropy0 = (int) (sum0 / sampled);
+      final int entropy1 = (int) (sum1 / sampled);
+      final int repeats = (int) (((long) repeated << 10) / sampled);
+
+      if (entropy0 >= RANDOM_THRESHOLD)
+         return true;
+
+      return (repeats >= REPEAT_THRESHOLD) && (entropy1 >= CONTEXT_THRESHOLD);
+   }
+
+
+   private static int hash16(byte[] block, int idx)
+   {
+      final long h = Memory.LittleEndian.readLong64(block, idx) ^
+         (Memory.LittleEndian.readLong64(block, idx+8) * 31);
+      return (int) ((h * 0x9E3779B97F4A7C15L) >>> 48);
+   }
+
+
    static void notifyListeners(Listener[] listeners, Event evt)
    {
       for (Listener bl : listeners)
@@ -503,18 +734,26 @@ public class CompressedOutputStream extends OutputStream
       private final SliceByteArray buffer;
       private final int length;
       private final long transformType;
+      private final ByteTransformSequence transform;
+      private final long altTransformType;
+      private final ByteTransformSequence[] altTransforms; // shared, one slot per job
+      private final int[][] estimates; // shared, two slots per job
+      private final int jobId;
       private final int entropyType;
       private final int blockId;
       private final OutputBitStream obs;
-      private final XXHash32 hasher;
+      private final BlockChecksum hasher;
+      private final XXHash64 streamHasher;
       private final AtomicInteger processedBlockId;
       private final Listener[] listeners;
       private final Map<String, Object> ctx;
 
 
       EncodingTask(SliceByteArray iBuffer, SliceByteArray oBuffer, int length,
-              long transformType, int entropyType, int blockId,
-              OutputBitStream obs, XXHash32 hasher,
+              long transformType, ByteTransformSequence transform,
+              long altTransformType, ByteTransformSequence[] altTransforms,
+              int[][] estimates, int jobId, int entropyType, int blockId, OutputBitStream obs,
+              BlockChecksum hasher, XXHash64 streamHasher,
               AtomicInteger processedBlockId, Listener[] listeners,
               Map<String, Object> ctx)
       {
@@ -522,10 +761,16 @@ public class CompressedOutputStream extends OutputStream
          this.buffer = oBuffer;
          this.length = length;
          this.transformType = transformType;
+         this.transform = transform;
+         this.altTransformType = altTransformType;
+         this.altTransforms = altTransforms;
+         this.estimates = estimates;
+         this.jobId = jobId;
          this.entropyType = entropyType;
          this.blockId = blockId;
          this.obs = obs;
          this.hasher = hasher;
+         this.streamHasher = streamHasher;
          this.processedBlockId = processedBlockId;
          this.listeners = listeners;
          this.ctx = ctx;
@@ -549,6 +794,8 @@ public class CompressedOutputStream extends OutputStream
       //  case more than 4 transforms
       //      | 0b00000000
       //      then 0byyyyyyyy => transform sequence skip flags (1 means skip)
+      //  adaptive stream and not a copy block
+      //      then 48 bits => transform type, 5 bits => entropy type
       private Status encodeBlock(SliceByteArray data, SliceByteArray buffer,
            int blockLength, long blockTransformType,
            int blockEntropyType, int currentBlockId)
@@ -565,7 +812,7 @@ public class CompressedOutputStream extends OutputStream
 
             byte mode = 0;
             int postTransformLength;
-            int checksum = 0;
+            long checksum = 0;
 
             // Compute block checksum
             if (this.hasher != null)
@@ -575,7 +822,7 @@ public class CompressedOutputStream extends OutputStream
             {
                // Notify before transform               
                Event evt = new Event(Event.Type.BEFORE_TRANSFORM, currentBlockId,
-                       blockLength, checksum, this.hasher != null);
+                       blockLength, (int) checksum, this.hasher != null);
                
                notifyListeners(this.listeners, evt);
             }
@@ -603,10 +850,47 @@ public class CompressedOutputStream extends OutputStream
                      mode |= COPY_BLOCK_MASK;
                   }
                }
+
+               // Adaptive stream: select the BWT or ROLZ chain for this block
+               if ((this.altTransformType != ByteFunctionFactory.NONE_TYPE) && ((mode & COPY_BLOCK_MASK) == 0))
+               {
+                  // The tables of the estimation are reused for all blocks of the job
+                  if (this.estimates[2*this.jobId] == null)
+                  {
+                     this.estimates[2*this.jobId] = new int[1<<16];
+                     this.estimates[2*this.jobId+1] = new int[65536];
+                  }
+
+                  if (preferROLZ(data.array, data.index, blockLength,
+                     this.estimates[2*this.jobId], this.estimates[2*this.jobId+1]) == true)
+                  {
+                     blockTransformType = this.altTransformType;
+                     blockEntropyType = EntropyCodecFactory.NONE_TYPE;
+                  }
+               }
             }
 
             this.ctx.put("size", blockLength);
-            ByteTransformSequence transform = new ByteFunctionFactory().newFunction(this.ctx, blockTransformType);               
+            ByteTransformSequence transform;
+
+            if (blockTransformType == this.transformType)
+            {
+               transform = this.transform;
+            }
+            else if (blockTransformType == ByteFunctionFactory.NONE_TYPE)
+            {
+               // Copy block
+               transform = new ByteFunctionFactory().newFunction(this.ctx, blockTransformType);
+            }
+            else
+            {
+               // Adaptive stream: the ROLZ chain of the job is also reused for all blocks
+               if (this.altTransforms[this.jobId] == null)
+                  this.altTransforms[this.jobId] = new ByteFunctionFactory().newFunction(new HashMap<>(this.ctx), blockTransformType);
+
+               transform = this.altTransforms[this.jobId];
+            }
+
             int requiredSize = transform.getMaxEncodedLength(blockLength);
 
             if (buffer.length < requiredSize)
@@ -645,7 +929,7 @@ public class CompressedOutputStream extends OutputStream
             {
                // Notify after transform
                Event evt = new Event(Event.Type.AFTER_TRANSFORM, currentBlockId,
-                       postTransformLength, checksum, this.hasher != null);
+                       postTransformLength, (int) checksum, this.hasher != null);
                
                notifyListeners(this.listeners, evt);
             }           
@@ -666,17 +950,24 @@ public class CompressedOutputStream extends OutputStream
                os.writeBits(transform.getSkipFlags()&0xFF, 8);
             }
 
+            if ((this.altTransformType != ByteFunctionFactory.NONE_TYPE) && ((mode & COPY_BLOCK_MASK) == 0))
+            {
+               // Record the transform chain and entropy codec of the block
+               os.writeBits(blockTransformType, 48);
+               os.writeBits(blockEntropyType, 5);
+            }
+
             os.writeBits(postTransformLength, 8*dataSize);
 
             // Write checksum
             if (this.hasher != null)
-               os.writeBits(checksum, 32);
+               os.writeBits(checksum, this.hasher.size());
 
             if (this.listeners.length > 0)
             {
                // Notify before entropy
                Event evt = new Event(Event.Type.BEFORE_ENTROPY, currentBlockId,
-                       postTransformLength, checksum, this.hasher != null);
+                       postTransformLength, (int) checksum, this.hasher != null);
                
                notifyListeners(this.listeners, evt);
             }
@@ -700,6 +991,12 @@ public class CompressedOutputStream extends OutputStream
 
             os.close();
             long written = os.written();
+
+            // Pad the block to a byte boundary (the padding bits are already
+            // zeroed in the block buffer). The frames of the shared bitstream
+            // stay byte aligned and the block is written without shifting.
+            if ((Boolean) this.ctx.getOrDefault("alignBlocks", false) == true)
+               written = (written + 7) & -8L;
             
             // Lock free synchronization
             while (true)
@@ -723,13 +1020,22 @@ public class CompressedOutputStream extends OutputStream
             {
                // Notify after entropy
                Event evt = new Event(Event.Type.AFTER_ENTROPY, 
-                       currentBlockId, (written+7) >> 3, checksum, this.hasher != null);
+                       currentBlockId, (written+7) >> 3, (int) checksum, this.hasher != null);
                
                notifyListeners(this.listeners, evt);
             }
             
+            // Combine the block checksum into the stream digest (in block order)
+            if (this.streamHasher != null)
+            {
+               this.streamHasher.update(blockLength);
+               this.streamHasher.update(checksum);
+            }
+
             // Emit block size in bits (max size pre-entropy is 1 GB = 1 << 30 bytes)
-            final int lw = (blockLength >= 1<<28) ? 40 : 32;
+            // The width depends on the stream block size (as for the decoder),
+            // not on the size of this block (the last one may be smaller).
+            final int lw = ((Integer) this.ctx.get("blockSize") >= 1<<28) ? 40 : 32;
             this.obs.writeBits(written, lw);
             int chkSize = (int) Math.min(written, 1<<30);           
 
@@ -15,6 +15,9 @@ limitations under the License.
 
 package kanzi.transform;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -62,13 +65,31 @@ import kanzi.SliceByteArray;
 // This implementation extends the canonical algorithm to use up to MAX_CHUNKS primary
 // indexes (based on input block size). Each primary index corresponds to a data chunk.
 // Chunks may be inverted concurrently.
+// With the 'bwtChunks' context entry, up to MAX_EXT_CHUNKS chunks (of at least
+// 1 MB) can be used, so that the inverse of big blocks scales with more jobs.
+//
+// The suffix array is computed by DivSufSort by default. SA_IS can be selected
+// instead with the 'suffixSorter' context entry ("SAIS"), also used by BWTS.
+// The output does not depend on the suffix sorter.
+//
+// With the 'offHeap' context entry, the LF table of the inverse of big blocks
+// (4 bytes per symbol) is stored in direct buffers reused across blocks, so
+// that decoding huge blocks does not require a huge Java heap. Only the
+// inverse is concerned: the forward transform keeps the suffix array on the
+// heap (the suffix sorters work on int[]). The direct buffers are freed by
+// the garbage collector once the transform is dropped (when the stream is
+// closed): Java 7 has no public API to free them explicitly.
 
 public class BWT implements ByteTransform
 {
    private static final int MAX_BLOCK_SIZE = 1024*1024*1024; // 1 GB
    private static final int MAX_CHUNKS = 8;
+   public static final int MAX_EXT_CHUNKS = 256;
    private static final int NB_FASTBITS = 17;
    private static final int MASK_FASTBITS = 1 << NB_FASTBITS;
+   private static final int MIN_PARALLEL_BLOCK_SIZE = 1 << 20;
+   private static final int LOG_SEGMENT_SIZE = 28; // ints per off heap segment
+   private static final int MASK_SEGMENT = (1 << LOG_SEGMENT_SIZE) - 1;
 
    
    private int[] buffer1;  
@@ -76,9 +97,14 @@ public class BWT implements ByteTransform
    private int[] buckets;
    private int[] freqs;
    private final int[] primaryIndexes;
-   private DivSufSort saAlgo;
+   private SuffixSorter saAlgo;
    private final ExecutorService pool;
    private final int jobs;
+   private final boolean useSAIS;
+   private final int maxChunks;
+   private int chunks; // number of chunks of the next inverse (0 means default)
+   private final boolean offHeap;
+   private IntBuffer[] segments; // off heap LF table (inverse only)
 
 
    // Static allocation of memory
@@ -88,9 +114,13 @@ public class BWT implements ByteTransform
       this.buffer2 = new short[0]; 
       this.buckets = new int[256];
       this.freqs = new int[256];
-      this.primaryIndexes = new int[8];
+      this.primaryIndexes = new int[MAX_EXT_CHUNKS];
       this.pool = null;
       this.jobs = 1;
+      this.useSAIS = false;
+      this.maxChunks = MAX_CHUNKS;
+      this.offHeap = false;
+      this.segments = new IntBuffer[0];
    }
 
 
@@ -111,9 +141,37 @@ public class BWT implements ByteTransform
       this.buffer2 = new short[0];
       this.buckets = new int[256];
       this.freqs = new int[256];
-      this.primaryIndexes = new int[8];
+      final int bwtChunks = (Integer) ctx.getOrDefault("bwtChunks", MAX_CHUNKS);
+
+      if ((bwtChunks < 1) || (bwtChunks > MAX_EXT_CHUNKS))
+         throw new IllegalArgumentException("The number of BWT chunks must be in [1.."+MAX_EXT_CHUNKS+"], got "+bwtChunks);
+
+      this.primaryIndexes = new int[MAX_EXT_CHUNKS];
       this.pool = (tasks == 1) ? null : threadPool;
       this.jobs = tasks;
+      this.useSAIS = isSAISSelected(ctx);
+      this.maxChunks = bwtChunks;
+      this.offHeap = (Boolean) ctx.getOrDefault("offHeap", false);
+      this.segments = new IntBuffer[0];
+   }
+
+
+   // Return true if the context selects SA_IS as suffix sorter
+   static boolean isSAISSelected(Map<String, Object> ctx)
+   {
+      final String sorter = (String) ctx.getOrDefault("suffixSorter", "DIVSUFSORT");
+
+      switch (sorter.toUpperCase())
+      {
+         case "DIVSUFSORT":
+            return false;
+
+         case "SAIS":
+            return true;
+
+         default:
+            throw new IllegalArgumentException("Unknown suffix sorter: "+sorter);
+      }
    }
 
 
@@ -123,6 +181,25 @@ public class BWT implements ByteTransform
    }
 
 
+   // Number of chunks (and primary indexes) of the forward transform of a block
+   public int getChunks(int size)
+   {
+      return getBWTChunks(size, this.maxChunks);
+   }
+
+
+   // Set the number of chunks of the next block to invert (0 means the
+   // default number for the block size, see getBWTChunks). Not thread safe
+   public boolean setChunks(int chunks)
+   {
+      if ((chunks < 0) || (chunks > MAX_EXT_CHUNKS))
+         return false;
+
+      this.chunks = chunks;
+      return true;
+   }
+
+
    // Not thread safe
    public boolean setPrimaryIndex(int n, int primaryIndex)
    {
@@ -161,6 +238,9 @@ public class BWT implements ByteTransform
 
       if (count < 2)
       {
+         // No primary index: do not leave the one of the previous block
+         this.primaryIndexes[0] = 0;
+
          if (count == 1)
             output[dst.index++] = input[src.index++];
 
@@ -169,7 +249,10 @@ public class BWT implements ByteTransform
 
       // Lazy dynamic memory allocation
       if (this.saAlgo == null)
-         this.saAlgo = new DivSufSort();
+      {
+         this.saAlgo = (this.useSAIS == true) ? new SA_IS(this.pool, this.jobs) :
+            new DivSufSort(this.pool, this.jobs);
+      }
 
       if (this.buffer1.length < count)
          this.buffer1 = new int[count];
@@ -178,55 +261,88 @@ public class BWT implements ByteTransform
       this.saAlgo.computeSuffixArray(input, sa, srcIdx, count);
 
       final int srcIdx2 = srcIdx - 1;
-      final int dstIdx2 = dstIdx + 1;
-      int chunks = getBWTChunks(count);
+      final int chunks = this.getChunks(count);
       boolean res = true;
 
+      output[dstIdx] = input[srcIdx2+count];
+
       if (chunks == 1)
       {
-         output[dstIdx] = input[srcIdx2+count];
          int n = 0;
 
-         for (; n<count; n++)
-         {
-            if (sa[n] == 0)
-               break;
-
-            output[dstIdx2+n] = input[srcIdx2+sa[n]];
-         }
-
-         n++;
-         res &= this.setPrimaryIndex(0, n);
+         while ((n < count) && (sa[n] != 0))
+            n++;
 
-         for (; n<count; n++)
-            output[dstIdx+n] = input[srcIdx2+sa[n]];
+         res &= this.setPrimaryIndex(0, n+1);
       }
       else
       {
          final int st = count / chunks;
          final int step = (chunks*st == count) ? st : st+1;
-         output[dstIdx] = input[srcIdx2+count];
          int idx = 0;
-       
+
          for (int i=0; i<count; i++)
          {
             if ((sa[i]%step) != 0)
                continue;
-            
+
             res &= this.setPrimaryIndex(sa[i]/step, i+1);
             idx++;
 
             if (idx == chunks)
                break;
          }
+      }
 
-         final int pIdx0 = this.getPrimaryIndex(0);
-         
-         for (int i=0; i<pIdx0-1; i++)
-            output[dstIdx2+i] = input[srcIdx2+sa[i]];
+      final int pIdx0 = this.getPrimaryIndex(0);
 
-         for (int i=pIdx0; i<count; i++)
-            output[dstIdx+i] = input[srcIdx2+sa[i]];
+      if ((this.jobs == 1) || (count < MIN_PARALLEL_BLOCK_SIZE))
+      {
+         gather(input, output, sa, srcIdx2, dstIdx, pIdx0, 0, count);
+      }
+      else
+      {
+         // Concurrent gathering of the BWT symbols from the suffix array
+         final int step = (count+this.jobs-1) / this.jobs;
+         List<Callable<Integer>> tasks = new ArrayList<>(this.jobs);
+
+         for (int j=0; j<this.jobs; j++)
+         {
+            final int start = j * step;
+            final int end = (start+step < count) ? start+step : count;
+
+            tasks.add(new Callable<Integer>()
+            {
+               @Override
+               public Integer call() throws Exception
+               {
+                  gather(input, output, sa, srcIdx2, dstIdx, pIdx0, start, end);
+                  return 0;
+               }
+            });
+         }
+
+         try
+         {
+            List<Future<Integer>> results = new ArrayList<>(this.jobs-1);
+
+            for (int j=1; j<this.jobs; j++)
+               results.add(this.pool.submit(tasks.get(j)));
+
+            try
+            {
+               tasks.get(0).call();
+            }
+            finally
+            {
+               for (Future<Integer> result : results)
+                  result.get();
+            }
+         }
+         catch (Exception e)
+         {
+            return false;
+         }
       }
 
       src.index += count;
@@ -235,6 +351,22 @@ public class BWT implements ByteTransform
    }
 
 
+   // Write the BWT symbols for the suffix array positions in [start, end)
+   // The primary index position holds no symbol (it is emitted first).
+   private static void gather(byte[] input, byte[] output, int[] sa, int srcIdx2,
+      int dstIdx, int pIdx, int start, int end)
+   {
+      final int dstIdx2 = dstIdx + 1;
+      final int mid = (pIdx-1 < start) ? start : ((pIdx-1 > end) ? end : pIdx-1);
+
+      for (int i=start; i<mid; i++)
+         output[dstIdx2+i] = input[srcIdx2+sa[i]];
+
+      for (int i=(mid>pIdx) ? mid : pIdx; i<end; i++)
+         output[dstIdx+i] = input[srcIdx2+sa[i]];
+   }
+
+
    // Not thread safe
    @Override
    public boolean inverse(SliceByteArray src, SliceByteArray dst)
@@ -333,7 +465,9 @@ public class BWT implements ByteTransform
    private boolean inverseBigBlock(SliceByteArray src, SliceByteArray dst, int count)
    {
       // Lazy dynamic memory allocations
-      if (this.buffer1.length < count+1)
+      if (this.offHeap == true)
+         this.allocateSegments(count+1);
+      else if (this.buffer1.length < count+1)
          this.buffer1 = new int[count+1];
 
       if (this.buckets.length < 65536)
@@ -358,6 +492,10 @@ public class BWT implements ByteTransform
       final int[] buckets_ = this.buckets;
       final int[] freqs_ = this.freqs;
 
+      // The instance may be reused for several blocks
+      for (int i=0; i<65536; i++)
+         buckets_[i] = 0;
+
       for (int sum=1, c=0; c<256; c++)
       {
          final int f = sum;
@@ -407,6 +545,7 @@ public class BWT implements ByteTransform
       }
 
       final int[] data = this.buffer1;
+      final IntBuffer[] segs = (this.offHeap == true) ? this.segments : null;
 
       for (int i=0; i<pIdx; ++i)
       {
@@ -417,13 +556,13 @@ public class BWT implements ByteTransform
          if (p < pIdx)
          {
             final int idx = (c<<8) | (input[srcIdx+p]&0xFF);
-            data[buckets_[idx]] = i;
+            setLF(data, segs, buckets_[idx], i);
             buckets_[idx]++;
          }
          else if (p > pIdx)
          {
             final int idx = (c<<8) | (input[srcIdx2+p]&0xFF);
-            data[buckets_[idx]] = i;
+            setLF(data, segs, buckets_[idx], i);
             buckets_[idx]++;
          }
       }
@@ -437,13 +576,13 @@ public class BWT implements ByteTransform
          if (p < pIdx)
          {
             final int idx = (c<<8) | (input[srcIdx+p]&0xFF);
-            data[buckets_[idx]] = i + 1;
+            setLF(data, segs, buckets_[idx], i+1);
             buckets_[idx]++;
          }
          else if (p > pIdx)
          {
             final int idx = (c<<8) | (input[srcIdx2+p]&0xFF);
-            data[buckets_[idx]] = i + 1;
+            setLF(data, segs, buckets_[idx], i+1);
             buckets_[idx]++;
          }
       }
@@ -460,8 +599,8 @@ public class BWT implements ByteTransform
          }
       }
 
-      final int chunks = getBWTChunks(count);
-    
+      final int chunks = (this.chunks == 0) ? getBWTChunks(count) : this.chunks;
+
       // Build inverse
       if (chunks == 1)
       {
@@ -475,7 +614,7 @@ public class BWT implements ByteTransform
 
             output[dstIdx+i-1] = (byte) (c>>>8);
             output[dstIdx+i] = (byte) c;
-            p = data[p];
+            p = (segs == null) ? data[p] : segs[p>>>LOG_SEGMENT_SIZE].get(p&MASK_SEGMENT);
          }  
       }
       else
@@ -523,6 +662,41 @@ public class BWT implements ByteTransform
    }
 
 
+   // Make sure that the off heap LF table can hold 'length' values.
+   // The direct buffers are kept for the next blocks.
+   private void allocateSegments(int length)
+   {
+      final int nbSegments = ((length-1) >>> LOG_SEGMENT_SIZE) + 1;
+
+      if (this.segments.length < nbSegments)
+      {
+         IntBuffer[] newSegments = new IntBuffer[nbSegments];
+         System.arraycopy(this.segments, 0, newSegments, 0, this.segments.length);
+         this.segments = newSegments;
+      }
+
+      for (int i=0; i<nbSegments; i++)
+      {
+         final int size = Math.min(length-(i<<LOG_SEGMENT_SIZE), 1<<LOG_SEGMENT_SIZE);
+
+         if ((this.segments[i] == null) || (this.segments[i].capacity() < size))
+         {
+            // The smaller buffer is freed by the garbage collector later
+            this.segments[i] = ByteBuffer.allocateDirect(4*size).order(ByteOrder.nativeOrder()).asIntBuffer();
+         }
+      }
+   }
+
+
+   private static void setLF(int[] data, IntBuffer[] segs, int idx, int val)
+   {
+      if (segs == null)
+         data[idx] = val;
+      else
+         segs[idx>>>LOG_SEGMENT_SIZE].put(idx&MASK_SEGMENT, val);
+   }
+
+
    public static int maxBlockSize()
    {
       return MAX_BLOCK_SIZE;
@@ -538,7 +712,22 @@ public class BWT implements ByteTransform
    }
 
 
-   // Process one or several chunk(s)
+   // Number of chunks for a block given a maximum number of chunks. Up to
+   // MAX_CHUNKS, the default number of chunks is capped. Beyond, each chunk
+   // is at least 1 MB.
+   public static int getBWTChunks(int size, int maxChunks)
+   {
+      final int chunks = getBWTChunks(size);
+
+      if (maxChunks <= MAX_CHUNKS)
+         return (maxChunks < chunks) ? Math.max(maxChunks, 1) : chunks;
+
+      final int extChunks = Math.min(size>>20, Math.min(maxChunks, MAX_EXT_CHUNKS));
+      return (extChunks > chunks) ? extChunks : chunks;
+   }
+
+
+   // Process one or several chunk(s), interleaved
    class InverseBigChunkTask implements Callable<Integer>
    {
       private final byte[] output;
@@ -565,33 +754,65 @@ public class BWT implements ByteTransform
       public Integer call() throws Exception
       {
          final int[] data = BWT.this.buffer1;
+         final IntBuffer[] segs = (BWT.this.offHeap == true) ? BWT.this.segments : null;
          final int[] buckets = BWT.this.buckets;
          final short[] fastBits = BWT.this.buffer2;
+         final byte[] dst = this.output;
+         final int nbChunks = this.lastChunk - this.firstChunk;
+         final int[] cursors = new int[nbChunks];
+         final int[] starts = new int[nbChunks];
+         final int[] ends = new int[nbChunks];
          int start = this.dstIdx;
+         int steps = Integer.MAX_VALUE;
          int shift = 0;
 
          while ((this.total>>>shift) > MASK_FASTBITS)
             shift++;
 
-         // Process each chunk sequentially
-         for (int c=this.firstChunk; c<this.lastChunk; c++)
+         for (int k=0; k<nbChunks; k++)
          {
             final int end = (start+this.ckSize) > this.total-1 ? this.total-1 : start+this.ckSize;
-            int p = BWT.this.getPrimaryIndex(c);
+            cursors[k] = BWT.this.getPrimaryIndex(this.firstChunk+k);
+            starts[k] = start;
+            ends[k] = end;
+            steps = Math.min(steps, (end >= start) ? (end-start+1)>>1 : 0);
+            start = end;
+         }
 
-            for (int i=start+1; i<=end; i+=2)
+         // Advance the cursors of all chunks in turn: the cache misses of
+         // independent cursors can be outstanding at the same time.
+         for (int i=1; i<2*steps; i+=2)
+         {
+            for (int k=0; k<nbChunks; k++)
             {
+               final int p = cursors[k];
                int s = fastBits[p>>shift] & 0xFFFF;
 
                while (buckets[s] <= p)
                   s++;
 
-               this.output[i-1] = (byte) (s>>>8);
-               this.output[i] = (byte) s;
-               p = data[p];
+               dst[starts[k]+i-1] = (byte) (s>>>8);
+               dst[starts[k]+i] = (byte) s;
+               cursors[k] = (segs == null) ? data[p] : segs[p>>>LOG_SEGMENT_SIZE].get(p&MASK_SEGMENT);
             }
+         }
 
-            start = end;
+         // Process the end of each chunk sequentially
+         for (int k=0; k<nbChunks; k++)
+         {
+            int p = cursors[k];
+
+            for (int i=starts[k]+2*steps+1; i<=ends[k]; i+=2)
+            {
+               int s = fastBits[p>>shift] & 0xFFFF;
+
+               while (buckets[s] <= p)
+                  s++;
+
+               dst[i-1] = (byte) (s>>>8);
+               dst[i] = (byte) s;
+               p = (segs == null) ? data[p] : segs[p>>>LOG_SEGMENT_SIZE].get(p&MASK_SEGMENT);
+            }
          }
 
          return 0;
@@ -15,7 +15,12 @@ limitations under the License.
 
 package kanzi.transform;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import kanzi.ByteTransform;
 import kanzi.SliceByteArray;
 
@@ -26,15 +31,23 @@ import kanzi.SliceByteArray;
 // index (hence the bijectivity). BWTS is about 10% slower than BWT.
 // Forward transform based on the code at https://code.google.com/p/mk-bwts/ 
 // by Neal Burns and DivSufSort (port of libDivSufSort by Yuta Mori)
+// The suffix sorter can be selected as for BWT (see BWT).
+// With several jobs, the passes over the whole block (suffix array inversion,
+// symbol gathering, LF mapping) run concurrently on ranges of the block. The
+// rotation of the Lyndon words and the inverse cycle walk remain sequential.
 
 public class BWTS implements ByteTransform
 {
    private static final int MAX_BLOCK_SIZE = 1024*1024*1024; // 1 GB 
+   private static final int MIN_PARALLEL_BLOCK_SIZE = 1 << 20;
 
    private int[] buffer1;
    private int[] buffer2;
    private final int[] buckets;
-   private DivSufSort saAlgo;
+   private SuffixSorter saAlgo;
+   private final ExecutorService pool;
+   private final int jobs;
+   private final boolean useSAIS;
 
     
    public BWTS()
@@ -42,14 +55,30 @@ public class BWTS implements ByteTransform
       this.buffer1 = new int[0];  
       this.buffer2 = new int[0];  
       this.buckets = new int[256];
+      this.pool = null;
+      this.jobs = 1;
+      this.useSAIS = false;
    }
 
 
    public BWTS(Map<String, Object> ctx)
    {
+      final int tasks = (Integer) ctx.getOrDefault("jobs", 1);
+
+      if (tasks <= 0)
+         throw new IllegalArgumentException("The number of jobs must be in positive");
+
+      ExecutorService threadPool = (ExecutorService) ctx.get("pool");
+
+      if ((tasks > 1) && (threadPool == null))
+         throw new IllegalArgumentException("The thread pool cannot be null when the number of jobs is "+tasks);
+
       this.buffer1 = new int[0];  
       this.buffer2 = new int[0];  
       this.buckets = new int[256];
+      this.pool = (tasks == 1) ? null : threadPool;
+      this.jobs = tasks;
+      this.useSAIS = BWT.isSAISSelected(ctx);
    }
 
 
@@ -87,7 +116,10 @@ public class BWTS implements ByteTransform
       }
 
       if (this.saAlgo == null)
-         this.saAlgo = new DivSufSort();
+      {
+         this.saAlgo = (this.useSAIS == true) ? new SA_IS(this.pool, this.jobs) :
+            new DivSufSort(this.pool, this.jobs);
+      }
 
       // Lazy dynamic memory allocations
       if (this.buffer1.length < count)
@@ -101,9 +133,40 @@ public class BWTS implements ByteTransform
       final int[] isa = this.buffer2;
 
       this.saAlgo.computeSuffixArray(input, sa, srcIdx, count);
+      final int nbTasks = ((this.jobs == 1) || (count < MIN_PARALLEL_BLOCK_SIZE)) ? 1 : this.jobs;
+      final int step = (count+nbTasks-1) / nbTasks;
+
+      if (nbTasks == 1)
+      {
+         for (int i=0; i<count; i++)
+            isa[sa[i]] = i;
+      }
+      else
+      {
+         // Concurrent inversion of the suffix array (disjoint scatter)
+         List<Callable<Integer>> tasks = new ArrayList<>(nbTasks);
 
-      for (int i=0; i<count; i++)
-         isa[sa[i]] = i;
+         for (int j=0; j<nbTasks; j++)
+         {
+            final int start = j * step;
+            final int end = (start+step < count) ? start+step : count;
+
+            tasks.add(new Callable<Integer>()
+            {
+               @Override
+               public Integer call() throws Exception
+               {
+                  for (int i=start; i<end; i++)
+                     isa[sa[i]] = i;
+
+                  return 0;
+               }
+            });
+         }
+
+         if (this.runTasks(tasks) == false)
+            return false;
+      }
 
       int min = isa[0];
       int idxMin = 0;
@@ -146,10 +209,89 @@ public class BWTS implements ByteTransform
          idxMin = i;
       }
 
-      min = count;
       final int srcIdx2 = srcIdx - 1;
 
-      for (int i=0; i<count; i++) 
+      if (nbTasks == 1)
+      {
+         gather(input, output, isa, srcIdx2, dstIdx, count, count, 0, count);
+      }
+      else
+      {
+         // The Lyndon words start at the prefix minima of isa. Find the
+         // minimum rank of each range, then gather all ranges concurrently,
+         // each one starting with the minimum rank of the previous ranges.
+         final int[] mins = new int[nbTasks];
+         List<Callable<Integer>> tasks = new ArrayList<>(nbTasks);
+
+         for (int j=0; j<nbTasks; j++)
+         {
+            final int jj = j;
+            final int start = j * step;
+            final int end = (start+step < count) ? start+step : count;
+
+            tasks.add(new Callable<Integer>()
+            {
+               @Override
+               public Integer call() throws Exception
+               {
+                  int m = count;
+
+                  for (int i=start; i<end; i++)
+                  {
+                     if (isa[i] < m)
+                        m = isa[i];
+                  }
+
+                  mins[jj] = m;
+                  return 0;
+               }
+            });
+         }
+
+         if (this.runTasks(tasks) == false)
+            return false;
+
+         tasks.clear();
+         int prevMin = count;
+
+         for (int j=0; j<nbTasks; j++)
+         {
+            final int start = j * step;
+            final int end = (start+step < count) ? start+step : count;
+            final int min0 = prevMin;
+
+            tasks.add(new Callable<Integer>()
+            {
+               @Override
+               public Integer call() throws Exception
+               {
+                  gather(input, output, isa, srcIdx2, dstIdx, count, min0, start, end);
+                  return 0;
+               }
+            });
+
+            if (mins[j] < prevMin)
+               prevMin = mins[j];
+         }
+
+         if (this.runTasks(tasks) == false)
+            return false;
+      }
+
+      output[dstIdx] = input[srcIdx2+count];       
+      src.index += count;
+      dst.index += count; 
+      return true;
+   }
+
+
+   // Write the BWTS symbols for the positions in [start, end), min is the
+   // minimum rank of the positions before start (or count if none).
+   // The symbol of the last position of the block is emitted by the caller.
+   private static void gather(byte[] input, byte[] output, int[] isa, int srcIdx2,
+      int dstIdx, int count, int min, int start, int end)
+   {
+      for (int i=start; i<end; i++) 
       {
          if (isa[i] >= min) 
          {
@@ -162,10 +304,34 @@ public class BWTS implements ByteTransform
 
          min = isa[i];
       }
+   }
+
+
+   // Run the first task in the calling thread and the other ones in the pool
+   private boolean runTasks(List<Callable<Integer>> tasks)
+   {
+      try
+      {
+         List<Future<Integer>> results = new ArrayList<>(tasks.size()-1);
+
+         for (int j=1; j<tasks.size(); j++)
+            results.add(this.pool.submit(tasks.get(j)));
+
+         try
+         {
+            tasks.get(0).call();
+         }
+         finally
+         {
+            for (Future<Integer> result : results)
+               result.get();
+         }
+      }
+      catch (Exception e)
+      {
+         return false;
+      }
 
-      output[dstIdx] = input[srcIdx2+count];       
-      src.index += count;
-      dst.index += count; 
       return true;
    }
 
@@ -249,24 +415,94 @@ public class BWTS implements ByteTransform
       final int[] buckets_ = this.buckets;
       final int[] lf = this.buffer1;
 
-      // Initialize histogram
-      for (int i=0; i<256; i++)
-         buckets_[i] = 0;
+      final int nbTasks = ((this.jobs == 1) || (count < MIN_PARALLEL_BLOCK_SIZE)) ? 1 : this.jobs;
+      final int step = (count+nbTasks-1) / nbTasks;
+      final int[][] counts = new int[nbTasks][];
+      counts[0] = buckets_;
 
-      for (int i=0; i<count; i++)
-         buckets_[input[srcIdx+i] & 0xFF]++;
+      for (int j=1; j<nbTasks; j++)
+         counts[j] = new int[256];
+
+      // Initialize histograms (one per range of the block)
+      if (nbTasks == 1)
+      {
+         for (int i=0; i<256; i++)
+            buckets_[i] = 0;
+
+         for (int i=0; i<count; i++)
+            buckets_[input[srcIdx+i] & 0xFF]++;
+      }
+      else
+      {
+         List<Callable<Integer>> tasks = new ArrayList<>(nbTasks);
 
-      // Histogram
+         for (int j=0; j<nbTasks; j++)
+         {
+            final int[] hist = counts[j];
+            final int start = srcIdx + j*step;
+            final int end = (j*step+step < count) ? start+step : srcIdx+count;
+
+            tasks.add(new Callable<Integer>()
+            {
+               @Override
+               public Integer call() throws Exception
+               {
+                  for (int i=0; i<256; i++)
+                     hist[i] = 0;
+
+                  for (int i=start; i<end; i++)
+                     hist[input[i] & 0xFF]++;
+
+                  return 0;
+               }
+            });
+         }
+
+         if (this.runTasks(tasks) == false)
+            return false;
+      }
+
+      // Start of each symbol bucket for each range
       for (int i=0, sum=0; i<256; i++)
       {
-         sum += buckets_[i];
-         buckets_[i] = sum - buckets_[i];
+         for (int j=0; j<nbTasks; j++)
+         {
+            final int c = counts[j][i];
+            counts[j][i] = sum;
+            sum += c;
+         }
       }
 
-      for (int i=0; i<count; i++)
-         lf[i] = buckets_[input[srcIdx+i] & 0xFF]++;
+      if (nbTasks == 1)
+      {
+         buildLF(input, lf, buckets_, srcIdx, 0, count);
+      }
+      else
+      {
+         List<Callable<Integer>> tasks = new ArrayList<>(nbTasks);
 
-      // Build inverse
+         for (int j=0; j<nbTasks; j++)
+         {
+            final int[] hist = counts[j];
+            final int start = j * step;
+            final int end = (start+step < count) ? start+step : count;
+
+            tasks.add(new Callable<Integer>()
+            {
+               @Override
+               public Integer call() throws Exception
+               {
+                  buildLF(input, lf, hist, srcIdx, start, end);
+                  return 0;
+               }
+            });
+         }
+
+         if (this.runTasks(tasks) == false)
+            return false;
+      }
+
+      // Build inverse (each cycle is a Lyndon word, emitted from the end)
       for (int i=0, j=dstIdx+count-1; j>=dstIdx; i++) 
       {         
          if (lf[i] < 0) 
@@ -289,6 +525,16 @@ public class BWTS implements ByteTransform
       dst.index += count;
       return true;
   }
+
+
+   // Compute the LF mapping for the positions in [start, end) given the
+   // start of each symbol bucket
+   private static void buildLF(byte[] input, int[] lf, int[] buckets, int srcIdx,
+      int start, int end)
+   {
+      for (int i=start; i<end; i++)
+         lf[i] = buckets[input[srcIdx+i] & 0xFF]++;
+   }
     
     
    public static int maxBlockSize() 
@@ -15,14 +15,24 @@ limitations under the License.
 
 package kanzi.transform;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 // Port to (proper) Java of the DivSufSort algorithm by Yuta Mori.
 // DivSufSort is a fast two-stage suffix sorting algorithm.
 // The original C code is here: https://code.google.com/p/libdivsufsort/
 // See also https://code.google.com/p/libdivsufsort/source/browse/wiki/SACA_Benchmarks.wiki
 // for comparison of different suffix array construction algorithms.
 // It is used to implement the forward stage of the BWT in linear time.
+// When a thread pool is provided, the type B* buckets are sorted concurrently
+// (as in the OpenMP version of libdivsufsort). The other phases are sequential.
 
-public final class DivSufSort
+public final class DivSufSort implements SuffixSorter
 {
    private static final int SS_INSERTIONSORT_THRESHOLD = 8;
    private static final int SS_BLOCKSIZE = 1024;
@@ -30,6 +40,10 @@ public final class DivSufSort
    private static final int SS_SMERGE_STACKSIZE = 32;
    private static final int TR_STACKSIZE = 64;
    private static final int TR_INSERTIONSORT_THRESHOLD = 8;
+   private static final int MIN_PARALLEL_BSTAR = 1 << 16;
+   private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+   private static final int[] EMPTY_INT_ARRAY = new int[0];
+   private static final DivSufSort[] EMPTY_WORKERS = new DivSufSort[0];
 
 
    private static final int[] SQQ_TABLE =
@@ -67,20 +81,39 @@ public final class DivSufSort
    };
 
    private int[] sa;
-   private short[] buffer;
+   private byte[] buffer;
+   private int start;
    private final int[] bucketA;
    private final int[] bucketB;
    private final Stack ssStack;
    private final Stack trStack;
    private final Stack mergeStack;
+   private final ExecutorService pool;
+   private final int jobs;
+   private DivSufSort[] workers;
 
 
    public DivSufSort()
    {
+     this(null, 1);
+   }
+
+
+   public DivSufSort(ExecutorService pool, int jobs)
+   {
+     if (jobs <= 0)
+        throw new IllegalArgumentException("The number of jobs must be in positive");
+
+     if ((jobs > 1) && (pool == null))
+        throw new IllegalArgumentException("The thread pool cannot be null when the number of jobs is "+jobs);
+
+     this.pool = (jobs == 1) ? null : pool;
+     this.jobs = jobs;
+     this.workers = EMPTY_WORKERS;
      this.bucketA = new int[256];
      this.bucketB = new int[65536];
-     this.sa = new int[0];
-     this.buffer = new short[0];
+     this.sa = EMPTY_INT_ARRAY;
+     this.buffer = EMPTY_BYTE_ARRAY;
      this.ssStack = new Stack(SS_MISORT_STACKSIZE);
      this.trStack = new Stack(TR_STACKSIZE);
      this.mergeStack = new Stack(SS_SMERGE_STACKSIZE);
@@ -103,19 +136,40 @@ public final class DivSufSort
 
 
    // Not thread safe
+   // The input is read in place (no copy): it must not change during the call.
+   @Override
    public void computeSuffixArray(byte[] input, int[] sa, int start, int length)
    {
-       // Lazy dynamic memory allocation
-       if (this.buffer.length < length)
-          this.buffer = new short[length];
-
-       for (int i=0; i<length; i++)
-          this.buffer[i] = (short) (input[start+i] & 0xFF);
-
+       this.buffer = input;
+       this.start = start;
        this.sa = sa;
        this.reset();
-       int m = this.sortTypeBstar(this.bucketA, this.bucketB, length);
-       this.constructSuffixArray(this.bucketA, this.bucketB, length, m);
+
+       try
+       {
+          int m = this.sortTypeBstar(this.bucketA, this.bucketB, length);
+          this.constructSuffixArray(this.bucketA, this.bucketB, length, m);
+       }
+       finally
+       {
+          this.release();
+       }
+   }
+
+
+   // Drop the references to the arrays of the caller (also held by the workers)
+   // so that they are not kept between blocks. The workers (and their stacks)
+   // are kept for the next parallel sort.
+   private void release()
+   {
+      for (DivSufSort worker : this.workers)
+      {
+         worker.buffer = EMPTY_BYTE_ARRAY;
+         worker.sa = EMPTY_INT_ARRAY;
+      }
+
+      this.buffer = EMPTY_BYTE_ARRAY;
+      this.sa = EMPTY_INT_ARRAY;
    }
 
 
@@ -140,9 +194,9 @@ public final class DivSufSort
                   continue;
 
                s--;
-               final int c0 = this.buffer[s];
+               final int c0 = this.buffer[this.start+s] & 0xFF;
 
-               if ((s > 0) && (this.buffer[s-1] > c0))
+               if ((s > 0) && ((this.buffer[this.start+s-1] & 0xFF) > c0))
                   s = ~s;
 
                if (c0 != c2)
@@ -159,9 +213,9 @@ public final class DivSufSort
          }
       }
 
-      int c2 = this.buffer[n-1];
+      int c2 = this.buffer[this.start+n-1] & 0xFF;
       int k = bucketA[c2];
-      this.sa[k++] = (this.buffer[n-2] < c2) ? ~(n-1) : n-1;
+      this.sa[k++] = ((this.buffer[this.start+n-2] & 0xFF) < c2) ? ~(n-1) : n-1;
 
       // Scan the suffix array from left to right.
       for (int i=0; i<n; i++)
@@ -175,9 +229,9 @@ public final class DivSufSort
          }
 
          s--;
-         final int c0 = this.buffer[s];
+         final int c0 = this.buffer[this.start+s] & 0xFF;
 
-         if ((s == 0) || (this.buffer[s-1] < c0))
+         if ((s == 0) || ((this.buffer[this.start+s-1] & 0xFF) < c0))
              s = ~s;
 
          if (c0 != c2)
@@ -193,19 +247,23 @@ public final class DivSufSort
 
 
    // Not thread safe
+   // The input is read in place (no copy): it must not change during the call.
    public int computeBWT(byte[] input, int[] sa, int start, int length)
    {
-      // Lazy dynamic memory allocation
-      if (this.buffer.length < length)
-         this.buffer = new short[length];
-
-      for (int i=0; i<length; i++)
-         this.buffer[i] = (short) (input[start+i] & 0xFF);
-
+      this.buffer = input;
+      this.start = start;
       this.sa = sa;
       this.reset();
-      final int m = this.sortTypeBstar(this.bucketA, this.bucketB, length);
-      return this.constructBWT(this.bucketA, this.bucketB, length, m);
+
+      try
+      {
+         final int m = this.sortTypeBstar(this.bucketA, this.bucketB, length);
+         return this.constructBWT(this.bucketA, this.bucketB, length, m);
+      }
+      finally
+      {
+         this.release();
+      }
    }
 
 
@@ -236,10 +294,10 @@ public final class DivSufSort
                }
 
                s--;
-               final int c0 = this.buffer[s];
+               final int c0 = this.buffer[this.start+s] & 0xFF;
                this.sa[j] = ~c0;
 
-               if ((s > 0) && (this.buffer[s-1] > c0))
+               if ((s > 0) && ((this.buffer[this.start+s-1] & 0xFF) > c0))
                   s = ~s;
 
                if (c0 != c2)
@@ -256,9 +314,9 @@ public final class DivSufSort
          }
       }
 
-      int c2 = this.buffer[n-1];
+      int c2 = this.buffer[this.start+n-1] & 0xFF;
       int k = bucketA[c2];
-      this.sa[k++] = (this.buffer[n-2] < c2) ? ~this.buffer[n-2] : n-1;
+      this.sa[k++] = ((this.buffer[this.start+n-2] & 0xFF) < c2) ? ~(this.buffer[this.start+n-2] & 0xFF) : n-1;
 
       // Scan the suffix array from left to right.
       for (int i=0; i<n; i++)
@@ -276,11 +334,11 @@ public final class DivSufSort
          }
 
          s--;
-         final int c0 = this.buffer[s];
+         final int c0 = this.buffer[this.start+s] & 0xFF;
          this.sa[i] = c0;
 
-         if ((s > 0) && (this.buffer[s-1] < c0))
-            s = ~this.buffer[s-1];
+         if ((s > 0) && ((this.buffer[this.start+s-1] & 0xFF) < c0))
+            s = ~(this.buffer[this.start+s-1] & 0xFF);
 
          if (c0 != c2)
          {
@@ -299,7 +357,7 @@ public final class DivSufSort
    private int sortTypeBstar(int[] bucketA, int[] bucketB, final int n)
    {
       int m = n;
-      int c0 = this.buffer[n-1];
+      int c0 = this.buffer[this.start+n-1] & 0xFF;
       final int[] arr = this.sa;
 
       // Count the number of occurrences of the first one or two characters of each
@@ -315,7 +373,7 @@ public final class DivSufSort
             bucketA[c1]++;
             i--;
          }
-         while ((i >= 0) && ((c0=this.buffer[i]) >= c1));
+         while ((i >= 0) && ((c0=this.buffer[this.start+i]&0xFF) >= c1));
 
          if (i < 0)
             break;
@@ -326,7 +384,7 @@ public final class DivSufSort
          i--;
          c1 = c0;
 
-         while ((i >= 0) && ((c0=this.buffer[i]) <= c1))
+         while ((i >= 0) && ((c0=this.buffer[this.start+i]&0xFF) <= c1))
          {
             bucketB[(c1<<8)+c0]++;
             c1 = c0;
@@ -364,32 +422,40 @@ public final class DivSufSort
          for (int i=m-2; i>=0; i--)
          {
             final int t = arr[pab+i];
-            final int idx = (this.buffer[t]<<8) + this.buffer[t+1];
+            final int idx = ((this.buffer[this.start+t] & 0xFF)<<8) + (this.buffer[this.start+t+1] & 0xFF);
             bucketB[idx]--;
             arr[bucketB[idx]] = i;
          }
 
          final int t = arr[pab+m-1];
-         c0 = (this.buffer[t]<<8) + this.buffer[t+1];
+         c0 = ((this.buffer[this.start+t] & 0xFF)<<8) + (this.buffer[this.start+t+1] & 0xFF);
          bucketB[c0]--;
          arr[bucketB[c0]] = m - 1;
 
          // Sort the type B* substrings using ssSort.
          final int bufSize = n - m - m;
-         c0 = 254;
-  
-         for (int j=m; j>0; c0--)
+
+         if ((this.jobs > 1) && (m >= MIN_PARALLEL_BSTAR))
          {
-            final int idx = c0 << 8;
+            this.ssSortBuckets(bucketB, pab, n, m);
+         }
+         else
+         {
+            c0 = 254;
 
-            for (int c1=255; c1>c0; c1--)
+            for (int j=m; j>0; c0--)
             {
-               final int i = bucketB[idx+c1];
+               final int idx = c0 << 8;
+
+               for (int c1=255; c1>c0; c1--)
+               {
+                  final int i = bucketB[idx+c1];
 
-               if (j > i+1)
-                  this.ssSort(pab, i, j, m, bufSize, 2, n, arr[i] == m-1);
- 
-               j = i;
+                  if (j > i+1)
+                     this.ssSort(pab, i, j, m, bufSize, 2, n, arr[i] == m-1);
+
+                  j = i;
+               }
             }
          }
           
@@ -430,13 +496,13 @@ public final class DivSufSort
         this.trSort(m, 1);
 
         // Set the sorted order of type B* suffixes.
-        c0 = this.buffer[n-1];
+        c0 = this.buffer[this.start+n-1] & 0xFF;
 
         for (int i=n-1, j=m; i>=0; )
         {
             i--;
 
-            for (int c1=c0; (i >= 0) && ((c0=this.buffer[i]) >= c1); i--)
+            for (int c1=c0; (i >= 0) && ((c0=this.buffer[this.start+i]&0xFF) >= c1); i--)
             {
                c1 = c0;
             }
@@ -446,7 +512,7 @@ public final class DivSufSort
                final int tt = i;
                i--;
 
-               for (int c1=c0; (i >= 0) && ((c0=this.buffer[i]) <= c1); i--)
+               for (int c1=c0; (i >= 0) && ((c0=this.buffer[this.start+i]&0xFF) <= c1); i--)
                {
                   c1 = c0;
                }
@@ -487,6 +553,117 @@ public final class DivSufSort
 
 
    // Sub String Sort
+   // Sort the type B* buckets concurrently. The buckets are disjoint ranges
+   // of the suffix array and the work area between m and n-m is split between
+   // the tasks. The biggest buckets are sorted first to balance the load.
+   private void ssSortBuckets(int[] bucketB, final int pab, final int n, final int m)
+   {
+      // Collect the non trivial buckets as (size, start, end)
+      long[] keys = new long[256];
+      final List<int[]> ranges = new ArrayList<>(256);
+
+      for (int c0=254, j=m; j>0; c0--)
+      {
+         final int idx = c0 << 8;
+
+         for (int c1=255; c1>c0; c1--)
+         {
+            final int i = bucketB[idx+c1];
+
+            if (j > i+1)
+            {
+               if (ranges.size() == keys.length)
+                  keys = Arrays.copyOf(keys, 2*keys.length);
+
+               keys[ranges.size()] = ((long) (j-i) << 32) | ranges.size();
+               ranges.add(new int[] { i, j });
+            }
+
+            j = i;
+         }
+      }
+
+      final int nbRanges = ranges.size();
+
+      if (nbRanges == 0)
+         return;
+
+      Arrays.sort(keys, 0, nbRanges);
+      final int[] order = new int[nbRanges];
+
+      for (int i=0; i<nbRanges; i++)
+         order[i] = (int) keys[nbRanges-1-i];
+
+      final int nbTasks = (this.jobs <= nbRanges) ? this.jobs : nbRanges;
+      final int bufSize = (n-m-m) / nbTasks;
+      final AtomicInteger next = new AtomicInteger(0);
+
+      if (this.workers.length < nbTasks)
+      {
+         DivSufSort[] newWorkers = new DivSufSort[nbTasks];
+         System.arraycopy(this.workers, 0, newWorkers, 0, this.workers.length);
+
+         for (int i=this.workers.length; i<nbTasks; i++)
+            newWorkers[i] = (i == 0) ? this : new DivSufSort();
+
+         this.workers = newWorkers;
+      }
+
+      List<Callable<Integer>> tasks = new ArrayList<>(nbTasks);
+
+      for (int t=0; t<nbTasks; t++)
+      {
+         final DivSufSort worker = this.workers[t];
+         worker.sa = this.sa;
+         worker.buffer = this.buffer;
+         worker.start = this.start;
+         final int buf = m + t*bufSize;
+
+         tasks.add(new Callable<Integer>()
+         {
+            @Override
+            public Integer call() throws Exception
+            {
+               int r;
+
+               while ((r = next.getAndIncrement()) < nbRanges)
+               {
+                  final int[] range = ranges.get(order[r]);
+                  final int i = range[0];
+                  worker.ssSort(pab, i, range[1], buf, bufSize, 2, n, worker.sa[i] == m-1);
+               }
+
+               return 0;
+            }
+         });
+      }
+
+      try
+      {
+         List<Future<Integer>> results = new ArrayList<>(nbTasks-1);
+
+         for (int t=1; t<nbTasks; t++)
+            results.add(this.pool.submit(tasks.get(t)));
+
+         // The calling thread sorts buckets as well
+         try
+         {
+            tasks.get(0).call();
+         }
+         finally
+         {
+            // Wait for completion of all concurrent tasks
+            for (Future<Integer> result : results)
+               result.get();
+         }
+      }
+      catch (Exception e)
+      {
+         throw new RuntimeException("Failed to sort the type B* suffixes: " + e.getMessage(), e);
+      }
+   }
+
+
    private void ssSort(final int pa, int first, int last, int buf, int bufSize,
        int depth, int n, boolean lastSuffix)
    {
@@ -585,7 +762,7 @@ public final class DivSufSort
 
       if (u1n - u1 > u2n - u2)
       {
-         while ((u2 < u2n) && (this.buffer[u1] == this.buffer[u2]))
+         while ((u2 < u2n) && (this.buffer[this.start+u1] == this.buffer[this.start+u2]))
          {
             u1++;
             u2++;
@@ -593,14 +770,14 @@ public final class DivSufSort
       }
       else
       {
-         while ((u1 < u1n) && (this.buffer[u1] == this.buffer[u2]))
+         while ((u1 < u1n) && (this.buffer[this.start+u1] == this.buffer[this.start+u2]))
          {
             u1++;
             u2++;
          }
       }
 
-      return (u1 < u1n) ? ((u2 < u2n) ? this.buffer[u1] - this.buffer[u2] : 1) : ((u2 < u2n) ? -1 : 0);
+      return (u1 < u1n) ? ((u2 < u2n) ? (this.buffer[this.start+u1] & 0xFF) - (this.buffer[this.start+u2] & 0xFF) : 1) : ((u2 < u2n) ? -1 : 0);
    }
 
 
@@ -613,7 +790,7 @@ public final class DivSufSort
 
       if (u1n - u1 > u2n - u2)
       {
-         while ((u2 < u2n) && (this.buffer[u1] == this.buffer[u2]))
+         while ((u2 < u2n) && (this.buffer[this.start+u1] == this.buffer[this.start+u2]))
          {
             u1++;
             u2++;
@@ -621,14 +798,14 @@ public final class DivSufSort
       }
       else
       {
-         while ((u1 < u1n) && (this.buffer[u1] == this.buffer[u2]))
+         while ((u1 < u1n) && (this.buffer[this.start+u1] == this.buffer[this.start+u2]))
          {
             u1++;
             u2++;
          }
       }
 
-      return (u1 < u1n) ? ((u2 < u2n) ? this.buffer[u1] - this.buffer[u2] : 1) : ((u2 < u2n) ? -1 : 0);
+      return (u1 < u1n) ? ((u2 < u2n) ? (this.buffer[this.start+u1] & 0xFF) - (this.buffer[this.start+u2] & 0xFF) : 1) : ((u2 < u2n) ? -1 : 0);
    }
 
 
@@ -1316,7 +1493,7 @@ public final class DivSufSort
                continue;
             }
 
-            final int idx = depth;
+            final int idx = this.start + depth; // offset of the current depth in the input
 
             if (limit == 0)
                this.ssHeapSort(idx, pa, first, last - first);
@@ -1326,11 +1503,11 @@ public final class DivSufSort
 
             if (limit < 0)
             {
-               int v = this.buffer[idx+this.sa[pa+this.sa[first]]];
+               int v = this.buffer[idx+this.sa[pa+this.sa[first]]] & 0xFF;
 
                for (a=first+1; a<last; a++)
                {
-                  if ((x=this.buffer[idx+this.sa[pa+this.sa[a]]]) != v)
+                  if ((x=(this.buffer[idx+this.sa[pa+this.sa[a]]] & 0xFF)) != v)
                   {
                      if (a - first > 1)
                           break;
@@ -1340,7 +1517,7 @@ public final class DivSufSort
                   }
                }
 
-               if (this.buffer[idx+this.sa[pa+this.sa[first]]-1] < v)
+               if ((this.buffer[idx+this.sa[pa+this.sa[first]]-1] & 0xFF) < v)
                   first = this.ssPartition(pa, first, a, depth);
 
                if (a - first <= last - a)
@@ -1379,14 +1556,14 @@ public final class DivSufSort
 
             // choose pivot
             a = this.ssPivot(idx, pa, first, last);
-            final int v = this.buffer[idx+this.sa[pa+this.sa[a]]];
+            final int v = this.buffer[idx+this.sa[pa+this.sa[a]]] & 0xFF;
             this.swapInSA(first, a);
             int b = first;
 
             // partition
             while (++b < last)
             {
-               if ((x=this.buffer[idx+this.sa[pa+this.sa[b]]]) != v)
+               if ((x=(this.buffer[idx+this.sa[pa+this.sa[b]]] & 0xFF)) != v)
                   break;
             }
 
@@ -1396,7 +1573,7 @@ public final class DivSufSort
             {
                while (++b < last)
                {
-                  if ((x=this.buffer[idx+this.sa[pa+this.sa[b]]]) > v)
+                  if ((x=(this.buffer[idx+this.sa[pa+this.sa[b]]] & 0xFF)) > v)
                      break;
 
                   if (x == v)
@@ -1411,7 +1588,7 @@ public final class DivSufSort
 
             while (--c > b)
             {
-               if ((x=this.buffer[idx+this.sa[pa+this.sa[c]]]) != v)
+               if ((x=(this.buffer[idx+this.sa[pa+this.sa[c]]] & 0xFF)) != v)
                   break;
             }
 
@@ -1421,7 +1598,7 @@ public final class DivSufSort
             {
                while (--c > b)
                {
-                  if ((x=this.buffer[idx+this.sa[pa+this.sa[c]]]) < v)
+                  if ((x=(this.buffer[idx+this.sa[pa+this.sa[c]]] & 0xFF)) < v)
                      break;
 
                   if (x == v)
@@ -1438,7 +1615,7 @@ public final class DivSufSort
 
                while (++b < c)
                {
-                  if ((x=this.buffer[idx+this.sa[pa+this.sa[b]]]) > v)
+                  if ((x=(this.buffer[idx+this.sa[pa+this.sa[b]]] & 0xFF)) > v)
                      break;
 
                   if (x == v)
@@ -1450,7 +1627,7 @@ public final class DivSufSort
 
                while (--c > b)
                {
-                  if ((x=this.buffer[idx+this.sa[pa+this.sa[c]]]) < v)
+                  if ((x=(this.buffer[idx+this.sa[pa+this.sa[c]]] & 0xFF)) < v)
                      break;
 
                   if (x == v)
@@ -1476,7 +1653,7 @@ public final class DivSufSort
 
                a = first + (b - a);
                c = last - (d - c);
-               b = (v <= this.buffer[idx+this.sa[pa+this.sa[a]]-1]) ? a : this.ssPartition(pa, a, c, depth);
+               b = (v <= (this.buffer[idx+this.sa[pa+this.sa[a]]-1] & 0xFF)) ? a : this.ssPartition(pa, a, c, depth);
 
                if (a - first <= last - c)
                {
@@ -1529,7 +1706,7 @@ public final class DivSufSort
             }
             else
             {
-               if (this.buffer[idx+this.sa[pa+this.sa[first]]-1] < v)
+               if ((this.buffer[idx+this.sa[pa+this.sa[first]]-1] & 0xFF) < v)
                {
                   first = this.ssPartition(pa, first, last, depth);
                   limit = ssIlg(last-first);
@@ -1566,21 +1743,21 @@ public final class DivSufSort
 
    private int ssMedian5(final int idx, int pa, int v1, int v2, int v3, int v4, int v5)
    {
-      if (this.buffer[idx+this.sa[pa+this.sa[v2]]] > this.buffer[idx+this.sa[pa+this.sa[v3]]])
+      if ((this.buffer[idx+this.sa[pa+this.sa[v2]]] & 0xFF) > (this.buffer[idx+this.sa[pa+this.sa[v3]]] & 0xFF))
       {
          final int t = v2;
          v2 = v3;
          v3 = t;
       }
 
-      if (this.buffer[idx+this.sa[pa+this.sa[v4]]] > this.buffer[idx+this.sa[pa+this.sa[v5]]])
+      if ((this.buffer[idx+this.sa[pa+this.sa[v4]]] & 0xFF) > (this.buffer[idx+this.sa[pa+this.sa[v5]]] & 0xFF))
       {
          final int t = v4;
          v4 = v5;
          v5 = t;
       }
 
-      if (this.buffer[idx+this.sa[pa+this.sa[v2]]] > this.buffer[idx+this.sa[pa+this.sa[v4]]])
+      if ((this.buffer[idx+this.sa[pa+this.sa[v2]]] & 0xFF) > (this.buffer[idx+this.sa[pa+this.sa[v4]]] & 0xFF))
       {
          final int t1 = v2;
          v2 = v4;
@@ -1590,14 +1767,14 @@ public final class DivSufSort
          v5 = t2;
       }
 
-      if (this.buffer[idx+this.sa[pa+this.sa[v1]]] > this.buffer[idx+this.sa[pa+this.sa[v3]]])
+      if ((this.buffer[idx+this.sa[pa+this.sa[v1]]] & 0xFF) > (this.buffer[idx+this.sa[pa+this.sa[v3]]] & 0xFF))
       {
          final int t = v1;
          v1 = v3;
          v3 = t;
       }
 
-      if (this.buffer[idx+this.sa[pa+this.sa[v1]]] > this.buffer[idx+this.sa[pa+this.sa[v4]]])
+      if ((this.buffer[idx+this.sa[pa+this.sa[v1]]] & 0xFF) > (this.buffer[idx+this.sa[pa+this.sa[v4]]] & 0xFF))
       {
          final int t1 = v1;
          v1 = v4;
@@ -1607,21 +1784,21 @@ public final class DivSufSort
          v5 = t2;
       }
 
-      return (this.buffer[idx+this.sa[pa+this.sa[v3]]] > this.buffer[idx+this.sa[pa+this.sa[v4]]]) ? v4 : v3;
+      return ((this.buffer[idx+this.sa[pa+this.sa[v3]]] & 0xFF) > (this.buffer[idx+this.sa[pa+this.sa[v4]]] & 0xFF)) ? v4 : v3;
   }
 
 
    private int ssMedian3(int idx, int pa, int v1, int v2, int v3)
    {
-      if (this.buffer[idx+this.sa[pa+this.sa[v1]]] > this.buffer[idx+this.sa[pa+this.sa[v2]]])
+      if ((this.buffer[idx+this.sa[pa+this.sa[v1]]] & 0xFF) > (this.buffer[idx+this.sa[pa+this.sa[v2]]] & 0xFF))
       {
          final int t = v1;
          v1 = v2;
          v2 = t;
       }
 
-      if (this.buffer[idx+this.sa[pa+this.sa[v2]]] > this.buffer[idx+this.sa[pa+this.sa[v3]]])
-          return (this.buffer[idx+this.sa[pa+this.sa[v1]]] > this.buffer[idx+this.sa[pa+this.sa[v3]]]) ? v1 : v3;
+      if ((this.buffer[idx+this.sa[pa+this.sa[v2]]] & 0xFF) > (this.buffer[idx+this.sa[pa+this.sa[v3]]] & 0xFF))
+          return ((this.buffer[idx+this.sa[pa+this.sa[v1]]] & 0xFF) > (this.buffer[idx+this.sa[pa+this.sa[v3]]] & 0xFF)) ? v1 : v3;
 
       return v2;
     }
@@ -1673,7 +1850,7 @@ public final class DivSufSort
       {
          m--;
 
-         if (this.buffer[idx+this.sa[pa+this.sa[saIdx+(m>>1)]]] < this.buffer[idx+this.sa[pa+this.sa[saIdx+m]]])
+         if ((this.buffer[idx+this.sa[pa+this.sa[saIdx+(m>>1)]]] & 0xFF) < (this.buffer[idx+this.sa[pa+this.sa[saIdx+m]]] & 0xFF))
             this.swapInSA(saIdx+m, saIdx+(m>>1));
       }
 
@@ -1700,15 +1877,15 @@ public final class DivSufSort
    {
       final int[] arr = this.sa;
       final int v = arr[saIdx+i];
-      final int c = this.buffer[idx+arr[pa+v]];
+      final int c = this.buffer[idx+arr[pa+v]] & 0xFF;
       int j = (i << 1) + 1;
 
       while (j < size)
       {
          int k = j;
          j++;
-         int d = this.buffer[idx+arr[pa+arr[saIdx+k]]];
-         final int e = this.buffer[idx+arr[pa+arr[saIdx+j]]];
+         int d = this.buffer[idx+arr[pa+arr[saIdx+k]]] & 0xFF;
+         final int e = this.buffer[idx+arr[pa+arr[saIdx+j]]] & 0xFF;
 
          if (d < e)
          {
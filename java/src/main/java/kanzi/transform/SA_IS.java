@@ -15,6 +15,11 @@ limitations under the License.
 
 package kanzi.transform;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import kanzi.SliceIntArray;
 
 // Compute suffix array using the SA_IS algorithm.
@@ -30,9 +35,59 @@ import kanzi.SliceIntArray;
 // Step 2 - Recursion: the suffix array of the reduced problem is recursively computed.
 // Step 3 - Problem induction: based on the suffix array of the reduced problem, that of the
 //          unreduced problem is induced
+//
+// Unlike DivSufSort, the running time is linear even on highly repetitive data.
+// When a thread pool is provided, the final induced sorting reads the symbols
+// preceding the suffixes of each block of the suffix array concurrently (the
+// random accesses), before writing the block sequentially.
 
-public class SA_IS 
+public class SA_IS implements SuffixSorter
 {
+      private static final int MIN_PARALLEL_SIZE = 1 << 20;
+      private static final int INDUCE_BLOCK_SIZE = 1 << 16;
+
+      private int[] buffer;
+      private final ExecutorService pool;
+      private final int jobs;
+
+
+      public SA_IS()
+      {
+        this(null, 1);
+      }
+
+
+      public SA_IS(ExecutorService pool, int jobs)
+      {
+        if (jobs <= 0)
+           throw new IllegalArgumentException("The number of jobs must be in positive");
+
+        if ((jobs > 1) && (pool == null))
+           throw new IllegalArgumentException("The thread pool cannot be null when the number of jobs is "+jobs);
+
+        this.buffer = new int[0];
+        this.pool = (jobs == 1) ? null : pool;
+        this.jobs = jobs;
+      }
+
+
+      // Not thread safe
+      // The symbols are copied to an int array (the recursion works on integer
+      // alphabets), which costs 4 bytes per input byte.
+      @Override
+      public void computeSuffixArray(byte[] input, int[] sa, int start, int length)
+      {
+        if (this.buffer.length < length)
+           this.buffer = new int[length];
+
+        for (int i=0; i<length; i++)
+           this.buffer[i] = input[start+i] & 0xFF;
+
+        computeSuffixArray(new SliceIntArray(this.buffer, 0), sa, 0, length, 256,
+           false, this.pool, this.jobs);
+      }
+
+
       // find the start or end of each bucket
       private static void getCounts(SliceIntArray src, SliceIntArray dst, int n, int k)
       {
@@ -415,10 +470,212 @@ public class SA_IS
       }
 
 
+      // Induced sorting (see induceSuffixArray) by blocks of the suffix array.
+      // For each block, the symbols preceding the suffixes and the values to
+      // induce are computed concurrently, then the block is scanned sequentially.
+      // A precomputed value is used only if the entry has not changed meanwhile
+      // (it only depends on the suffix index).
+      private static void induceSuffixArray(SliceIntArray src, int[] sa, SliceIntArray buf1,
+              SliceIntArray buf2, int n, int k, ExecutorService pool, int jobs)
+      {
+        final int[] keys = new int[INDUCE_BLOCK_SIZE];
+        final int[] syms = new int[INDUCE_BLOCK_SIZE];
+        final int[] vals = new int[INDUCE_BLOCK_SIZE];
+
+        // compute sal
+        if (buf1 == buf2)
+           getCounts(src, buf1, n, k);
+
+        // find starts of buckets
+        getBuckets(buf1, buf2, k, false);
+
+        final int srcIdx = src.index;
+        final int[] srcArray = src.array;
+        final int bufIdx = buf2.index;
+        final int[] bufArray = buf2.array;
+        int j = n - 1;
+        int c1 = srcArray[srcIdx+j];
+        int b = bufArray[bufIdx+c1];
+        sa[b++] = ((j > 0) && (srcArray[srcIdx+j-1] < c1)) ? ~j : j;
+
+        for (int i0=0; i0<n; i0+=INDUCE_BLOCK_SIZE)
+        {
+          final int i1 = (i0+INDUCE_BLOCK_SIZE < n) ? i0+INDUCE_BLOCK_SIZE : n;
+          prepareInduction(src, sa, i0, i1, keys, syms, vals, true, pool, jobs);
+
+          for (int i=i0; i<i1; i++)
+          {
+            j = sa[i];
+            sa[i] = ~j;
+
+            if (j <= 0)
+               continue;
+
+            final int c0;
+            final int val;
+
+            if (keys[i-i0] == j)
+            {
+               c0 = syms[i-i0];
+               val = vals[i-i0];
+            }
+            else
+            {
+               j--;
+               c0 = srcArray[srcIdx+j];
+               val = ((j > 0) && (srcArray[srcIdx+j-1] < c0)) ? ~j : j;
+            }
+
+            if (c0 != c1)
+            {
+               bufArray[bufIdx+c1] = b;
+               c1 = c0;
+               b = bufArray[bufIdx+c1];
+            }
+
+            sa[b++] = val;
+          }
+        }
+
+        // compute sas
+        if (buf1 == buf2)
+           getCounts(src, buf1, n, k);
+
+        // find ends of buckets
+        getBuckets(buf1, buf2, k, true);
+        c1 = 0;
+        b = bufArray[bufIdx+c1];
+
+        for (int i1=n; i1>0; i1-=INDUCE_BLOCK_SIZE)
+        {
+          final int i0 = (i1 > INDUCE_BLOCK_SIZE) ? i1-INDUCE_BLOCK_SIZE : 0;
+          prepareInduction(src, sa, i0, i1, keys, syms, vals, false, pool, jobs);
+
+          for (int i=i1-1; i>=i0; i--)
+          {
+            j = sa[i];
+
+            if (j <= 0)
+            {
+               sa[i] = ~j;
+               continue;
+            }
+
+            final int c0;
+            final int val;
+
+            if (keys[i-i0] == j)
+            {
+               c0 = syms[i-i0];
+               val = vals[i-i0];
+            }
+            else
+            {
+               j--;
+               c0 = srcArray[srcIdx+j];
+               val = ((j == 0) || (srcArray[srcIdx+j-1] > c0)) ? ~j : j;
+            }
+
+            if (c0 != c1)
+            {
+               bufArray[bufIdx+c1] = b;
+               c1 = c0;
+               b = bufArray[bufIdx+c1];
+            }
+
+            b--;
+            sa[b] = val;
+          }
+        }
+      }
+
+
+      // Compute concurrently the symbol preceding each suffix in sa[i0..i1-1]
+      // and the value to induce (L-type scan if left is true, S-type otherwise).
+      private static void prepareInduction(final SliceIntArray src, final int[] sa,
+              final int i0, final int i1, final int[] keys, final int[] syms,
+              final int[] vals, final boolean left, ExecutorService pool, int jobs)
+      {
+        final int[] srcArray = src.array;
+        final int srcIdx = src.index;
+        final int step = (i1-i0+jobs-1) / jobs;
+        List<Callable<Integer>> tasks = new ArrayList<>(jobs);
+
+        for (int t=0; t<jobs; t++)
+        {
+          final int start = i0 + t*step;
+          final int end = (start+step < i1) ? start+step : i1;
+
+          if (start >= end)
+             break;
+
+          tasks.add(new Callable<Integer>()
+          {
+            @Override
+            public Integer call() throws Exception
+            {
+              for (int i=start; i<end; i++)
+              {
+                int j = sa[i];
+
+                if (j <= 0)
+                {
+                   keys[i-i0] = 0;
+                   continue;
+                }
+
+                keys[i-i0] = j;
+                j--;
+                final int c0 = srcArray[srcIdx+j];
+                syms[i-i0] = c0;
+
+                if (left == true)
+                   vals[i-i0] = ((j > 0) && (srcArray[srcIdx+j-1] < c0)) ? ~j : j;
+                else
+                   vals[i-i0] = ((j == 0) || (srcArray[srcIdx+j-1] > c0)) ? ~j : j;
+              }
+
+              return 0;
+            }
+          });
+        }
+
+        try
+        {
+          List<Future<Integer>> results = new ArrayList<>(tasks.size());
+
+          for (int t=1; t<tasks.size(); t++)
+             results.add(pool.submit(tasks.get(t)));
+
+          // The calling thread processes the first range
+          try
+          {
+             tasks.get(0).call();
+          }
+          finally
+          {
+             for (Future<Integer> result : results)
+                result.get();
+          }
+        }
+        catch (Exception e)
+        {
+          throw new RuntimeException("Failed to induce the suffix array: " + e.getMessage(), e);
+        }
+      }
+
+
       // Find the suffix array sa of data[0..n-1] in {0..k-1}^n
       // Return the primary index if isbwt is true (0 otherwise)
-      public static int computeSuffixArray(SliceIntArray data, int[] sa, int fs, 
+      public static int computeSuffixArray(SliceIntArray data, int[] sa, int fs,
               int n, int k, boolean isBWT)
+      {
+        return computeSuffixArray(data, sa, fs, n, k, isBWT, null, 1);
+      }
+
+
+      private static int computeSuffixArray(SliceIntArray data, int[] sa, int fs,
+              int n, int k, boolean isBWT, ExecutorService pool, int jobs)
       {
         SliceIntArray C;
         SliceIntArray B;
@@ -555,7 +812,7 @@ public class SA_IS
               sa[j--] = sa[ii] - 1;
           }
 
-          computeSuffixArray(new SliceIntArray(sa, m + newfs), sa, newfs, m, name, false);
+          computeSuffixArray(new SliceIntArray(sa, m + newfs), sa, newfs, m, name, false, pool, jobs);
 
           i = arrayIdx + n - 1;
           j = m + m - 1;
@@ -644,7 +901,11 @@ public class SA_IS
 
         if (isBWT == false)
         {
-           induceSuffixArray(data, sa, C, B, n, k);
+           if ((jobs > 1) && (n >= MIN_PARALLEL_SIZE))
+              induceSuffixArray(data, sa, C, B, n, k, pool, jobs);
+           else
+              induceSuffixArray(data, sa, C, B, n, k);
+
            return 0;
         }
 
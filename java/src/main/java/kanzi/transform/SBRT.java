@@ -29,16 +29,21 @@ import kanzi.SliceByteArray;
 // SBR(0)= Move to Front Transform
 // SBR(1)= Time Stamp Transform
 // This code implements SBR(0), SBR(1/2) and SBR(1). Code derived from openBWT
+// In MTF mode, the symbol list is packed 8 ranks per long so that the rank
+// search and the move to front process 8 ranks at a time (same output).
 public class SBRT implements ByteTransform
 {
    public static final int MODE_MTF = 1;       // alpha = 0
    public static final int MODE_RANK = 2;      // alpha = 1/2
    public static final int MODE_TIMESTAMP = 3; // alpha = 1
+   private static final long LANES_LO = 0x0101010101010101L;
+   private static final long LANES_HI = 0x8080808080808080L;
 
    private final int[] prev;
    private final int[] curr;
    private final int[] symbols;
    private final int[] ranks;
+   private final long[] lanes; // MTF list, rank 8*j+k in byte k of lanes[j]
    private final int mode;
    
    
@@ -57,6 +62,7 @@ public class SBRT implements ByteTransform
       this.curr = new int[256];
       this.symbols = new int[256];
       this.ranks = new int[256];
+      this.lanes = new long[32];
       this.mode = mode;
    }
    
@@ -72,6 +78,7 @@ public class SBRT implements ByteTransform
       this.curr = new int[256];
       this.symbols = new int[256];
       this.ranks = new int[256];
+      this.lanes = new long[32];
       this.mode = m;
    }
    
@@ -92,6 +99,14 @@ public class SBRT implements ByteTransform
 
       if (output.index + count > output.array.length)
          return false;
+
+      if (this.mode == MODE_MTF)
+      {
+         this.forwardMTF(input.array, input.index, output.array, output.index, count);
+         input.index += count;
+         output.index += count;
+         return true;
+      }
       
       // Aliasing
       final byte[] src = input.array;
@@ -159,6 +174,14 @@ public class SBRT implements ByteTransform
       if (output.index + count > output.array.length)
          return false;
 
+      if (this.mode == MODE_MTF)
+      {
+         this.inverseMTF(input.array, input.index, output.array, output.index, count);
+         input.index += count;
+         output.index += count;
+         return true;
+      }
+
       // Aliasing
       final byte[] src = input.array;
       final byte[] dst = output.array;
@@ -202,4 +225,99 @@ public class SBRT implements ByteTransform
       output.index += count;
       return true;
    }
-}
\ No newline at end of file
+
+
+   private void forwardMTF(byte[] src, int srcIdx, byte[] dst, int dstIdx, int count)
+   {
+      final long[] list = this.lanes;
+      initLanes(list);
+
+      for (int i=0; i<count; i++)
+      {
+         final int c = src[srcIdx+i] & 0xFF;
+
+         // Fast path: symbol already in front
+         if ((int) (list[0] & 0xFF) == c)
+         {
+            dst[dstIdx+i] = 0;
+            continue;
+         }
+
+         // Find the first byte equal to c, 8 ranks at a time. Only the lowest
+         // flagged byte is exact (borrows may flag the bytes above).
+         final long pattern = c * LANES_LO;
+         int j = 0;
+         long t;
+
+         while (true)
+         {
+            final long x = list[j] ^ pattern;
+            t = (x - LANES_LO) & ~x & LANES_HI;
+
+            if (t != 0)
+               break;
+
+            j++;
+         }
+
+         final int r = (j << 3) + (Long.numberOfTrailingZeros(t) >>> 3);
+         dst[dstIdx+i] = (byte) r;
+         moveToFront(list, r, c);
+      }
+   }
+
+
+   private void inverseMTF(byte[] src, int srcIdx, byte[] dst, int dstIdx, int count)
+   {
+      final long[] list = this.lanes;
+      initLanes(list);
+
+      for (int i=0; i<count; i++)
+      {
+         final int r = src[srcIdx+i] & 0xFF;
+         final int c = (int) (list[r>>3] >>> ((r&7)<<3)) & 0xFF;
+         dst[dstIdx+i] = (byte) c;
+
+         if (r != 0)
+            moveToFront(list, r, c);
+      }
+   }
+
+
+   private static void initLanes(long[] list)
+   {
+      for (int j=0; j<32; j++)
+      {
+         long w = 0;
+
+         for (int k=7; k>=0; k--)
+            w = (w << 8) | ((j<<3) + k);
+
+         list[j] = w;
+      }
+   }
+
+
+   // Remove the symbol c at rank r, shift the ranks [0..r-1] up by one and
+   // insert c at rank 0
+   private static void moveToFront(long[] list, int r, int c)
+   {
+      final int j = r >> 3;
+      final long lowMask = (1L << ((r&7)<<3)) - 1;
+      final long w = list[j];
+      final long high = w & ~((lowMask << 8) | 0xFF);
+
+      if (j == 0)
+      {
+         list[0] = high | ((w & lowMask) << 8) | c;
+         return;
+      }
+
+      list[j] = high | ((w & lowMask) << 8) | (list[j-1] >>> 56);
+
+      for (int k=j-1; k>0; k--)
+         list[k] = (list[k] << 8) | (list[k-1] >>> 56);
+
+      list[0] = (list[0] << 8) | c;
+   }
+}
@@ -0,0 +1,29 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+                http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package kanzi.transform;
+
+
+// Suffix array construction algorithm used by the forward BWT and BWTS.
+// Implementations: DivSufSort (default, fastest in most cases) and SA_IS
+// (linear worst case time, can be faster on highly repetitive data).
+// SA_IS is never selected automatically: it is opt-in, with the 'suffixSorter'
+// context entry set to "SAIS" (see BWT). There is no command line option; API
+// callers set the entry in the context of the CompressedOutputStream.
+public interface SuffixSorter
+{
+   // Compute the suffix array of input[start..start+length-1] into sa[0..length-1]
+   public void computeSuffixArray(byte[] input, int[] sa, int start, int length);
+}
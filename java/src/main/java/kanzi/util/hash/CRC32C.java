@@ -0,0 +1,89 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+                http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package kanzi.util.hash;
+
+import kanzi.Memory;
+
+// CRC32C (Castagnoli polynomial), the checksum of iSCSI, ext4, SCTP, ...
+// Software implementation (slicing by 8). The Java 9+ version of this class
+// (multi-release jar) uses java.util.zip.CRC32C (hardware accelerated).
+
+public class CRC32C
+{
+   private static final int POLYNOMIAL = 0x82F63B78; // reversed 0x1EDC6F41
+   private static final int[] TABLE = initTable();
+
+
+   private static int[] initTable()
+   {
+      final int[] table = new int[8*256];
+
+      for (int n=0; n<256; n++)
+      {
+         int crc = n;
+
+         for (int k=0; k<8; k++)
+            crc = ((crc & 1) != 0) ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+
+         table[n] = crc;
+      }
+
+      for (int n=0; n<256; n++)
+      {
+         for (int k=1; k<8; k++)
+         {
+            final int crc = table[(k-1)*256+n];
+            table[k*256+n] = (crc >>> 8) ^ table[crc & 0xFF];
+         }
+      }
+
+      return table;
+   }
+
+
+   public int hash(byte[] data)
+   {
+      return this.hash(data, 0, data.length);
+   }
+
+
+   public int hash(byte[] data, int offset, int length)
+   {
+      final int[] t = TABLE;
+      final int end = offset + length;
+      int crc = -1;
+      int idx = offset;
+
+      while (idx+8 <= end)
+      {
+         final int lo = Memory.LittleEndian.readInt32(data, idx) ^ crc;
+         final int hi = Memory.LittleEndian.readInt32(data, idx+4);
+         crc = t[0x700+(lo&0xFF)] ^ t[0x600+((lo>>>8)&0xFF)] ^
+               t[0x500+((lo>>>16)&0xFF)] ^ t[0x400+(lo>>>24)] ^
+               t[0x300+(hi&0xFF)] ^ t[0x200+((hi>>>8)&0xFF)] ^
+               t[0x100+((hi>>>16)&0xFF)] ^ t[hi>>>24];
+         idx += 8;
+      }
+
+      while (idx < end)
+      {
+         crc = (crc >>> 8) ^ t[(crc^data[idx]) & 0xFF];
+         idx++;
+      }
+
+      return ~crc;
+   }
+}
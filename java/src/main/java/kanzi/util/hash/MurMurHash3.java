@@ -66,7 +66,7 @@ public class MurMurHash3
      {
          final int end = offset + length - 4;
          
-         for ( ; n<end; n+=4)
+         for ( ; n<=end; n+=4)
          {
             int k1 = Memory.LittleEndian.readInt32(data, n);
             k1 *= C1;
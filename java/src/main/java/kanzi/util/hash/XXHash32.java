@@ -31,6 +31,10 @@ public class XXHash32
 
   
   private int seed;
+  private int v1, v2, v3, v4; // streaming state
+  private long total;
+  private final byte[] buffer;
+  private int bufferSize;
 
   
   public XXHash32()
@@ -41,13 +45,106 @@ public class XXHash32
 
   public XXHash32(int seed)
   {
-     this.seed = seed;
+     this.buffer = new byte[16];
+     this.setSeed(seed);
   }
 
   
+  // Also resets the streaming state
   public void setSeed(int seed)
   {
      this.seed = seed;
+     this.reset();
+  }
+
+
+  // Start a new streaming digest (with the current seed)
+  public void reset()
+  {
+     this.v1 = this.seed + PRIME32_1 + PRIME32_2;
+     this.v2 = this.seed + PRIME32_2;
+     this.v3 = this.seed;
+     this.v4 = this.seed - PRIME32_1;
+     this.total = 0;
+     this.bufferSize = 0;
+  }
+
+
+  // Add data to the streaming digest. The digest of several updates is the
+  // hash of the concatenated data. Not thread safe (unlike hash()).
+  public void update(byte[] data, int offset, int length)
+  {
+     final int end = offset + length;
+     int idx = offset;
+     this.total += length;
+
+     if (this.bufferSize + length < 16)
+     {
+        System.arraycopy(data, idx, this.buffer, this.bufferSize, length);
+        this.bufferSize += length;
+        return;
+     }
+
+     if (this.bufferSize > 0)
+     {
+        // Complete the pending stripe
+        final int n = 16 - this.bufferSize;
+        System.arraycopy(data, idx, this.buffer, this.bufferSize, n);
+        idx += n;
+        this.bufferSize = 0;
+        this.v1 = round(this.v1, Memory.LittleEndian.readInt32(this.buffer, 0));
+        this.v2 = round(this.v2, Memory.LittleEndian.readInt32(this.buffer, 4));
+        this.v3 = round(this.v3, Memory.LittleEndian.readInt32(this.buffer, 8));
+        this.v4 = round(this.v4, Memory.LittleEndian.readInt32(this.buffer, 12));
+     }
+
+     if (idx <= end - 16)
+     {
+        final int end16 = end - 16;
+        int v1 = this.v1;
+        int v2 = this.v2;
+        int v3 = this.v3;
+        int v4 = this.v4;
+
+        do
+        {
+           v1 = round(v1, Memory.LittleEndian.readInt32(data, idx));
+           v2 = round(v2, Memory.LittleEndian.readInt32(data, idx+4));
+           v3 = round(v3, Memory.LittleEndian.readInt32(data, idx+8));
+           v4 = round(v4, Memory.LittleEndian.readInt32(data, idx+12));
+           idx += 16;
+        }
+        while (idx <= end16);
+
+        this.v1 = v1;
+        this.v2 = v2;
+        this.v3 = v3;
+        this.v4 = v4;
+     }
+
+     this.bufferSize = end - idx;
+     System.arraycopy(data, idx, this.buffer, 0, this.bufferSize);
+  }
+
+
+  // Return the hash of the data added since the last reset. More data can
+  // be added after this call.
+  public int digest()
+  {
+     int h32;
+
+     if (this.total >= 16)
+     {
+        h32 = ((this.v1 << 1)  | (this.v1 >>> 31)) + ((this.v2 << 7)  | (this.v2 >>> 25)) +
+              ((this.v3 << 12) | (this.v3 >>> 20)) + ((this.v4 << 18) | (this.v4 >>> 14));
+     }
+     else
+     {
+        h32 = this.seed + PRIME32_5;
+     }
+
+     h32 += (int) this.total;
+     return finish(h32, this.buffer, 0, this.bufferSize);
   }
   
   
@@ -90,7 +187,13 @@ public class XXHash32
       }
 
       h32 += length;
+      return finish(h32, data, idx, end);
+   }
 
+
+   // Process the last bytes (less than 16) and mix the bits
+   private static int finish(int h32, byte[] data, int idx, int end)
+   {
       while (idx <= end - 4) 
       {
          h32 += ((Memory.LittleEndian.readInt32(data, idx)) * PRIME32_3);
@@ -31,6 +31,10 @@ public class XXHash64
 
 
   private long seed;
+  private long v1, v2, v3, v4; // streaming state
+  private long total;
+  private final byte[] buffer;
+  private int bufferSize;
 
 
   public XXHash64()
@@ -41,13 +45,136 @@ public class XXHash64
 
   public XXHash64(long seed)
   {
-     this.seed = seed;
+     this.buffer = new byte[32];
+     this.setSeed(seed);
   }
 
 
+  // Also resets the streaming state
   public void setSeed(long seed)
   {
      this.seed = seed;
+     this.reset();
+  }
+
+
+  // Start a new streaming digest (with the current seed)
+  public void reset()
+  {
+     this.v1 = this.seed + PRIME64_1 + PRIME64_2;
+     this.v2 = this.seed + PRIME64_2;
+     this.v3 = this.seed;
+     this.v4 = this.seed - PRIME64_1;
+     this.total = 0;
+     this.bufferSize = 0;
+  }
+
+
+  // Add the 8 bytes of the value (little endian) to the streaming digest
+  public void update(long value)
+  {
+     if (this.bufferSize > 24)
+     {
+        final byte[] buf = new byte[8];
+        Memory.LittleEndian.writeLong64(buf, 0, value);
+        this.update(buf, 0, 8);
+        return;
+     }
+
+     // Fast path (no allocation): the value fits in the pending stripe
+     Memory.LittleEndian.writeLong64(this.buffer, this.bufferSize, value);
+     this.bufferSize += 8;
+     this.total += 8;
+
+     if (this.bufferSize == 32)
+     {
+        this.bufferSize = 0;
+        this.processBuffer();
+     }
+  }
+
+
+  // Add data to the streaming digest. The digest of several updates is the
+  // hash of the concatenated data. Not thread safe (unlike hash()).
+  public void update(byte[] data, int offset, int length)
+  {
+     final int end = offset + length;
+     int idx = offset;
+     this.total += length;
+
+     if (this.bufferSize + length < 32)
+     {
+        System.arraycopy(data, idx, this.buffer, this.bufferSize, length);
+        this.bufferSize += length;
+        return;
+     }
+
+     if (this.bufferSize > 0)
+     {
+        // Complete the pending stripe
+        final int n = 32 - this.bufferSize;
+        System.arraycopy(data, idx, this.buffer, this.bufferSize, n);
+        idx += n;
+        this.bufferSize = 0;
+        this.processBuffer();
+     }
+
+     if (idx <= end - 32)
+     {
+        final int end32 = end - 32;
+        long v1 = this.v1;
+        long v2 = this.v2;
+        long v3 = this.v3;
+        long v4 = this.v4;
+
+        do
+        {
+           v1 = round(v1, Memory.LittleEndian.readLong64(data, idx));
+           v2 = round(v2, Memory.LittleEndian.readLong64(data, idx+8));
+           v3 = round(v3, Memory.LittleEndian.readLong64(data, idx+16));
+           v4 = round(v4, Memory.LittleEndian.readLong64(data, idx+24));
+           idx += 32;
+        }
+        while (idx <= end32);
+
+        this.v1 = v1;
+        this.v2 = v2;
+        this.v3 = v3;
+        this.v4 = v4;
+     }
+
+     this.bufferSize = end - idx;
+     System.arraycopy(data, idx, this.buffer, 0, this.bufferSize);
+  }
+
+
+  // Process the stripe stored in the internal buffer
+  private void processBuffer()
+  {
+     this.v1 = round(this.v1, Memory.LittleEndian.readLong64(this.buffer, 0));
+     this.v2 = round(this.v2, Memory.LittleEndian.readLong64(this.buffer, 8));
+     this.v3 = round(this.v3, Memory.LittleEndian.readLong64(this.buffer, 16));
+     this.v4 = round(this.v4, Memory.LittleEndian.readLong64(this.buffer, 24));
+  }
+
+
+  // Return the hash of the data added since the last reset. More data can
+  // be added after this call.
+  public long digest()
+  {
+     long h64;
+
+     if (this.total >= 32)
+     {
+        h64 = converge(this.v1, this.v2, this.v3, this.v4);
+     }
+     else
+     {
+        h64 = this.seed + PRIME64_5;
+     }
+
+     h64 += this.total;
+     return finish(h64, this.buffer, 0, this.bufferSize);
   }
 
 
@@ -81,13 +208,7 @@ public class XXHash64
         }
         while (idx <= end32);
 
-        h64  = ((v1 << 1)  | (v1 >>> 31)) + ((v2 << 7)  | (v2 >>> 25)) +
-               ((v3 << 12) | (v3 >>> 20)) + ((v4 << 18) | (v4 >>> 14));
-
-        h64 = mergeRound(h64, v1);
-        h64 = mergeRound(h64, v2);
-        h64 = mergeRound(h64, v3);
-        h64 = mergeRound(h64, v4);
+        h64 = converge(v1, v2, v3, v4);
       }
       else
       {
@@ -95,7 +216,25 @@ public class XXHash64
       }
 
       h64 += length;
+      return finish(h64, data, idx, end);
+   }
 
+
+   private static long converge(long v1, long v2, long v3, long v4)
+   {
+      long h64  = ((v1 << 1)  | (v1 >>> 63)) + ((v2 << 7)  | (v2 >>> 57)) +
+                  ((v3 << 12) | (v3 >>> 52)) + ((v4 << 18) | (v4 >>> 46));
+
+      h64 = mergeRound(h64, v1);
+      h64 = mergeRound(h64, v2);
+      h64 = mergeRound(h64, v3);
+      return mergeRound(h64, v4);
+   }
+
+
+   // Process the last bytes (less than 32) and mix the bits
+   private static long finish(long h64, byte[] data, int idx, int end)
+   {
       while (idx+8 <= end)
       {
          h64 ^= round(0, Memory.LittleEndian.readLong64(data, idx));
@@ -105,7 +244,7 @@ public class XXHash64
 
       while (idx+4 <= end)
       {
-         h64 ^= (Memory.LittleEndian.readInt32(data, idx) * PRIME64_1);
+         h64 ^= ((Memory.LittleEndian.readInt32(data, idx) & 0xFFFFFFFFL) * PRIME64_1);
          h64 = ((h64 << 23) | (h64 >>> 41)) * PRIME64_2 + PRIME64_3;
          idx += 4;
       }
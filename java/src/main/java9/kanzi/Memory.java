@@ -0,0 +1,165 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+                http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package kanzi;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+
+// Java 9+ version of kanzi.Memory (multi-release jar). The byte array views
+// compile each access to a single (unaligned) load or store.
+public class Memory
+{
+   private Memory()
+   {
+   }
+
+
+   // Read, write big endian, regardless of CPU endianness
+   public static class BigEndian
+   {
+      private static final VarHandle LONG64 = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+      private static final VarHandle INT32 = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+      private static final VarHandle INT16 = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
+
+      private BigEndian()
+      {
+      }
+
+      public static long readLong64(byte[] buf, int offset)
+      {
+         return (long) LONG64.get(buf, offset);
+      }
+
+
+      public static int readInt32(byte[] buf, int offset)
+      {
+         return (int) INT32.get(buf, offset);
+      }
+
+
+      public static int readInt16(byte[] buf, int offset)
+      {
+         return ((short) INT16.get(buf, offset)) & 0xFFFF;
+      }
+
+
+      public static void writeLong64(byte[] buf, int offset, long val)
+      {
+         LONG64.set(buf, offset, val);
+      }
+
+
+      public static void writeInt32(byte[] buf, int offset, int val)
+      {
+         INT32.set(buf, offset, val);
+      }
+
+
+      public static void writeInt16(byte[] buf, int offset, int val)
+      {
+         INT16.set(buf, offset, (short) val);
+      }
+   }
+
+
+   // Read, write little endian, regardless of CPU endianness
+   public static class LittleEndian
+   {
+      private static final VarHandle LONG64 = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+      private static final VarHandle INT32 = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+      private static final VarHandle INT16 = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
+
+      private LittleEndian()
+      {
+      }
+
+
+      public static long readLong64(byte[] buf, int offset)
+      {
+         return (long) LONG64.get(buf, offset);
+      }
+
+
+      public static int readInt32(byte[] buf, int offset)
+      {
+         return (int) INT32.get(buf, offset);
+      }
+
+
+      public static int readInt16(byte[] buf, int offset)
+      {
+         return ((short) INT16.get(buf, offset)) & 0xFFFF;
+      }
+
+
+      public static void writeLong64(byte[] buf, int offset, long val)
+      {
+         LONG64.set(buf, offset, val);
+      }
+
+
+      public static void writeInt32(byte[] buf, int offset, int val)
+      {
+         INT32.set(buf, offset, val);
+      }
+
+
+      public static void writeInt16(byte[] buf, int offset, int val)
+      {
+         INT16.set(buf, offset, (short) val);
+      }
+   }
+
+
+   public static void main(String[] args)
+   {
+      int n = 0x01020304;
+      byte[] buf = new byte[4];
+      System.out.println("Is big endian: "+(ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN));
+
+      {
+         Memory.BigEndian.writeInt32(buf, 0, n);
+         System.out.println(buf[0]+" "+buf[1]+" "+buf[2]+" "+buf[3]);
+         int p = Memory.BigEndian.readInt32(buf, 0);
+         System.out.println(Integer.toHexString(p));
+      }
+
+      {
+         Memory.LittleEndian.writeInt32(buf, 0, n);
+         System.out.println(buf[0]+" "+buf[1]+" "+buf[2]+" "+buf[3]);
+         int p = Memory.LittleEndian.readInt32(buf, 0);
+         System.out.println(Integer.toHexString(p));
+      }
+
+      {
+         Memory.BigEndian.writeInt32(buf, 0, n);
+         System.out.println(buf[0]+" "+buf[1]+" "+buf[2]+" "+buf[3]);
+         int p = Memory.LittleEndian.readInt32(buf, 0);
+         System.out.println(Integer.toHexString(p));
+      }
+
+      {
+         Memory.LittleEndian.writeInt32(buf, 0, n);
+         System.out.println(buf[0]+" "+buf[1]+" "+buf[2]+" "+buf[3]);
+         int p = Memory.BigEndian.readInt32(buf, 0);
+         System.out.println(Integer.toHexString(p));
+      }
+   }
+}
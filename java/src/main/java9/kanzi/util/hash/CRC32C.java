@@ -0,0 +1,35 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+                http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package kanzi.util.hash;
+
+
+// Java 9+ version of kanzi.util.hash.CRC32C (multi-release jar). The JDK
+// implementation is an intrinsic (CRC32 instructions on x86 and ARM).
+public class CRC32C
+{
+   public int hash(byte[] data)
+   {
+      return this.hash(data, 0, data.length);
+   }
+
+
+   public int hash(byte[] data, int offset, int length)
+   {
+      final java.util.zip.CRC32C crc = new java.util.zip.CRC32C();
+      crc.update(data, offset, length);
+      return (int) crc.getValue();
+   }
+}
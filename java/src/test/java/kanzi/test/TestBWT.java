@@ -15,9 +15,15 @@ limitations under the License.
 
 package kanzi.test;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import kanzi.ByteTransform;
 import kanzi.SliceByteArray;
+import kanzi.function.BWTBlockCodec;
 import kanzi.transform.BWT;
 import kanzi.transform.BWTS;
 import org.junit.Assert;
@@ -31,6 +37,9 @@ public class TestBWT
    {
       Assert.assertTrue(testCorrectness(true, 200));
       Assert.assertTrue(testCorrectness(false, 200));
+      Assert.assertTrue(testConcurrency(4));
+      Assert.assertTrue(testReuse());
+      Assert.assertTrue(testSmallBlocks());
    }
    
    
@@ -61,6 +70,15 @@ public class TestBWT
       
       if (testCorrectness(false, 20) == false)
          System.exit(1);
+
+      if (testConcurrency(4) == false)
+         System.exit(1);
+
+      if (testReuse() == false)
+         System.exit(1);
+
+      if (testSmallBlocks() == false)
+         System.exit(1);
       
       testSpeed(true);
       testSpeed(false);
@@ -186,6 +204,238 @@ public class TestBWT
    }
     
     
+   // The concurrent forward transform must produce the same output as the
+   // sequential one, whatever the suffix sorter
+   public static boolean testConcurrency(int jobs)
+   {
+      System.out.println("\nBWT Concurrency test");
+      ExecutorService pool = Executors.newFixedThreadPool(jobs);
+      Random rnd = new Random(12345);
+
+      try
+      {
+         for (int ii=1; ii<=3; ii++)
+         {
+            byte[] buf1 = new byte[(ii == 3) ? 9*1024*1024 : 4*1024*1024];
+
+            for (int i=0; i<buf1.length; i++)
+            {
+               if (ii == 1)
+                  buf1[i] = (byte) (65 + rnd.nextInt(16));
+               else // repetitive data with small alphabet
+                  buf1[i] = (byte) ((i % 1000 < 900) ? (i % 97) : 65 + rnd.nextInt(4));
+            }
+
+            byte[] buf2 = new byte[buf1.length];
+            byte[] buf3 = new byte[buf1.length];
+            BWT bwt1 = new BWT();
+            bwt1.forward(new SliceByteArray(buf1, 0), new SliceByteArray(buf2, 0));
+
+            // Both suffix sorters
+            for (String sorter : new String[] { "DIVSUFSORT", "SAIS" })
+            {
+               Map<String, Object> ctx = new HashMap<>();
+               ctx.put("jobs", jobs);
+               ctx.put("pool", pool);
+               ctx.put("suffixSorter", sorter);
+               BWT bwt2 = new BWT(ctx);
+               bwt2.forward(new SliceByteArray(buf1, 0), new SliceByteArray(buf3, 0));
+
+               for (int i=0; i<BWT.getBWTChunks(buf1.length); i++)
+               {
+                  if (bwt1.getPrimaryIndex(i) != bwt2.getPrimaryIndex(i))
+                  {
+                     System.out.println(sorter+": different primary index "+i);
+                     return false;
+                  }
+               }
+
+               for (int i=0; i<buf1.length; i++)
+               {
+                  if (buf2[i] != buf3[i])
+                  {
+                     System.out.println(sorter+": different at index "+i);
+                     return false;
+                  }
+               }
+
+               System.out.println("Test "+ii+" ("+sorter+"): identical");
+            }
+
+            Map<String, Object> ctx = new HashMap<>();
+            ctx.put("jobs", jobs);
+            ctx.put("pool", pool);
+
+            if (ii < 3)
+            {
+               // BWTS: concurrent passes must produce the same output
+               new BWTS().forward(new SliceByteArray(buf1, 0), new SliceByteArray(buf2, 0));
+               new BWTS(ctx).forward(new SliceByteArray(buf1, 0), new SliceByteArray(buf3, 0));
+
+               for (int i=0; i<buf1.length; i++)
+               {
+                  if (buf2[i] != buf3[i])
+                  {
+                     System.out.println("BWTS: different at index "+i);
+                     return false;
+                  }
+               }
+
+               new BWTS(ctx).inverse(new SliceByteArray(buf3, 0), new SliceByteArray(buf2, 0));
+
+               for (int i=0; i<buf1.length; i++)
+               {
+                  if (buf1[i] != buf2[i])
+                  {
+                     System.out.println("BWTS: inverse different at index "+i);
+                     return false;
+                  }
+               }
+
+               System.out.println("Test "+ii+" (BWTS): identical");
+            }
+
+            // More chunks than the default (header extension)
+            ctx.put("bwtChunks", 64);
+            BWTBlockCodec codec = new BWTBlockCodec(ctx);
+            byte[] buf4 = new byte[codec.getMaxEncodedLength(buf1.length)];
+            SliceByteArray sa4 = new SliceByteArray(buf4, 0);
+
+            if (codec.forward(new SliceByteArray(buf1, 0), sa4) == false)
+            {
+               System.out.println("Failed to encode with "+BWT.getBWTChunks(buf1.length, 64)+" chunks");
+               return false;
+            }
+
+            ctx.remove("bwtChunks");
+            ctx.put("offHeap", true); // LF table in direct buffers
+            sa4.length = sa4.index;
+            sa4.index = 0;
+            new BWTBlockCodec(ctx).inverse(sa4, new SliceByteArray(buf3, 0));
+
+            for (int i=0; i<buf1.length; i++)
+            {
+               if (buf1[i] != buf3[i])
+               {
+                  System.out.println(BWT.getBWTChunks(buf1.length, 64)+" chunks: different at index "+i);
+                  return false;
+               }
+            }
+
+            System.out.println("Test "+ii+" ("+BWT.getBWTChunks(buf1.length, 64)+" chunks): identical");
+         }
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+
+      return true;
+   }
+
+
+   // The same codec instances encode and decode a sequence of blocks, big
+   // (inverse with chunks) and small, as in the compressed streams
+   public static boolean testReuse()
+   {
+      System.out.println("\nBWT Reuse test");
+      Random rnd = new Random(12345);
+      final int[] sizes = { 5*1024*1024, 4*1024*1024+5, 300, 4*1024*1024, 2, 70000 };
+      BWTBlockCodec codec1 = new BWTBlockCodec();
+      BWTBlockCodec codec2 = new BWTBlockCodec();
+
+      for (int ii=0; ii<sizes.length; ii++)
+      {
+         final int size = sizes[ii];
+         byte[] buf1 = new byte[size];
+         final int range = ((ii & 1) == 0) ? 256 : 4;
+
+         for (int i=0; i<size; i++)
+            buf1[i] = (byte) ((i % 1000 < 900) ? ((i+ii) % 97) : 65 + rnd.nextInt(range));
+
+         byte[] buf2 = new byte[codec1.getMaxEncodedLength(size)];
+         byte[] buf3 = new byte[buf2.length];
+         byte[] buf4 = new byte[size];
+         SliceByteArray sa2 = new SliceByteArray(buf2, 0);
+         SliceByteArray sa3 = new SliceByteArray(buf3, 0);
+
+         if (codec1.forward(new SliceByteArray(buf1, 0), sa2) == false)
+         {
+            System.out.println("Failed to encode block "+ii);
+            return false;
+         }
+
+         // A new codec must produce the same output
+         new BWTBlockCodec().forward(new SliceByteArray(buf1, 0), sa3);
+
+         if ((sa2.index != sa3.index) || (Arrays.equals(buf2, buf3) == false))
+         {
+            System.out.println("Different output for block "+ii);
+            return false;
+         }
+
+         sa2.length = sa2.index;
+         sa2.index = 0;
+
+         if ((codec2.inverse(sa2, new SliceByteArray(buf4, 0)) == false) || (Arrays.equals(buf1, buf4) == false))
+         {
+            System.out.println("Decoding error for block "+ii);
+            return false;
+         }
+      }
+
+      System.out.println("Identical");
+      return true;
+   }
+
+
+   // Blocks of 1 to 3 bytes with new and reused codecs (the header of a 1 byte
+   // block starts with 0x00, like the header extension)
+   public static boolean testSmallBlocks()
+   {
+      System.out.println("\nBWT Small blocks test");
+      BWTBlockCodec codec1 = new BWTBlockCodec();
+      BWTBlockCodec codec2 = new BWTBlockCodec();
+
+      for (int ii=0; ii<12; ii++)
+      {
+         final int size = 1 + (ii % 3);
+         byte[] buf1 = new byte[size];
+
+         for (int i=0; i<size; i++)
+            buf1[i] = (byte) (ii*7 + i*i);
+
+         for (int jj=0; jj<2; jj++)
+         {
+            // New codecs, then the reused ones
+            BWTBlockCodec enc = (jj == 0) ? new BWTBlockCodec() : codec1;
+            BWTBlockCodec dec = (jj == 0) ? new BWTBlockCodec() : codec2;
+            byte[] buf2 = new byte[enc.getMaxEncodedLength(size)];
+            byte[] buf3 = new byte[size];
+            SliceByteArray sa2 = new SliceByteArray(buf2, 0);
+
+            if (enc.forward(new SliceByteArray(buf1, 0), sa2) == false)
+            {
+               System.out.println("Failed to encode a block of size "+size);
+               return false;
+            }
+
+            sa2.length = sa2.index;
+            sa2.index = 0;
+
+            if ((dec.inverse(sa2, new SliceByteArray(buf3, 0)) == false) || (Arrays.equals(buf1, buf3) == false))
+            {
+               System.out.println("Decoding error for a block of size "+size);
+               return false;
+            }
+         }
+      }
+
+      System.out.println("Identical");
+      return true;
+   }
+
+
    public static void testSpeed(boolean isBWT)
    {
       System.out.println("\nBWT"+(!isBWT?"S":"")+" Speed test");
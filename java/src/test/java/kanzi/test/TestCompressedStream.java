@@ -0,0 +1,271 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+                http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package kanzi.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import kanzi.io.CompressedInputStream;
+import kanzi.io.CompressedOutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class TestCompressedStream
+{
+   public static void main(String[] args)
+   {
+      if (testBigBlock() == false)
+         System.exit(1);
+
+      if (testPreferROLZ() == false)
+         System.exit(1);
+
+      if (testAdaptive() == false)
+         System.exit(1);
+   }
+
+
+   @Test
+   public void testCompressedStream()
+   {
+      Assert.assertTrue(testBigBlock());
+      Assert.assertTrue(testPreferROLZ());
+      Assert.assertTrue(testAdaptive());
+   }
+
+
+   // Stream block size of 256 MB or more (40 bit block lengths) with a last
+   // block smaller than 256 MB
+   public static boolean testBigBlock()
+   {
+      System.out.println("Correctness Test - big stream block size");
+      byte[] input = new byte[100000];
+      new Random(12345).nextBytes(input);
+
+      // Make the data compressible
+      for (int i=0; i<input.length; i+=2)
+         input[i] = 0;
+
+      Map<String, Object> ctx = new HashMap<>();
+      ctx.put("blockSize", 1<<28);
+      ctx.put("transform", "NONE");
+      ctx.put("codec", "HUFFMAN");
+      ctx.put("checksum", true);
+      ctx.put("jobs", 1);
+      return roundTrip(input, ctx);
+   }
+
+
+   // Transform chain estimation of adaptive streams (package private method)
+   public static boolean testPreferROLZ()
+   {
+      System.out.println("Correctness Test - BWT/ROLZ estimation");
+
+      try
+      {
+         Method method = CompressedOutputStream.class.getDeclaredMethod("preferROLZ",
+            byte[].class, int.class, int.class, int[].class, int[].class);
+         method.setAccessible(true);
+         Random rnd = new Random(12345);
+
+         // Tables reused for all estimations (cleared by preferROLZ)
+         final int[] anchors = new int[1<<16];
+         final int[] freqs1 = new int[65536];
+
+         // One sample (small block) and sampled chunks (big block)
+         for (int size : new int[] { 10000, 1<<20 })
+         {
+            byte[] block = new byte[size+100];
+            final String[] names = { "random", "repeats", "text", "symbols" };
+            final boolean[] expected = { true, true, false, false };
+
+            for (int i=0; i<names.length; i++)
+            {
+               fill(block, 100, size, i, rnd);
+               final boolean res = (Boolean) method.invoke(null, block, 100, size, anchors, freqs1);
+
+               if (res != expected[i])
+               {
+                  System.out.println("Failure: "+names[i]+" data, size "+size+": expected "+
+                     ((expected[i] == true) ? "ROLZ" : "BWT"));
+                  return false;
+               }
+            }
+         }
+      }
+      catch (Exception e)
+      {
+         System.out.println("Failure: "+e);
+         return false;
+      }
+
+      System.out.println("Success");
+      return true;
+   }
+
+
+   // Adaptive stream with BWT and ROLZ blocks (reused transform chains)
+   public static boolean testAdaptive()
+   {
+      System.out.println("Correctness Test - adaptive stream (BWT and ROLZ blocks)");
+      final int blockSize = 256*1024;
+      byte[] input = new byte[10*blockSize+1000];
+      Random rnd = new Random(12345);
+      final int[] kinds = { 2, 1, 1, 3, 0, 2, 1, 3, 3, 1, 2 };
+
+      for (int i=0; i<kinds.length; i++)
+         fill(input, i*blockSize, Math.min(blockSize, input.length-i*blockSize), kinds[i], rnd);
+
+      ExecutorService pool = Executors.newFixedThreadPool(4);
+
+      try
+      {
+         for (int jobs : new int[] { 1, 4 })
+         {
+            Map<String, Object> ctx = new HashMap<>();
+            ctx.put("blockSize", blockSize);
+            ctx.put("transform", "BWT+RANK+ZRLT");
+            ctx.put("codec", "ANS0");
+            ctx.put("checksum", true);
+            ctx.put("adaptive", true);
+            ctx.put("jobs", jobs);
+            ctx.put("pool", pool);
+
+            if (roundTrip(input, ctx) == false)
+               return false;
+         }
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+
+      return true;
+   }
+
+
+   // 0: random bytes, 1: repeated random symbols, 2: words, 3: random symbols
+   // (16 letters). The first two favor ROLZ, the others BWT.
+   private static void fill(byte[] buf, int start, int length, int kind, Random rnd)
+   {
+      final int end = start + length;
+
+      switch (kind)
+      {
+         case 0:
+            for (int i=start; i<end; i++)
+               buf[i] = (byte) rnd.nextInt(256);
+
+            break;
+
+         case 1:
+            byte[] segment = new byte[2048];
+
+            for (int i=0; i<segment.length; i++)
+               segment[i] = (byte) ('a' + rnd.nextInt(16));
+
+            for (int i=start; i<end; i++)
+               buf[i] = segment[(i-start) % segment.length];
+
+            break;
+
+         case 2:
+            final String[] words = { "the", "quick", "brown", "fox", "jumps", "over",
+               "lazy", "dog", "and", "compression", "of", "block", "data", "is", "fast" };
+
+            for (int i=start; i<end; )
+            {
+               final String w = words[rnd.nextInt(words.length)] + " ";
+
+               for (int j=0; (j<w.length()) && (i<end); j++)
+                  buf[i++] = (byte) w.charAt(j);
+            }
+
+            break;
+
+         default:
+            for (int i=start; i<end; i++)
+               buf[i] = (byte) ('a' + rnd.nextInt(16));
+      }
+   }
+
+
+   private static boolean roundTrip(byte[] input, Map<String, Object> ctx)
+   {
+      try
+      {
+         ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+         try (CompressedOutputStream cos = new CompressedOutputStream(baos, new HashMap<>(ctx)))
+         {
+            cos.write(input, 0, input.length);
+         }
+
+         byte[] output = new byte[input.length];
+         int read = 0;
+         ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+
+         try (CompressedInputStream cis = new CompressedInputStream(bais, new HashMap<>(ctx)))
+         {
+            while (read < output.length)
+            {
+               final int n = cis.read(output, read, output.length-read);
+
+               if (n <= 0)
+                  break;
+
+               read += n;
+            }
+
+            if (cis.read() != -1)
+            {
+               System.out.println("Failure: more data than expected");
+               return false;
+            }
+         }
+
+         if (read != input.length)
+         {
+            System.out.println("Failure: decoded "+read+" bytes instead of "+input.length);
+            return false;
+         }
+
+         for (int i=0; i<input.length; i++)
+         {
+            if (input[i] != output[i])
+            {
+               System.out.println("Failure: different byte at index "+i);
+               return false;
+            }
+         }
+
+         System.out.println("Success ("+input.length+" => "+baos.size()+" bytes)");
+         return true;
+      }
+      catch (IOException e)
+      {
+         System.out.println("Failure: "+e.getMessage());
+         return false;
+      }
+   }
+}
@@ -24,6 +24,8 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.util.Random;
 import kanzi.BitStreamException;
 import kanzi.InputBitStream;
@@ -31,6 +33,9 @@ import kanzi.OutputBitStream;
 import kanzi.bitstream.DebugOutputBitStream;
 import kanzi.bitstream.DefaultInputBitStream;
 import kanzi.bitstream.DefaultOutputBitStream;
+import kanzi.bitstream.MappedInputBitStream;
+import kanzi.bitstream.PrefetchInputBitStream;
+import kanzi.bitstream.WriteBehindOutputBitStream;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -43,6 +48,10 @@ public class TestDefaultBitStream
       testCorrectnessAligned2();
       testCorrectnessMisaligned1();
       testCorrectnessMisaligned2();
+      testPrefetch();
+      testWriteBehind();
+      testBulk();
+      testMapped();
       testSpeed1(args); // Writes big output.bin file to local dir (or specified file name) !!!
       testSpeed2(args); // Writes big output.bin file to local dir (or specified file name) !!!
    }
@@ -55,6 +64,10 @@ public class TestDefaultBitStream
       Assert.assertTrue(testCorrectnessAligned2());
       Assert.assertTrue(testCorrectnessMisaligned1());
       Assert.assertTrue(testCorrectnessMisaligned2());
+      Assert.assertTrue(testPrefetch());
+      Assert.assertTrue(testWriteBehind());
+      Assert.assertTrue(testBulk());
+      Assert.assertTrue(testMapped());
    }
     
     
@@ -456,7 +469,444 @@ public class TestDefaultBitStream
       return true;
    }
 
-   
+
+   // The prefetching bitstream must return the same bits as the default one
+   // (values spanning several buffers)
+   public static boolean testPrefetch()
+   {
+      System.out.println("Correctness Test - prefetching input bitstream");
+      final int length = 100000;
+      long[] values = new long[length];
+      int[] sizes = new int[length];
+      Random rnd = new Random(12345);
+
+      try
+      {
+         for (int depth=1; depth<=4; depth+=3)
+         {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(8*length);
+            OutputBitStream obs = new DefaultOutputBitStream(baos, 16384);
+
+            for (int i=0; i<length; i++)
+            {
+               sizes[i] = 1 + rnd.nextInt(64);
+               values[i] = (sizes[i] == 64) ? rnd.nextLong() : rnd.nextLong() & ((1L<<sizes[i])-1);
+               obs.writeBits(values[i], sizes[i]);
+            }
+
+            obs.close();
+            InputStream is = new ByteArrayInputStream(baos.toByteArray());
+            InputBitStream ibs = new PrefetchInputBitStream(is, 16384, depth);
+
+            for (int i=0; i<length; i++)
+            {
+               if (ibs.readBits(sizes[i]) != values[i])
+               {
+                  System.out.println("Depth "+depth+": different value at index "+i);
+                  return false;
+               }
+            }
+
+            if (ibs.read() != obs.written())
+            {
+               System.out.println("Depth "+depth+": "+ibs.read()+" bits read, "+obs.written()+" written");
+               return false;
+            }
+
+            try
+            {
+               // Read past the end (padding bits of the last byte excluded)
+               ibs.readBits(8);
+               System.out.println("Depth "+depth+": no exception at the end of the stream");
+               return false;
+            }
+            catch (BitStreamException e)
+            {
+               System.out.println("Depth "+depth+": Success (end of stream: "+e.getMessage()+")");
+            }
+
+            ibs.close();
+         }
+
+         // Failing input streams (checked and unchecked exceptions)
+         for (int ii=0; ii<2; ii++)
+         {
+            final boolean unchecked = ii == 1;
+
+            InputStream failing = new InputStream()
+            {
+               private int count;
+
+               @Override
+               public int read() throws java.io.IOException
+               {
+                  if (++this.count < 50000)
+                     return this.count & 0xFF;
+
+                  if (unchecked == true)
+                     throw new IllegalStateException("Broken source");
+
+                  throw new java.io.IOException("Read error");
+               }
+            };
+
+            InputBitStream ibs = new PrefetchInputBitStream(failing, 16384, 2);
+
+            try
+            {
+               for (int i=0; i<length; i++)
+                  ibs.readBits(sizes[i]);
+
+               System.out.println("No exception with a failing input stream");
+               return false;
+            }
+            catch (BitStreamException e)
+            {
+               System.out.println("Success (failing input stream: "+e.getMessage()+")");
+            }
+
+            ibs.close();
+         }
+      }
+      catch (Exception e)
+      {
+         e.printStackTrace();
+         return false;
+      }
+
+      return true;
+   }
+
+
+   // The write behind bitstream must produce the same bits as the default one
+   // and report the errors of the underlying output stream
+   public static boolean testWriteBehind()
+   {
+      System.out.println("Correctness Test - write behind output bitstream");
+      final int length = 100000;
+      long[] values = new long[length];
+      int[] sizes = new int[length];
+      Random rnd = new Random(12345);
+
+      try
+      {
+         for (int depth=1; depth<=4; depth+=3)
+         {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(8*length);
+            OutputBitStream obs = new WriteBehindOutputBitStream(baos, 16384, depth);
+
+            for (int i=0; i<length; i++)
+            {
+               sizes[i] = 1 + rnd.nextInt(64);
+               values[i] = (sizes[i] == 64) ? rnd.nextLong() : rnd.nextLong() & ((1L<<sizes[i])-1);
+               obs.writeBits(values[i], sizes[i]);
+            }
+
+            obs.close();
+
+            if (baos.size() != (obs.written()+7)>>3)
+            {
+               System.out.println("Depth "+depth+": "+baos.size()+" bytes in output, "+obs.written()+" bits written");
+               return false;
+            }
+
+            InputBitStream ibs = new DefaultInputBitStream(new ByteArrayInputStream(baos.toByteArray()), 16384);
+
+            for (int i=0; i<length; i++)
+            {
+               if (ibs.readBits(sizes[i]) != values[i])
+               {
+                  System.out.println("Depth "+depth+": different value at index "+i);
+                  return false;
+               }
+            }
+
+            ibs.close();
+            System.out.println("Depth "+depth+": Success");
+         }
+
+         // Failing output streams (checked and unchecked exceptions)
+         for (int ii=0; ii<2; ii++)
+         {
+            final boolean unchecked = ii == 1;
+
+            OutputStream failing = new OutputStream()
+            {
+               @Override
+               public void write(int b) throws java.io.IOException
+               {
+                  if (unchecked == true)
+                     throw new IllegalStateException("Broken sink");
+
+                  throw new java.io.IOException("Disk full");
+               }
+            };
+
+            OutputBitStream obs = new WriteBehindOutputBitStream(failing, 16384, 2);
+
+            try
+            {
+               for (int i=0; i<length; i++)
+                  obs.writeBits(values[i], sizes[i]);
+
+               obs.close();
+               System.out.println("No exception with a failing output stream");
+               return false;
+            }
+            catch (BitStreamException e)
+            {
+               System.out.println("Success (failing output stream: "+e.getMessage()+")");
+            }
+         }
+      }
+      catch (Exception e)
+      {
+         e.printStackTrace();
+         return false;
+      }
+
+      return true;
+   }
+
+
+   public static boolean testBulk()
+   {
+      System.out.println("Correctness Test - bulk read/write of int arrays");
+      final int groups = 2000;
+      int[] widths = new int[groups];
+      int[] offsets = new int[groups+1];
+      int[] values = new int[groups*64];
+      Random rnd = new Random(12345);
+
+      try
+      {
+         ByteArrayOutputStream baos = new ByteArrayOutputStream(groups*64*4);
+         OutputBitStream obs = new DefaultOutputBitStream(baos, 16384);
+
+         // Groups of values of random width, misaligned by a single bit
+         for (int i=0; i<groups; i++)
+         {
+            final int len = rnd.nextInt(64);
+            widths[i] = 1 + rnd.nextInt(32);
+            offsets[i+1] = offsets[i] + len;
+
+            for (int j=offsets[i]; j<offsets[i+1]; j++)
+               values[j] = rnd.nextInt();
+
+            obs.writeBit(i&1);
+            obs.writeBits(values, offsets[i], len, widths[i]);
+         }
+
+         obs.close();
+         InputBitStream ibs = new DefaultInputBitStream(new ByteArrayInputStream(baos.toByteArray()), 16384);
+         int[] output = new int[64];
+
+         for (int i=0; i<groups; i++)
+         {
+            final int len = offsets[i+1] - offsets[i];
+            final int mask = (widths[i] == 32) ? -1 : (1<<widths[i]) - 1;
+
+            if (ibs.readBit() != (i&1))
+            {
+               System.out.println("Different bit before group "+i);
+               return false;
+            }
+
+            // Alternate bulk and single value reads
+            if ((i & 2) == 0)
+               ibs.readBits(output, 0, len, widths[i]);
+            else
+            {
+               for (int j=0; j<len; j++)
+                  output[j] = (int) ibs.readBits(widths[i]);
+            }
+
+            for (int j=0; j<len; j++)
+            {
+               if (output[j] != (values[offsets[i]+j] & mask))
+               {
+                  System.out.println("Group "+i+" (width "+widths[i]+"): different value at index "+j);
+                  return false;
+               }
+            }
+         }
+
+         ibs.close();
+         System.out.println("Success");
+      }
+      catch (Exception e)
+      {
+         e.printStackTrace();
+         return false;
+      }
+
+      return true;
+   }
+
+
+   // Reads (mixed sizes, skips, slices) over a file mapped in small chunks,
+   // checked against the file content
+   public static boolean testMapped()
+   {
+      System.out.println("Correctness Test - memory mapped input bitstream");
+      Random rnd = new Random(12345);
+      byte[] data = new byte[20011];
+      rnd.nextBytes(data);
+      File file = null;
+
+      try
+      {
+         file = File.createTempFile("kanzi", ".bin");
+
+         try (FileOutputStream fos = new FileOutputStream(file))
+         {
+            fos.write(data);
+         }
+
+         MappedInputBitStream ibs;
+
+         try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+         {
+            FileChannel channel = raf.getChannel();
+            ibs = new MappedInputBitStream(channel, 1024);
+         }
+
+         final long length = (long) data.length << 3;
+         long pos = 0;
+         byte[] buf = new byte[1000];
+
+         while (pos < length - 9000)
+         {
+            final int op = rnd.nextInt(4);
+
+            if (op == 0)
+            {
+               final int count = 1 + rnd.nextInt(64);
+
+               if (ibs.readBits(count) != getBits(data, pos, count))
+               {
+                  System.out.println("Different value at bit "+pos);
+                  return false;
+               }
+
+               pos += count;
+            }
+            else if (op == 1)
+            {
+               // Aligned or not, crossing chunks
+               final int count = rnd.nextInt(buf.length<<3);
+               ibs.readBits(buf, 0, count);
+
+               for (int i=0; i<count; i+=8)
+               {
+                  final int n = Math.min(8, count-i);
+
+                  if (((buf[i>>3]&0xFF) >>> (8-n)) != getBits(data, pos+i, n))
+                  {
+                     System.out.println("Different array at bit "+(pos+i));
+                     return false;
+                  }
+               }
+
+               pos += count;
+            }
+            else if (op == 2)
+            {
+               final int count = rnd.nextInt(100);
+               ibs.skip(count);
+               pos += count;
+            }
+            else
+            {
+               // Independent slice, the position of the stream is not changed
+               final long offset = (long) rnd.nextInt(data.length<<3);
+               final long count = Math.min(rnd.nextInt(20000), length-offset);
+               MappedInputBitStream slice = ibs.slice(offset, count);
+               long n = 0;
+
+               while (n < count)
+               {
+                  final int c = (int) Math.min(1+rnd.nextInt(64), count-n);
+
+                  if (slice.readBits(c) != getBits(data, offset+n, c))
+                  {
+                     System.out.println("Different value in slice at bit "+(offset+n));
+                     return false;
+                  }
+
+                  n += c;
+               }
+
+               // Zero padded up to the end of the last byte
+               if (((n & 7) != 0) && (slice.readBits(8-(int)(n&7)) != 0))
+               {
+                  System.out.println("Slice not zero padded");
+                  return false;
+               }
+
+               if (slice.hasMoreToRead() == true)
+               {
+                  System.out.println("Slice longer than expected");
+                  return false;
+               }
+            }
+
+            if (ibs.read() != pos)
+            {
+               System.out.println("Wrong number of bits read: "+ibs.read()+" instead of "+pos);
+               return false;
+            }
+         }
+
+         // Read up to the end then past the end
+         ibs.skip(length-pos-7);
+
+         if (ibs.readBits(7) != getBits(data, length-7, 7))
+         {
+            System.out.println("Different last bits");
+            return false;
+         }
+
+         try
+         {
+            ibs.readBit();
+            System.out.println("No error reading past the end of stream");
+            return false;
+         }
+         catch (BitStreamException e)
+         {
+            // Expected
+         }
+
+         ibs.close();
+         System.out.println("Success");
+      }
+      catch (Exception e)
+      {
+         e.printStackTrace();
+         return false;
+      }
+      finally
+      {
+         if (file != null)
+            file.delete();
+      }
+
+      return true;
+   }
+
+
+   private static long getBits(byte[] data, long pos, int count)
+   {
+      long res = 0;
+
+      for (long i=pos; i<pos+count; i++)
+         res = (res<<1) | ((data[(int) (i>>3)] >> (7-(int) (i&7))) & 1);
+
+      return res;
+   }
+
+
    public static boolean testSpeed1(String[] args)
    {    
       // Test speed
@@ -16,14 +16,23 @@ limitations under the License.
 package kanzi.test;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 import kanzi.ByteFunction;
+import kanzi.Memory;
 import kanzi.SliceByteArray;
+import kanzi.function.ByteFunctionFactory;
+import kanzi.function.CustomDictionary;
+import kanzi.function.DedupCodec;
 import kanzi.function.LZCodec;
 import kanzi.function.RLT;
 import kanzi.function.ROLZCodec;
+import kanzi.function.SBRZRLT;
 import kanzi.function.SRT;
+import kanzi.function.TextCodec;
 import kanzi.function.ZRLT;
+import kanzi.transform.SBRT;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -101,22 +110,49 @@ public class TestFunctions
    {
       System.out.println("\n\nTestSRT");
       Assert.assertTrue(testCorrectness("SRT"));
+      Assert.assertTrue(testReuse("SRT"));
       //testSpeed("SRT");
       System.out.println("\n\nTestLZ");
       Assert.assertTrue(testCorrectness("LZ"));
+      Assert.assertTrue(testReuse("LZ"));
       //testSpeed("LZ");
+      System.out.println("\n\nTestLZD");
+      Assert.assertTrue(testCorrectness("LZD"));
+      Assert.assertTrue(testReuse("LZD"));
+      Assert.assertTrue(testDictionaryCollision());
+      System.out.println("\n\nTestLZP");
+      Assert.assertTrue(testCorrectness("LZP"));
+      Assert.assertTrue(testReuse("LZP"));
+      System.out.println("\n\nTestDEDUP");
+      Assert.assertTrue(testCorrectness("DEDUP"));
+      Assert.assertTrue(testReuse("DEDUP"));
+      Assert.assertTrue(testDedupRejectedBlock());
       System.out.println("\n\nTestROLZ");
       Assert.assertTrue(testCorrectness("ROLZ"));
+      Assert.assertTrue(testReuse("ROLZ"));
       //testSpeed("ROLZ");   
       System.out.println("\n\nTestROLZX");
       Assert.assertTrue(testCorrectness("ROLZX"));
+      Assert.assertTrue(testReuse("ROLZX"));
       //testSpeed("ROLZX");   
       System.out.println("\n\nTestZRLT");
       Assert.assertTrue(testCorrectness("ZRLT"));
+      Assert.assertTrue(testReuse("ZRLT"));
       //testSpeed("ZRLT");
       System.out.println("\n\nTestRLT");
       Assert.assertTrue(testCorrectness("RLT"));
+      Assert.assertTrue(testReuse("RLT"));
       //testSpeed("RLT");   
+      System.out.println("\n\nTestMTFZ");
+      Assert.assertTrue(testCorrectness("MTFZ"));
+      Assert.assertTrue(testReuse("MTFZ"));
+      Assert.assertTrue(testFused(SBRT.MODE_MTF));
+      System.out.println("\n\nTestRANKZ");
+      Assert.assertTrue(testCorrectness("RANKZ"));
+      Assert.assertTrue(testReuse("RANKZ"));
+      Assert.assertTrue(testFused(SBRT.MODE_RANK));
+      System.out.println("\n\nTestTEXT");
+      Assert.assertTrue(testReuse("TEXT"));
    }
    
    
@@ -127,9 +163,39 @@ public class TestFunctions
          case "LZ":
             return new LZCodec();
 
+         case "LZP":
+         {
+            Map<String, Object> ctx = new HashMap<>();
+            ctx.put("lz", ByteFunctionFactory.LZP_TYPE);
+            return new LZCodec(ctx);
+         }
+
+         case "DEDUP":
+            return new DedupCodec();
+
+         case "LZD":
+         {
+            // LZ with a custom dictionary prefix
+            byte[] prefix = new byte[4096];
+            Random rnd = new Random(12345);
+
+            for (int i=0; i<prefix.length; i++)
+               prefix[i] = (byte) rnd.nextInt(64);
+
+            Map<String, Object> ctx = new HashMap<>();
+            ctx.put("dictionary", CustomDictionary.register(new byte[0], prefix));
+            return new LZCodec(ctx);
+         }
+
          case "ZRLT":
             return new ZRLT();
 
+         case "MTFZ":
+            return new SBRZRLT(SBRT.MODE_MTF);
+
+         case "RANKZ":
+            return new SBRZRLT(SBRT.MODE_RANK);
+
          case "RLT":
             return new RLT();
 
@@ -142,6 +208,9 @@ public class TestFunctions
          case "ROLZX":
             return new ROLZCodec(true);
 
+         case "TEXT":
+            return new TextCodec();
+
          default:
             System.out.println("No such byte function: "+name);
             return null;
@@ -359,7 +428,224 @@ public class TestFunctions
       return true;
    }
 
-    
+
+   // Check that the fused transform produces the same output as SBRT followed
+   // by ZRLT on BWT like data (runs of symbols)
+   private static boolean testFused(int mode)
+   {
+      System.out.println("Fused test for mode " + mode);
+      Random rnd = new Random();
+      SBRZRLT fused = new SBRZRLT(mode);
+      SBRT sbrt = new SBRT(mode);
+      ZRLT zrlt = new ZRLT();
+
+      for (int ii=0; ii<20; ii++)
+      {
+         final int size = 1024 << (ii % 8);
+         byte[] input = new byte[size];
+         byte[] tmp = new byte[size];
+         byte[] output1 = new byte[size];
+         byte[] output2 = new byte[size];
+         byte[] reverse = new byte[size];
+         final int range = 4 + rnd.nextInt(252);
+
+         for (int i=0; i<size; )
+         {
+            final int len = (rnd.nextInt(4) == 0) ? 1 + rnd.nextInt(64) : 1;
+            final byte val = (byte) rnd.nextInt(range);
+
+            for (int j=0; (j<len) && (i<size); j++, i++)
+               input[i] = val;
+         }
+
+         SliceByteArray sa1 = new SliceByteArray(input, 0);
+         SliceByteArray sa2 = new SliceByteArray(output1, 0);
+         final boolean res1 = fused.forward(sa1, sa2);
+         final int len1 = sa2.index;
+         sa1.index = 0;
+         sbrt.forward(sa1, new SliceByteArray(tmp, 0));
+         sa2 = new SliceByteArray(output2, 0);
+         final boolean res2 = zrlt.forward(new SliceByteArray(tmp, 0), sa2);
+
+         if (res1 != res2)
+         {
+            System.out.println("Different result for test "+ii);
+            return false;
+         }
+
+         if (res1 == false)
+            continue;
+
+         if ((len1 != sa2.index) || 
+            (Arrays.equals(Arrays.copyOf(output1, len1), Arrays.copyOf(output2, len1)) == false))
+         {
+            System.out.println("Different output for test "+ii);
+            return false;
+         }
+
+         if ((fused.inverse(new SliceByteArray(output1, len1, 0), new SliceByteArray(reverse, 0)) == false) 
+            || (Arrays.equals(input, reverse) == false))
+         {
+            System.out.println("Decoding error for test "+ii);
+            return false;
+         }
+      }
+
+      System.out.println("Identical");
+      return true;
+   }
+
+
+   // Process several blocks with the same instances and check that the output
+   // does not depend on the state left by previous blocks
+   // Two different dictionaries with the same id must not both be registered
+   public static boolean testDictionaryCollision()
+   {
+      System.out.println("Dictionary id collision test");
+      byte[] prefix1 = new byte[8];
+      byte[] prefix2 = new byte[8];
+      Memory.BigEndian.writeLong64(prefix1, 0, 0xE500680230E3C5C3L);
+      Memory.BigEndian.writeLong64(prefix2, 0, 0xDBFDDCFDA3766409L);
+      final int id = CustomDictionary.register(new byte[0], prefix1);
+
+      // Same content, same id
+      if (CustomDictionary.register(new byte[0], prefix1.clone()) != id)
+      {
+         System.out.println("Different id for the same dictionary");
+         return false;
+      }
+
+      try
+      {
+         CustomDictionary.register(new byte[0], prefix2);
+         System.out.println("Failure: dictionary with colliding id "+Integer.toHexString(id)+" registered");
+         return false;
+      }
+      catch (IllegalArgumentException e)
+      {
+         System.out.println("Rejected: "+e.getMessage());
+      }
+
+      if (Arrays.equals(CustomDictionary.get(id).getPrefix(), prefix1) == false)
+      {
+         System.out.println("Failure: registered dictionary was replaced");
+         return false;
+      }
+
+      return true;
+   }
+
+
+   // A rejected block (not enough gain) must not change the output of the
+   // next blocks of a reused instance
+   public static boolean testDedupRejectedBlock()
+   {
+      System.out.println("Reuse test for DEDUP after a rejected block");
+      Random rnd = new Random(12345);
+
+      for (int ii=0; ii<20; ii++)
+      {
+         byte[] block1 = new byte[6000];
+         byte[] block2 = new byte[65536];
+         rnd.nextBytes(block1);
+         rnd.nextBytes(block2);
+
+         // The second block starts like the first one, with a repeat: its
+         // positions in [3000, 3600) are not hashed (inside a match). A later
+         // repeat is longer from 3100 than from 1100, so entries left by the
+         // first block for [3000, 3600) change the selected match.
+         System.arraycopy(block1, 0, block2, 0, block1.length);
+         System.arraycopy(block1, 3000, block2, 1000, 600);
+         System.arraycopy(block1, 3100, block2, 40000, 600);
+
+         DedupCodec reused = new DedupCodec();
+         byte[] output1 = new byte[reused.getMaxEncodedLength(block2.length)];
+         byte[] output2 = new byte[output1.length];
+
+         if (reused.forward(new SliceByteArray(block1, 0), new SliceByteArray(output1, 0)) == true)
+         {
+            System.out.println("Failure: random block not rejected");
+            return false;
+         }
+
+         SliceByteArray sa1 = new SliceByteArray(output1, 0);
+         SliceByteArray sa2 = new SliceByteArray(output2, 0);
+         final boolean res1 = reused.forward(new SliceByteArray(block2, 0), sa1);
+         final boolean res2 = new DedupCodec().forward(new SliceByteArray(block2, 0), sa2);
+
+         if ((res1 != res2) || (sa1.index != sa2.index) ||
+            (Arrays.equals(Arrays.copyOf(output1, sa1.index), Arrays.copyOf(output2, sa2.index)) == false))
+         {
+            System.out.println("Different output after a rejected block ("+sa1.index+" <-> "+sa2.index+" bytes)");
+            return false;
+         }
+      }
+
+      System.out.println("Identical");
+      return true;
+   }
+
+
+   private static boolean testReuse(String name)
+   {
+      System.out.println("Reuse test for " + name);
+      Random rnd = new Random();
+      ByteFunction f1 = getByteFunction(name);
+      ByteFunction f2 = getByteFunction(name);
+      final byte[] text = "etaoin shrdlu cmfwyp vbgkqj xz ETAOIN,\n".getBytes();
+
+      for (int ii=0; ii<10; ii++)
+      {
+         final int size = 4096 << (ii & 3);
+         byte[] input = new byte[size];
+         byte[] output1 = new byte[f1.getMaxEncodedLength(size)];
+         byte[] output2 = new byte[output1.length];
+         byte[] reverse = new byte[size];
+
+         // Repeated random fragments
+         for (int i=0; i<size; )
+         {
+            final int len = Math.min(64+rnd.nextInt(256), size-i);
+            final int ref = (i > 1024) ? rnd.nextInt(i-len) : -1;
+
+            for (int j=0; j<len; j++, i++)
+               input[i] = (ref >= 0) && ((ii & 1) == 0) ? input[ref+j] :
+                  (name.equals("TEXT") ? text[rnd.nextInt(text.length)] : (byte) rnd.nextInt(64));
+         }
+
+         SliceByteArray sa1 = new SliceByteArray(input, 0);
+         SliceByteArray sa2 = new SliceByteArray(output1, 0);
+         boolean res1 = f1.forward(sa1, sa2);
+         final int len1 = sa2.index;
+         sa1.index = 0;
+         sa2 = new SliceByteArray(output2, 0);
+         boolean res2 = getByteFunction(name).forward(sa1, sa2);
+
+         if ((res1 != res2) || (len1 != sa2.index) || 
+            (Arrays.equals(Arrays.copyOf(output1, len1), Arrays.copyOf(output2, len1)) == false))
+         {
+            System.out.println("Different output for block "+ii);
+            return false;
+         }
+
+         if (res1 == false)
+            continue;
+
+         sa2 = new SliceByteArray(output1, len1, 0);
+         SliceByteArray sa3 = new SliceByteArray(reverse, 0);
+
+         if ((f2.inverse(sa2, sa3) == false) || (Arrays.equals(input, reverse) == false))
+         {
+            System.out.println("Decoding error for block "+ii);
+            return false;
+         }
+      }
+
+      System.out.println("Identical");
+      return true;
+   }
+
+
    public static void testSpeed(String name)
    {
       // Test speed
@@ -17,16 +17,27 @@ package kanzi.test;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.util.Random;
+import kanzi.Memory;
+import kanzi.util.hash.CRC32C;
 import kanzi.util.hash.MurMurHash3;
 import kanzi.util.hash.SipHash_2_4;
 import kanzi.util.hash.XXHash32;
 import kanzi.util.hash.XXHash64;
+import org.junit.Assert;
+import org.junit.Test;
 
 
 public class TestHash
 {
   public static void main(String[] args)
   {    
+      testReference();
+      testStreaming();
+      testCRC32C();
+      testMurMurHash3();
+      testXXHash64();
+
       try
       {
          String fileName = (args.length > 0) ? args[0] : "c:\\temp\\rt.jar";
@@ -173,5 +184,232 @@ public class TestHash
       {
          e.printStackTrace();
       }
-  }  
+  }
+
+
+  @Test
+  public void testHash()
+  {
+     Assert.assertTrue(testReference());
+     Assert.assertTrue(testStreaming());
+     Assert.assertTrue(testCRC32C());
+     Assert.assertTrue(testMurMurHash3());
+     Assert.assertTrue(testXXHash64());
+  }
+
+
+  // Check vectors of the reference implementation (XXH64), one shot and
+  // streaming (the whole stream digest uses the latter)
+  public static boolean testXXHash64()
+  {
+     System.out.println("Correctness Test - XXHash64");
+     final byte[][] inputs = { "".getBytes(), "a".getBytes(), "abc".getBytes(),
+        new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF },
+        "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa".getBytes(),
+        "Nobody inspects the spammish repetition".getBytes(),
+        "The quick brown fox jumps over the lazy dog".getBytes(),
+        "".getBytes(), "abc".getBytes() };
+     final long[] seeds = { 0, 0, 0, 0, 0, 0, 0, 1, 0x9E3779B1L };
+     final long[] expected = { 0xEF46DB3751D8E999L, 0xD24EC4F1A98C6E5BL,
+        0x44BC2CF5AD770999L, 0x7F78E4BDA3ADDF93L, 0x569EA6843111EF03L,
+        0xFBCEA83C8A378BF1L, 0x0B242D361FDA71BCL, 0xD5AFBA1336A3BE4BL,
+        0x1318DF30094A85FDL };
+
+     for (int i=0; i<expected.length; i++)
+     {
+        XXHash64 hash = new XXHash64(seeds[i]);
+        final long actual = hash.hash(inputs[i]);
+
+        // Byte by byte updates
+        for (byte b : inputs[i])
+           hash.update(new byte[] { b }, 0, 1);
+
+        if ((actual != expected[i]) || (hash.digest() != expected[i]))
+        {
+           System.out.println("Vector "+i+": expected "+Long.toHexString(expected[i])+
+              ", found "+Long.toHexString(actual)+" (one shot), "+Long.toHexString(hash.digest())+" (streaming)");
+           return false;
+        }
+     }
+
+     System.out.println("Success");
+     return true;
+  }
+
+
+  // Check vectors of the reference implementation (MurmurHash3_x86_32)
+  public static boolean testMurMurHash3()
+  {
+     System.out.println("Correctness Test - MurmurHash3");
+     final String[] inputs = { "", "", "", "\0\0\0\0", "aaaa", "Hello, world!",
+        "The quick brown fox jumps over the lazy dog" };
+     final int[] seeds = { 0, 1, 0xFFFFFFFF, 0, 0x9747B28C, 0x9747B28C, 0 };
+     final int[] expected = { 0, 0x514E28B7, 0x81F16F39, 0x2362F9DE, 0x5A97808A,
+        0x24884CBA, 0x2E4FF723 };
+
+     for (int i=0; i<expected.length; i++)
+     {
+        MurMurHash3 hash = new MurMurHash3(seeds[i]);
+        final int actual = hash.hash(inputs[i].getBytes());
+
+        if (actual != expected[i])
+        {
+           System.out.println("Vector "+i+": expected "+Integer.toHexString(expected[i])+
+              ", found "+Integer.toHexString(actual));
+           return false;
+        }
+     }
+
+     System.out.println("Success");
+     return true;
+  }
+
+
+  // Pin the outputs of the hash functions (folded over many lengths, offsets
+  // and seeds): any faster implementation must return the same values.
+  public static boolean testReference()
+  {
+     System.out.println("Correctness Test - reference outputs");
+     byte[] data = new byte[300];
+
+     for (int i=0; i<data.length; i++)
+        data[i] = (byte) (i*i*31 + i*7);
+
+     final int[] seeds = { 0, 0x9E3779B1 };
+     long acc32 = 0;
+     long acc64 = 0;
+     long accMM = 0;
+
+     for (int seed : seeds)
+     {
+        XXHash32 h32 = new XXHash32(seed);
+        XXHash64 h64 = new XXHash64(seed);
+        MurMurHash3 mm = new MurMurHash3(seed);
+
+        for (int offset=0; offset<8; offset++)
+        {
+           for (int length=0; length<=256; length++)
+           {
+              acc32 = acc32*31 + h32.hash(data, offset, length);
+              acc64 = acc64*31 + h64.hash(data, offset, length);
+              accMM = accMM*31 + mm.hash(data, offset, length);
+           }
+        }
+     }
+
+     if (acc32 != 0xE7716AA0A59D53E0L)
+     {
+        System.out.println("XXHash32: unexpected outputs");
+        return false;
+     }
+
+     if (acc64 != 0x7B90F68EAFFD1AF4L)
+     {
+        System.out.println("XXHash64: unexpected outputs");
+        return false;
+     }
+
+     if (accMM != 0x3958DF1C336ECFFAL)
+     {
+        System.out.println("MurMurHash3: unexpected outputs");
+        return false;
+     }
+
+     System.out.println("Success");
+     return true;
+  }
+
+
+  // Check vectors from RFC 3720 (iSCSI)
+  public static boolean testCRC32C()
+  {
+     System.out.println("Correctness Test - CRC32C");
+     byte[] zeros = new byte[32];
+     byte[] ones = new byte[32];
+     byte[] incr = new byte[32];
+
+     for (int i=0; i<32; i++)
+     {
+        ones[i] = (byte) 0xFF;
+        incr[i] = (byte) i;
+     }
+
+     CRC32C crc = new CRC32C();
+     final int[] expected = { 0x8A9136AA, 0x62A8AB43, 0x46DD794E, 0xE3069283 };
+     final int[] actual = { crc.hash(zeros), crc.hash(ones), crc.hash(incr),
+        crc.hash("123456789".getBytes()) };
+
+     for (int i=0; i<expected.length; i++)
+     {
+        if (actual[i] != expected[i])
+        {
+           System.out.println("Vector "+i+": expected "+Integer.toHexString(expected[i])+
+              ", found "+Integer.toHexString(actual[i]));
+           return false;
+        }
+     }
+
+     System.out.println("Success");
+     return true;
+  }
+
+
+  // The streaming digests must match the hash of the whole data
+  public static boolean testStreaming()
+  {
+     System.out.println("Correctness Test - streaming XXHash32/XXHash64");
+     Random rnd = new Random(12345);
+     byte[] data = new byte[100000];
+     rnd.nextBytes(data);
+
+     for (int test=0; test<200; test++)
+     {
+        final int length = (test < 100) ? test : rnd.nextInt(data.length);
+        final int seed = rnd.nextInt();
+        XXHash32 h32 = new XXHash32(seed);
+        XXHash64 h64 = new XXHash64(seed);
+        XXHash32 s32 = new XXHash32(seed);
+        XXHash64 s64 = new XXHash64(seed);
+
+        // Random splits, including empty updates
+        for (int idx=0; idx<length; )
+        {
+           final int n = Math.min(length-idx, rnd.nextInt((test & 1) == 0 ? 40 : 5000));
+           s32.update(data, idx, n);
+           s64.update(data, idx, n);
+           idx += n;
+        }
+
+        if (s32.digest() != h32.hash(data, 0, length))
+        {
+           System.out.println("XXHash32: different digest for length "+length);
+           return false;
+        }
+
+        if (s64.digest() != h64.hash(data, 0, length))
+        {
+           System.out.println("XXHash64: different digest for length "+length);
+           return false;
+        }
+
+        // Same data added as longs (after an unaligned prefix)
+        XXHash64 l64 = new XXHash64(seed);
+        int idx = Math.min(test & 31, length);
+        l64.update(data, 0, idx);
+
+        for ( ; idx+8<=length; idx+=8)
+           l64.update(Memory.LittleEndian.readLong64(data, idx));
+
+        l64.update(data, idx, length-idx);
+
+        if (l64.digest() != s64.digest())
+        {
+           System.out.println("XXHash64: different digest (longs) for length "+length);
+           return false;
+        }
+     }
+
+     System.out.println("Success");
+     return true;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,620 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+                http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package kanzi.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import kanzi.Memory;
+import kanzi.util.hash.MurMurHash3;
+import kanzi.util.hash.SipHash_2_4;
+import kanzi.util.hash.XXHash32;
+import kanzi.util.hash.XXHash64;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+// Benchmark of the hash functions (input sizes, alignments, thread counts)
+// and quality report (table collisions, avalanche). The quality report also
+// covers the multiplicative hashes of the match finders (LZCodec, ROLZCodec,
+// TextCodec) to help choosing the hash of a table.
+// Run with the jar on the classpath to get the Java 9+ memory accesses
+// (multi-release classes).
+// Usage: TestHashBench [-MODE=ALL|SPEED|QUALITY] [-THREADS=1,2] [-OFFSETS=0,1]
+//        [-DURATION=<ms per cell>] [-MAXSIZE=<bytes>] [-SAMPLES=<n>]
+//        [-LOG=<table log>] [-FILE=<file providing the text keys>]
+public class TestHashBench
+{
+   private static final int KEY_LENGTH = 8;
+
+
+   public static void main(String[] args)
+   {
+      String mode = "ALL";
+      String threads = "1";
+      String offsets = "0,1";
+      int duration = 300;
+      int maxSize = 64*1024*1024;
+      int samples = 10000;
+      int logSize = 16;
+      String fileName = null;
+
+      if (Runtime.getRuntime().availableProcessors() > 1)
+         threads += "," + Runtime.getRuntime().availableProcessors();
+
+      for (String arg : args)
+      {
+         final String opt = arg.toUpperCase();
+         final String val = arg.substring(arg.indexOf('=')+1);
+
+         if (opt.startsWith("-MODE="))
+            mode = val.toUpperCase();
+         else if (opt.startsWith("-THREADS="))
+            threads = val;
+         else if (opt.startsWith("-OFFSETS="))
+            offsets = val;
+         else if (opt.startsWith("-DURATION="))
+            duration = Integer.parseInt(val);
+         else if (opt.startsWith("-MAXSIZE="))
+            maxSize = Integer.parseInt(val);
+         else if (opt.startsWith("-SAMPLES="))
+            samples = Integer.parseInt(val);
+         else if (opt.startsWith("-LOG="))
+            logSize = Integer.parseInt(val);
+         else if (opt.startsWith("-FILE="))
+            fileName = val;
+         else
+            System.out.println("Warning: ignoring unknown option ["+arg+"]");
+      }
+
+      if ((mode.equals("ALL")) || (mode.equals("SPEED")))
+      {
+         for (String t : threads.split(","))
+         {
+            for (String o : offsets.split(","))
+               testSpeed(Integer.parseInt(t.trim()), Integer.parseInt(o.trim()), maxSize, duration);
+         }
+      }
+
+      if ((mode.equals("ALL")) || (mode.equals("QUALITY")))
+      {
+         byte[] text = null;
+
+         if (fileName != null)
+         {
+            try
+            {
+               text = readFile(fileName, 16*1024*1024);
+            }
+            catch (IOException e)
+            {
+               System.out.println("Cannot read "+fileName+": "+e.getMessage());
+               System.exit(1);
+            }
+         }
+
+         testQuality(text, logSize, samples, true);
+      }
+   }
+
+
+   @Test
+   public void testHashBench()
+   {
+      // Small quality run: the general purpose hashes must behave like
+      // random functions (the match finder hashes are only reported)
+      Assert.assertTrue(testQuality(null, 14, 1000, false));
+   }
+
+
+   // A hash function under test
+   private abstract static class HashFunction
+   {
+      final String name;
+      final int bits;      // number of significant bits returned by hash()
+      final int keyLength; // fixed key length or 0 (any length)
+
+
+      HashFunction(String name, int bits, int keyLength)
+      {
+         this.name = name;
+         this.bits = bits;
+         this.keyLength = keyLength;
+      }
+
+
+      abstract long hash(byte[] data, int offset, int length);
+
+
+      // Index in a table of 2^logSize slots, the way the function is used
+      // by default: lowest bits of the hash
+      long index(byte[] data, int offset, int length, int logSize)
+      {
+         final long h = this.hash(data, offset, length);
+         return (logSize >= 64) ? h : h & ((1L<<logSize)-1);
+      }
+
+
+      boolean isGeneral()
+      {
+         return this.keyLength == 0;
+      }
+   }
+
+
+   // New instances (the hash functions are not shared between threads)
+   private static List<HashFunction> getGeneralFunctions()
+   {
+      List<HashFunction> res = new ArrayList<>();
+
+      res.add(new HashFunction("XXHash32", 32, 0)
+      {
+         private final XXHash32 hasher = new XXHash32(0);
+
+         @Override
+         long hash(byte[] data, int offset, int length)
+         {
+            return this.hasher.hash(data, offset, length) & 0xFFFFFFFFL;
+         }
+      });
+
+      res.add(new HashFunction("XXHash64", 64, 0)
+      {
+         private final XXHash64 hasher = new XXHash64(0);
+
+         @Override
+         long hash(byte[] data, int offset, int length)
+         {
+            return this.hasher.hash(data, offset, length);
+         }
+      });
+
+      res.add(new HashFunction("MurMurHash3", 32, 0)
+      {
+         private final MurMurHash3 hasher = new MurMurHash3(0);
+
+         @Override
+         long hash(byte[] data, int offset, int length)
+         {
+            return this.hasher.hash(data, offset, length) & 0xFFFFFFFFL;
+         }
+      });
+
+      res.add(new HashFunction("SipHash_2_4", 64, 0)
+      {
+         private final SipHash_2_4 hasher = new SipHash_2_4(0, 0);
+
+         @Override
+         long hash(byte[] data, int offset, int length)
+         {
+            return this.hasher.hash(data, offset, length);
+         }
+      });
+
+      return res;
+   }
+
+
+   // Hashes of the match finders, as computed in the codecs. The number of
+   // bits is the table size used by the codec.
+   private static List<HashFunction> getMatchFinderFunctions()
+   {
+      List<HashFunction> res = new ArrayList<>();
+
+      // LZCodec: 8 byte key, bits 21 to 39 of the product
+      res.add(new HashFunction("LZ", 19, 8)
+      {
+         @Override
+         long hash(byte[] data, int offset, int length)
+         {
+            return this.index(data, offset, length, this.bits);
+         }
+
+         @Override
+         long index(byte[] data, int offset, int length, int logSize)
+         {
+            final long h = Memory.LittleEndian.readLong64(data, offset) * 0x1E35A7BD;
+            return (h >>> (40-logSize)) & ((1L<<logSize)-1);
+         }
+      });
+
+      // ROLZCodec: 3 byte key (the 4th byte is shifted out), top 6 bits of
+      // the product used to check the match candidates
+      res.add(new HashFunction("ROLZ", 6, 3)
+      {
+         @Override
+         long hash(byte[] data, int offset, int length)
+         {
+            return this.index(data, offset, length, this.bits);
+         }
+
+         @Override
+         long index(byte[] data, int offset, int length, int logSize)
+         {
+            final int key = ((data[offset+2] & 0xFF) << 16) | ((data[offset+1] & 0xFF) << 8) |
+               (data[offset] & 0xFF);
+            return ((key << 8) * 200002979) >>> (32-logSize);
+         }
+      });
+
+      // TextCodec: word hash, lowest bits used as index (16M entries)
+      res.add(new HashFunction("TEXT", 24, 8)
+      {
+         @Override
+         long hash(byte[] data, int offset, int length)
+         {
+            return this.index(data, offset, length, this.bits);
+         }
+
+         @Override
+         long index(byte[] data, int offset, int length, int logSize)
+         {
+            int h = 0x7FEB352D;
+
+            for (int i=offset; i<offset+length; i++)
+               h = h*0x7FEB352D ^ data[i]*0x846CA68B;
+
+            return h & ((1L<<logSize)-1);
+         }
+      });
+
+      return res;
+   }
+
+
+   // Throughput of the general hashes for input sizes from 8 bytes to
+   // maxSize (x8 steps). Each thread hashes its own buffer.
+   public static void testSpeed(final int threads, final int offset, int maxSize, final int duration)
+   {
+      System.out.println("\nSpeed test (MB/s), "+threads+" thread(s), offset "+offset);
+      List<HashFunction> functions = getGeneralFunctions();
+      StringBuilder sb = new StringBuilder(String.format("%-10s", "Size"));
+
+      for (HashFunction f : functions)
+         sb.append(String.format("%14s", f.name));
+
+      System.out.println(sb);
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      long sink = 0;
+
+      try
+      {
+         for (long size=8; size<=maxSize; size<<=3)
+         {
+            final int length = (int) size;
+            sb.setLength(0);
+            sb.append(String.format("%-10s", formatSize(length)));
+
+            for (int n=0; n<functions.size(); n++)
+            {
+               final int fIdx = n;
+               List<Future<long[]>> results = new ArrayList<>(threads);
+
+               for (int t=0; t<threads; t++)
+               {
+                  final int seed = t;
+
+                  results.add(pool.submit(new Callable<long[]>()
+                  {
+                     @Override
+                     public long[] call()
+                     {
+                        final HashFunction f = getGeneralFunctions().get(fIdx);
+                        byte[] buf = new byte[offset+length];
+                        new Random(seed).nextBytes(buf);
+                        long res = 0;
+
+                        // Warm up then measure
+                        for (int pass=0; pass<2; pass++)
+                        {
+                           final long end = System.nanoTime() + duration*1000000L / ((pass == 0) ? 4 : 1);
+                           final long before = System.nanoTime();
+                           long count = 0;
+                           long now;
+
+                           do
+                           {
+                              for (int i=0; i<16; i++)
+                                 res += f.hash(buf, offset, length);
+
+                              count += 16;
+                              now = System.nanoTime();
+                           }
+                           while (now < end);
+
+                           if (pass == 1)
+                              return new long[] { count*length, now-before, res };
+                        }
+
+                        return null;
+                     }
+                  }));
+               }
+
+               double mbps = 0;
+
+               for (Future<long[]> fut : results)
+               {
+                  final long[] r = fut.get();
+                  mbps += (double) r[0] / (1024*1024) / (r[1]/1.0e9);
+                  sink += r[2];
+               }
+
+               sb.append(String.format("%14.0f", mbps));
+            }
+
+            System.out.println(sb);
+         }
+      }
+      catch (Exception e)
+      {
+         e.printStackTrace();
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+
+      if (sink == 42)
+         System.out.println();
+   }
+
+
+   // Collision and avalanche report. Return false if a general hash does not
+   // behave like a random function (collision ratio or avalanche bias too high).
+   public static boolean testQuality(byte[] text, int logSize, int samples, boolean verbose)
+   {
+      System.out.println("\nQuality test (table of 2^"+logSize+" slots, "+samples+" avalanche samples)");
+      List<HashFunction> functions = getGeneralFunctions();
+      functions.addAll(getMatchFinderFunctions());
+
+      if (text == null)
+         text = generateText(1<<21);
+
+      // Key sets: the collision count is compared to the one of an ideal
+      // random function (ratio 1.0), for as many keys as table slots
+      final String[] keySets = { "random", "counter", "ascii", "text" };
+      Random rnd = new Random(12345);
+      final int nbKeys = 1 << logSize;
+      byte[] randomKeys = new byte[nbKeys*KEY_LENGTH];
+      byte[] counterKeys = new byte[nbKeys*KEY_LENGTH];
+      byte[] asciiKeys = new byte[nbKeys*KEY_LENGTH];
+      rnd.nextBytes(randomKeys);
+
+      for (int i=0; i<nbKeys; i++)
+      {
+         Memory.LittleEndian.writeLong64(counterKeys, i*KEY_LENGTH, i);
+         final String s = String.format("%08d", i);
+
+         for (int j=0; j<KEY_LENGTH; j++)
+            asciiKeys[i*KEY_LENGTH+j] = (byte) s.charAt(j);
+      }
+
+      final byte[][] sources = { randomKeys, counterKeys, asciiKeys, text };
+      final int[] strides = { KEY_LENGTH, KEY_LENGTH, KEY_LENGTH, 1 };
+      StringBuilder sb = new StringBuilder(String.format("%-12s", "Hash"));
+
+      for (String k : keySets)
+         sb.append(String.format("%10s", k));
+
+      sb.append(String.format("%14s%14s", "worst bias", "mean bias"));
+      System.out.println(sb);
+      boolean res = true;
+
+      for (HashFunction f : functions)
+      {
+         sb.setLength(0);
+         sb.append(String.format("%-12s", f.name));
+
+         for (int k=0; k<keySets.length; k++)
+         {
+            final double ratio = collisionRatio(f, sources[k], strides[k], logSize);
+
+            if (Double.isNaN(ratio) == true)
+            {
+               sb.append(String.format("%10s", "n/a"));
+               continue;
+            }
+
+            sb.append(String.format("%10.3f", ratio));
+
+            // Statistical margin for an ideal function is well under 10%
+            if ((f.isGeneral() == true) && (ratio > 1.1))
+            {
+               System.out.println(f.name+": too many collisions with "+keySets[k]+" keys");
+               res = false;
+            }
+         }
+
+         final double[] bias = avalanche(f, samples, rnd);
+         sb.append(String.format("%14.4f%14.4f", bias[0], bias[1]));
+
+         if ((f.isGeneral() == true) && (bias[0] > 0.1))
+         {
+            System.out.println(f.name+": poor avalanche");
+            res = false;
+         }
+
+         if ((verbose == true) || (f.isGeneral() == true))
+            System.out.println(sb);
+      }
+
+      System.out.println("(collisions: ratio to an ideal hash, n/a: not enough distinct keys,");
+      System.out.println(" avalanche: |P(output bit flips) - 0.5|)");
+      System.out.println("Match finder hashes use the bits of their codec (LZ 19, ROLZ 6, TEXT 24)");
+      return res;
+   }
+
+
+   // Hash distinct keys (windows of the source at the given stride) into a
+   // table of 2^logSize slots (at most 2^bits) and return the number of
+   // collisions divided by the expected number for an ideal hash (NaN if
+   // the source does not provide enough distinct keys).
+   private static double collisionRatio(HashFunction f, byte[] source, int stride, int logSize)
+   {
+      final int log = Math.min(logSize, f.bits);
+      final int keyLength = (f.keyLength == 0) ? KEY_LENGTH : f.keyLength;
+      final int nbKeys = 1 << log;
+      final long keyMask = (keyLength == 8) ? -1L : (1L<<(8*keyLength)) - 1;
+      Set<Long> seen = new HashSet<>();
+      int[] slots = new int[nbKeys];
+      int keys = 0;
+      int collisions = 0;
+
+      // The last 8 bytes are not used as key start (8 byte reads)
+      for (int i=0; (i+8<=source.length) && (keys<nbKeys); i+=stride)
+      {
+         if (seen.add(Memory.LittleEndian.readLong64(source, i) & keyMask) == false)
+            continue;
+
+         final int idx = (int) f.index(source, i, keyLength, log);
+
+         if (slots[idx]++ != 0)
+            collisions++;
+
+         keys++;
+      }
+
+      if (keys < nbKeys/2)
+         return Double.NaN;
+
+      // Expected number of keys landing in an occupied slot
+      final double expected = keys - nbKeys*(1.0-Math.pow(1.0-1.0/nbKeys, keys));
+      return (expected == 0) ? 1.0 : collisions / expected;
+   }
+
+
+   // Flip each input bit of random keys and measure how often each output
+   // bit changes. Return the worst and mean distance to 0.5.
+   private static double[] avalanche(HashFunction f, int samples, Random rnd)
+   {
+      final int keyLength = (f.keyLength == 0) ? KEY_LENGTH : f.keyLength;
+      final int inBits = 8 * keyLength;
+      final int outBits = f.bits;
+      int[] counts = new int[inBits*outBits];
+      byte[] key = new byte[KEY_LENGTH]; // match finder hashes may read 8 bytes
+
+      for (int s=0; s<samples; s++)
+      {
+         rnd.nextBytes(key);
+         final long h0 = f.hash(key, 0, keyLength);
+
+         for (int i=0; i<inBits; i++)
+         {
+            key[i>>3] ^= (1 << (i&7));
+            final long diff = h0 ^ f.hash(key, 0, keyLength);
+            key[i>>3] ^= (1 << (i&7));
+
+            for (int j=0; j<outBits; j++)
+               counts[i*outBits+j] += (int) ((diff>>>j) & 1);
+         }
+      }
+
+      double worst = 0;
+      double sum = 0;
+
+      for (int c : counts)
+      {
+         final double bias = Math.abs((double) c/samples - 0.5);
+         worst = Math.max(worst, bias);
+         sum += bias;
+      }
+
+      return new double[] { worst, sum/counts.length };
+   }
+
+
+   // Synthetic text: words drawn from a small vocabulary (skewed frequencies)
+   private static byte[] generateText(int length)
+   {
+      Random rnd = new Random(12345);
+      String[] words = new String[2000];
+
+      for (int i=0; i<words.length; i++)
+      {
+         char[] w = new char[2+rnd.nextInt(9)];
+
+         for (int j=0; j<w.length; j++)
+            w[j] = (char) ('a'+rnd.nextInt(26));
+
+         if (rnd.nextInt(10) == 0)
+            w[0] = Character.toUpperCase(w[0]);
+
+         words[i] = new String(w);
+      }
+
+      byte[] res = new byte[length];
+      int n = 0;
+
+      while (n < length)
+      {
+         final String w = words[(int) (words.length*Math.pow(rnd.nextDouble(), 3))];
+
+         for (int j=0; (j<w.length()) && (n<length); j++)
+            res[n++] = (byte) w.charAt(j);
+
+         if (n < length)
+            res[n++] = (byte) ((rnd.nextInt(12) == 0) ? '\n' : ' ');
+      }
+
+      return res;
+   }
+
+
+   private static byte[] readFile(String fileName, int maxLength) throws IOException
+   {
+      File input = new File(fileName);
+      byte[] res = new byte[(int) Math.min(input.length(), maxLength)];
+
+      try (FileInputStream fis = new FileInputStream(input))
+      {
+         int n = 0;
+
+         while (n < res.length)
+         {
+            final int r = fis.read(res, n, res.length-n);
+
+            if (r <= 0)
+               break;
+
+            n += r;
+         }
+      }
+
+      return res;
+   }
+
+
+   private static String formatSize(int size)
+   {
+      if (size >= 1024*1024)
+         return (size>>20) + " MB";
+
+      if (size >= 1024)
+         return (size>>10) + " KB";
+
+      return size + " B";
+   }
+}
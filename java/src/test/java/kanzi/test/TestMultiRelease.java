@@ -0,0 +1,213 @@
+/*
+Copyright 2011-2017 Frederic Langlet
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+you may obtain a copy of the License at
+
+                http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package kanzi.test;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Random;
+import kanzi.Memory;
+import kanzi.util.hash.CRC32C;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+// The tests run with the classes of src/main/java. This test loads the Java 9+
+// versions (META-INF/versions/9 of the multi-release jar) in a separate class
+// loader and checks that they return the same values as the default classes.
+public class TestMultiRelease
+{
+   public static void main(String[] args)
+   {
+      if (testMultiRelease() == false)
+         System.exit(1);
+   }
+
+
+   @Test
+   public void testVersionedClasses()
+   {
+      Assert.assertTrue(testMultiRelease());
+   }
+
+
+   public static boolean testMultiRelease()
+   {
+      System.out.println("Correctness Test - Java 9 versioned classes");
+
+      if (System.getProperty("java.specification.version").startsWith("1."))
+      {
+         System.out.println("Skipped (Java 8 or older)");
+         return true;
+      }
+
+      try
+      {
+         // From a multi-release jar, the JVM already loads the versioned classes
+         if (new File(Memory.class.getProtectionDomain().getCodeSource().getLocation().toURI()).isFile())
+         {
+            System.out.println("Skipped (classes loaded from a jar)");
+            return true;
+         }
+
+         ClassLoader loader = getVersionedLoader();
+
+         if (loader == null)
+            return false;
+
+         return testMemory(loader) && testCRC32C(loader);
+      }
+      catch (Exception e)
+      {
+         System.out.println("Failure: "+e);
+         return false;
+      }
+   }
+
+
+   // Class loader for the Java 9 classes (then the other classes), without the
+   // application class path
+   private static ClassLoader getVersionedLoader() throws Exception
+   {
+      URL location = Memory.class.getProtectionDomain().getCodeSource().getLocation();
+      File root = new File(location.toURI());
+
+      File versioned = new File(root, "META-INF/versions/9");
+
+      if (versioned.isDirectory() == false)
+      {
+         System.out.println("Failure: "+versioned+" not found");
+         return null;
+      }
+
+      return new URLClassLoader(new URL[] { versioned.toURI().toURL(), location }, null);
+   }
+
+
+   private static boolean testMemory(ClassLoader loader) throws Exception
+   {
+      final String[] names = { "BigEndian", "LittleEndian" };
+      Random rnd = new Random(12345);
+
+      for (String name : names)
+      {
+         Class<?> base = Class.forName("kanzi.Memory$"+name);
+         Class<?> clazz = loader.loadClass("kanzi.Memory$"+name);
+
+         if (hasField(clazz, "java.lang.invoke.VarHandle") == false)
+         {
+            System.out.println("Failure: kanzi.Memory$"+name+" is not the Java 9 class");
+            return false;
+         }
+
+         final String[] readers = { "readLong64", "readInt32", "readInt16" };
+         final String[] writers = { "writeLong64", "writeInt32", "writeInt16" };
+         byte[] buf = new byte[64];
+
+         for (int ii=0; ii<readers.length; ii++)
+         {
+            Method read1 = base.getMethod(readers[ii], byte[].class, int.class);
+            Method read2 = clazz.getMethod(readers[ii], byte[].class, int.class);
+            Class<?> type = (ii == 0) ? long.class : int.class;
+            Method write1 = base.getMethod(writers[ii], byte[].class, int.class, type);
+            Method write2 = clazz.getMethod(writers[ii], byte[].class, int.class, type);
+            final int width = 8 >> ii;
+
+            // Unaligned offsets
+            for (int offset=0; offset<=buf.length-width; offset++)
+            {
+               rnd.nextBytes(buf);
+
+               if (read1.invoke(null, buf, offset).equals(read2.invoke(null, buf, offset)) == false)
+               {
+                  System.out.println("Failure: different "+name+"."+readers[ii]+" at offset "+offset);
+                  return false;
+               }
+
+               final long val = rnd.nextLong();
+               final Object arg = (ii == 0) ? (Object) val : (Object) ((int) val);
+               byte[] buf1 = buf.clone();
+               byte[] buf2 = buf.clone();
+               write1.invoke(null, buf1, offset, arg);
+               write2.invoke(null, buf2, offset, arg);
+
+               for (int i=0; i<buf.length; i++)
+               {
+                  if (buf1[i] != buf2[i])
+                  {
+                     System.out.println("Failure: different "+name+"."+writers[ii]+" at offset "+offset);
+                     return false;
+                  }
+               }
+            }
+         }
+      }
+
+      System.out.println("Memory: identical");
+      return true;
+   }
+
+
+   private static boolean testCRC32C(ClassLoader loader) throws Exception
+   {
+      Class<?> clazz = loader.loadClass("kanzi.util.hash.CRC32C");
+
+      // The software version has a lookup table
+      if (hasField(clazz, "[I") == true)
+      {
+         System.out.println("Failure: kanzi.util.hash.CRC32C is not the Java 9 class");
+         return false;
+      }
+
+      Object crc2 = clazz.getConstructor().newInstance();
+      Method hash2 = clazz.getMethod("hash", byte[].class, int.class, int.class);
+      CRC32C crc1 = new CRC32C();
+      Random rnd = new Random(12345);
+      byte[] data = new byte[5000];
+      rnd.nextBytes(data);
+
+      for (int test=0; test<500; test++)
+      {
+         final int length = (test < 100) ? test : rnd.nextInt(data.length);
+         final int offset = rnd.nextInt(data.length-length+1);
+         final int val1 = crc1.hash(data, offset, length);
+         final int val2 = (Integer) hash2.invoke(crc2, data, offset, length);
+
+         if (val1 != val2)
+         {
+            System.out.println("Failure: different CRC32C for length "+length+" at offset "+offset);
+            return false;
+         }
+      }
+
+      System.out.println("CRC32C: identical");
+      return true;
+   }
+
+
+   private static boolean hasField(Class<?> clazz, String typeName)
+   {
+      for (Field f : clazz.getDeclaredFields())
+      {
+         if (f.getType().getName().equals(typeName))
+            return true;
+      }
+
+      return false;
+   }
+}
@@ -80,12 +80,15 @@ public class TestTransforms
    {
       System.out.println("\n\nTestRANK");
       Assert.assertTrue(testCorrectness("RANK"));
+      Assert.assertTrue(testReuse("RANK"));
       //testSpeed("RANK");
       System.out.println("\n\nTestMTFT");
       Assert.assertTrue(testCorrectness("MTFT"));
+      Assert.assertTrue(testReuse("MTFT"));
       //testSpeed("MTFT");   
       System.out.println("\n\nTestBWTS");
       Assert.assertTrue(testCorrectness("BWTS"));
+      Assert.assertTrue(testReuse("BWTS"));
       //testSpeed("BWTS"); 
    }
    
@@ -110,6 +113,55 @@ public class TestTransforms
    }
 
     
+   // The same instances transform a sequence of blocks: the output must not
+   // depend on the previous blocks
+   private static boolean testReuse(String name)
+   {
+      System.out.println("Reuse test for " + name);
+      Random rnd = new Random();
+      ByteTransform f1 = getByteTransform(name);
+      ByteTransform f2 = getByteTransform(name);
+
+      for (int ii=0; ii<10; ii++)
+      {
+         final int size = 4096 << (ii & 3);
+         final int range = ((ii & 1) == 0) ? 4 : 256;
+         byte[] input = new byte[size];
+         byte[] output1 = new byte[size];
+         byte[] output2 = new byte[size];
+         byte[] reverse = new byte[size];
+
+         for (int i=0; i<size; i++)
+            input[i] = (byte) rnd.nextInt(range);
+
+         SliceByteArray sa1 = new SliceByteArray(input, 0);
+         SliceByteArray sa2 = new SliceByteArray(output1, 0);
+         boolean res1 = f1.forward(sa1, sa2);
+         sa1.index = 0;
+         sa2 = new SliceByteArray(output2, 0);
+         boolean res2 = getByteTransform(name).forward(sa1, sa2);
+
+         if ((res1 != res2) || (Arrays.equals(output1, output2) == false))
+         {
+            System.out.println("Different output for block "+ii);
+            return false;
+         }
+
+         sa2 = new SliceByteArray(output1, 0);
+         SliceByteArray sa3 = new SliceByteArray(reverse, 0);
+
+         if ((f2.inverse(sa2, sa3) == false) || (Arrays.equals(input, reverse) == false))
+         {
+            System.out.println("Decoding error for block "+ii);
+            return false;
+         }
+      }
+
+      System.out.println("Identical");
+      return true;
+   }
+
+
    private static boolean testCorrectness(String name)
    {        
       byte[] input;